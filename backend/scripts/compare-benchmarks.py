@@ -0,0 +1,84 @@
+#!/usr/bin/env python3
+"""Compares a JMH JSON result against a stored baseline and flags regressions.
+
+Usage:
+    scripts/compare-benchmarks.py [--threshold 0.10] BASELINE.json RESULT.json
+
+A benchmark regresses when it is more than THRESHOLD slower (or, in throughput mode, has more
+than THRESHOLD less throughput) than the baseline and the two scores' error intervals don't
+overlap, so noise alone doesn't fail the comparison. Exits with 1 if anything regressed.
+"""
+
+import argparse
+import json
+import math
+import sys
+
+HIGHER_IS_BETTER = {"thrpt"}
+
+
+def load(path):
+    with open(path) as f:
+        results = {}
+        for entry in json.load(f):
+            params = entry.get("params") or {}
+            name = entry["benchmark"].rsplit(".", 2)
+            label = ".".join(name[-2:])
+            if params:
+                label += " [" + ", ".join(f"{k}={v}" for k, v in sorted(params.items())) + "]"
+            results[label] = entry
+        return results
+
+
+def error(metric):
+    value = metric.get("scoreError")
+    return 0.0 if value is None or (isinstance(value, float) and math.isnan(value)) else float(value)
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument("baseline")
+    parser.add_argument("result")
+    parser.add_argument("--threshold", type=float, default=0.10,
+                        help="relative change that counts as a regression (default 0.10)")
+    args = parser.parse_args()
+
+    baseline = load(args.baseline)
+    result = load(args.result)
+
+    regressions = 0
+    width = max((len(label) for label in result), default=0)
+    for label in sorted(result):
+        current = result[label]
+        metric = current["primaryMetric"]
+        unit = metric["scoreUnit"]
+        if label not in baseline:
+            print(f"{label:<{width}}  {metric['score']:10.3f} {unit}  (new)")
+            continue
+
+        reference = baseline[label]["primaryMetric"]
+        change = (metric["score"] - reference["score"]) / reference["score"]
+        if current["mode"] in HIGHER_IS_BETTER:
+            change = -change
+
+        overlapping = abs(metric["score"] - reference["score"]) <= error(metric) + error(reference)
+        status = "REGRESSION" if change > args.threshold and not overlapping else ""
+        if change < -args.threshold and not overlapping:
+            status = "improved"
+        regressions += status == "REGRESSION"
+
+        direction = "slower" if change > 0 else "faster"
+        print(f"{label:<{width}}  {reference['score']:10.3f} -> {metric['score']:10.3f} {unit}  "
+              f"{abs(change):6.1%} {direction}  {status}".rstrip())
+
+    for label in sorted(set(baseline) - set(result)):
+        print(f"{label:<{width}}  (missing from result)")
+
+    if regressions:
+        print(f"\n{regressions} benchmark(s) regressed by more than {args.threshold:.0%}")
+        return 1
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
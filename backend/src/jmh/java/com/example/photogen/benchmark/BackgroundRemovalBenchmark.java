@@ -0,0 +1,84 @@
+package com.example.photogen.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.photogen.service.BackgroundRemovalResult;
+import com.example.photogen.service.BackgroundRemovalService;
+import com.example.photogen.service.OutputFormat;
+import com.example.photogen.service.SegmentationSession;
+import com.example.photogen.service.SegmentationSessions;
+
+/**
+ * The background removal pipeline end to end, and its cheap tail on its own: compositing the
+ * kept foreground onto a new background, with and without encoding the result. {@code recolor} is
+ * mostly encoding, so it also compares the output formats.
+ *
+ * Face analysis is cached after the first invocation, so {@code process} measures segmentation,
+ * compositing and encoding; {@link FaceAnalysisBenchmark} covers detection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class BackgroundRemovalBenchmark {
+
+    @Param({"1", "3"})
+    public int upscale;
+
+    @Param({"false", "true"})
+    public boolean formalClothes;
+
+    @Param({"jpeg", "webp", "png", "mask"})
+    public String format;
+
+    private BackgroundRemovalService backgroundRemovalService;
+    private Mat image;
+    private String sessionToken;
+    private SegmentationSession session;
+    private Mat background;
+    private OutputFormat outputFormat;
+
+    @Setup
+    public void setUp() throws Exception {
+        SegmentationSessions sessions = Fixtures.segmentationSessions();
+        backgroundRemovalService = Fixtures.backgroundRemovalService(sessions);
+        image = Fixtures.portrait(upscale);
+
+        sessionToken = backgroundRemovalService.process(image, null, "#ffffff", formalClothes, null).sessionToken();
+        session = sessions.get(sessionToken);
+        background = new Mat(session.size(), session.type());
+        outputFormat = OutputFormat.of(format, null);
+    }
+
+    @Benchmark
+    public BackgroundRemovalResult process() {
+        return backgroundRemovalService.process(image, null, "#ffffff", formalClothes, null);
+    }
+
+    @Benchmark
+    public BackgroundRemovalResult recolor() {
+        return backgroundRemovalService.recolor(sessionToken, null, null, "#ff0000", outputFormat);
+    }
+
+    @Benchmark
+    public boolean composite() {
+        background.setTo(new Scalar(0, 0, 255));
+        return session.compositeOnto(background);
+    }
+}
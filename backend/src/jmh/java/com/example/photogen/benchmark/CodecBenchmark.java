@@ -0,0 +1,64 @@
+package com.example.photogen.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.ImageDecodeProperties;
+import com.example.photogen.service.ImageDecoder;
+
+/**
+ * The decode stage every endpoint starts with and the JPEG encode background removal ends with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"1", "3", "6"})
+    public int upscale;
+
+    private ImageDecoder imageDecoder;
+    private byte[] jpeg;
+    private Mat image;
+    private MatOfByte encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        imageDecoder = new ImageDecoder(DataSize.ofMegabytes(20), new ImageDecodeProperties(1000, 1000));
+        image = Fixtures.portrait(upscale);
+        jpeg = Fixtures.jpeg(image);
+        encoded = new MatOfByte();
+    }
+
+    @Benchmark
+    public int decode() {
+        Mat decoded = imageDecoder.decode(jpeg);
+        int rows = decoded.rows();
+        decoded.release();
+        return rows;
+    }
+
+    @Benchmark
+    public long encode() {
+        Imgcodecs.imencode(".jpg", image, encoded);
+        return encoded.total();
+    }
+}
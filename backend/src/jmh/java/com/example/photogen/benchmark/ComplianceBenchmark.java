@@ -0,0 +1,54 @@
+package com.example.photogen.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.photogen.config.ComplianceProperties;
+import com.example.photogen.service.ComplianceMetrics;
+import com.example.photogen.service.ComplianceMetricsService;
+import com.example.photogen.service.FaceAnalysis;
+
+/**
+ * The whiteness, uniformity and exposure measurements behind the compliance checks, with the
+ * face analysis they need done up front.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ComplianceBenchmark {
+
+    @Param({"1", "3", "6"})
+    public int upscale;
+
+    private ComplianceMetricsService complianceMetricsService;
+    private Mat image;
+    private FaceAnalysis analysis;
+
+    @Setup
+    public void setUp() throws Exception {
+        complianceMetricsService = new ComplianceMetricsService(new ComplianceProperties(230, 0.5, 40, 10, 245, 0.2, false, false),
+            Fixtures.matArenas());
+        image = Fixtures.portrait(upscale);
+        analysis = Fixtures.faceAnalysisService(Fixtures.matArenas()).detect(image);
+    }
+
+    @Benchmark
+    public ComplianceMetrics measure() {
+        return complianceMetricsService.measure(image, analysis);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.photogen.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.photogen.service.FaceAnalysis;
+import com.example.photogen.service.FaceAnalysisService;
+
+/**
+ * The detect stage shared by all three endpoints: the face, eye and nose cascades on a fresh
+ * image, and the pixel hash a repeated image costs before the cached analysis is returned.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class FaceAnalysisBenchmark {
+
+    @Param({"1", "3", "6"})
+    public int upscale;
+
+    private FaceAnalysisService faceAnalysisService;
+    private Mat image;
+
+    @Setup
+    public void setUp() throws Exception {
+        faceAnalysisService = Fixtures.faceAnalysisService(Fixtures.matArenas());
+        image = Fixtures.portrait(upscale);
+    }
+
+    @Benchmark
+    public FaceAnalysis detect() {
+        return faceAnalysisService.detect(image);
+    }
+
+    @Benchmark
+    public FaceAnalysis analyzeCached() {
+        return faceAnalysisService.analyze(image);
+    }
+}
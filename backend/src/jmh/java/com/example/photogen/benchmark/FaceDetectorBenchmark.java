@@ -0,0 +1,93 @@
+package com.example.photogen.benchmark;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.photogen.config.FaceAnalysisProperties;
+import com.example.photogen.service.FaceAnalysis;
+import com.example.photogen.service.FaceDetector;
+
+/**
+ * Compares the face detector engines on the bundled processed portraits, one person each. Next
+ * to the time per image, every iteration counts the images where exactly one face was found
+ * ({@code hits}), none ({@code misses}) and more than one ({@code extraFaces}); the hit rate is
+ * hits over their sum. The dnn engine uses the YuNet model the build packages; another one can be
+ * passed with {@code -p model=file:/path/to/model.onnx}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class FaceDetectorBenchmark {
+
+    @Param({"haar", "dnn"})
+    public String engine;
+
+    @Param({"1", "3"})
+    public int upscale;
+
+    @Param({"classpath:models/face_detection_yunet_2023mar.onnx"})
+    public String model;
+
+    private FaceDetector faceDetector;
+    private List<Mat> portraits;
+    private int next;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        public long hits;
+        public long misses;
+        public long extraFaces;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+            extraFaces = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        FaceAnalysisProperties defaults = Fixtures.FACE_ANALYSIS;
+        FaceAnalysisProperties properties = new FaceAnalysisProperties(defaults.cacheSize(),
+            FaceAnalysisProperties.Engine.valueOf(engine.toUpperCase(Locale.ROOT)), defaults.maxSide(), defaults.minFaceFraction(),
+            defaults.maxFaceFraction(), new FaceAnalysisProperties.Dnn(model, defaults.dnn().scoreThreshold(),
+                defaults.dnn().nmsThreshold(), defaults.dnn().topK()));
+        faceDetector = Fixtures.faceDetector(properties, Fixtures.matArenas());
+        portraits = Fixtures.portraits(upscale);
+    }
+
+    @Benchmark
+    public FaceAnalysis detect(Outcomes outcomes) {
+        Mat image = portraits.get(next);
+        next = (next + 1) % portraits.size();
+
+        FaceAnalysis analysis = faceDetector.detect(image);
+        switch (analysis.faces().size()) {
+            case 0 -> outcomes.misses++;
+            case 1 -> outcomes.hits++;
+            default -> outcomes.extraFaces++;
+        }
+        return analysis;
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.photogen.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.BackgroundAssetProperties;
+import com.example.photogen.config.ClothingTemplateProperties;
+import com.example.photogen.config.ComputeGateProperties;
+import com.example.photogen.config.FaceAnalysisProperties;
+import com.example.photogen.config.GrabCutProperties;
+import com.example.photogen.config.ImageDecodeProperties;
+import com.example.photogen.config.ProcessedImageStoreProperties;
+import com.example.photogen.config.SegmentationSessionProperties;
+import com.example.photogen.service.BackgroundAssets;
+import com.example.photogen.service.BackgroundRemovalService;
+import com.example.photogen.service.CascadeClassifierRegistry;
+import com.example.photogen.service.ClothingTemplateCache;
+import com.example.photogen.service.ComputeGate;
+import com.example.photogen.service.DnnFaceDetector;
+import com.example.photogen.service.FaceAnalysisService;
+import com.example.photogen.service.FaceDetector;
+import com.example.photogen.service.GrabCutSegmenter;
+import com.example.photogen.service.HaarFaceDetector;
+import com.example.photogen.service.ImageDecoder;
+import com.example.photogen.service.MatArenas;
+import com.example.photogen.service.ProcessedImageStore;
+import com.example.photogen.service.SegmentationSessions;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Inputs and services shared by the benchmarks, built with the defaults of
+ * {@code application.properties} but without Spring.
+ *
+ * Every resolution is derived from the bundled head-and-shoulders portrait, so the benchmarks
+ * compare the same framing at up to phone-photo sizes without checking in large images.
+ */
+final class Fixtures {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    static final FaceAnalysisProperties FACE_ANALYSIS = new FaceAnalysisProperties(256, FaceAnalysisProperties.Engine.HAAR,
+        640, 0.1, 1.0, new FaceAnalysisProperties.Dnn("classpath:models/face_detection_yunet_2023mar.onnx", 0.8f, 0.3f, 50));
+
+    static final GrabCutProperties GRAB_CUT = new GrabCutProperties(true, 0.25, true, 400, 50, 5, 0.001);
+
+    // Meters are recorded as in production, into a registry nobody scrapes
+    private static final MeterRegistry METERS = new SimpleMeterRegistry();
+
+    private Fixtures() {
+    }
+
+    /**
+     * The bundled 397x397 portrait upscaled by a whole factor. Fractional factors are avoided on
+     * purpose: a slightly resampled copy can fall just outside what the face cascade finds.
+     */
+    static Mat portrait(int upscale) throws IOException {
+        Mat original;
+        try (InputStream in = new ClassPathResource("fixtures/portrait.jpg").getInputStream()) {
+            original = Imgcodecs.imdecode(new MatOfByte(in.readAllBytes()), Imgcodecs.IMREAD_COLOR);
+        }
+        if (upscale == 1) {
+            return original;
+        }
+
+        Mat resized = new Mat();
+        Imgproc.resize(original, resized, new Size(), upscale, upscale, Imgproc.INTER_CUBIC);
+        original.release();
+        return resized;
+    }
+
+    /**
+     * The processed portraits bundled with the app, one person each, upscaled by a whole factor.
+     * Together they are the labelled set face detection hit rates are measured on.
+     */
+    static List<Mat> portraits(int upscale) throws IOException {
+        List<Mat> portraits = new ArrayList<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources("classpath:processed/*.jpg")) {
+            Mat original;
+            try (InputStream in = resource.getInputStream()) {
+                original = Imgcodecs.imdecode(new MatOfByte(in.readAllBytes()), Imgcodecs.IMREAD_COLOR);
+            }
+            if (upscale == 1) {
+                portraits.add(original);
+                continue;
+            }
+
+            Mat resized = new Mat();
+            Imgproc.resize(original, resized, new Size(), upscale, upscale, Imgproc.INTER_CUBIC);
+            original.release();
+            portraits.add(resized);
+        }
+        return portraits;
+    }
+
+    static byte[] jpeg(Mat image) {
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(".jpg", image, encoded);
+        byte[] bytes = encoded.toArray();
+        encoded.release();
+        return bytes;
+    }
+
+    static MatArenas matArenas() {
+        return new MatArenas(DataSize.ofMegabytes(32));
+    }
+
+    static FaceAnalysisService faceAnalysisService(MatArenas matArenas) {
+        return new FaceAnalysisService(faceDetector(FACE_ANALYSIS, matArenas), FACE_ANALYSIS, METERS);
+    }
+
+    /** The engine {@code properties} select, built as {@code FaceDetectorConfig} would. */
+    static FaceDetector faceDetector(FaceAnalysisProperties properties, MatArenas matArenas) {
+        return switch (properties.engine()) {
+            case HAAR -> new HaarFaceDetector(new CascadeClassifierRegistry("", 0, METERS), matArenas, properties);
+            case DNN -> new DnnFaceDetector(new DefaultResourceLoader().getResource(properties.dnn().model()), matArenas,
+                properties);
+        };
+    }
+
+    static GrabCutSegmenter grabCutSegmenter(GrabCutProperties properties, MatArenas matArenas) {
+        return new GrabCutSegmenter(properties, Executors.newFixedThreadPool(2, Fixtures::daemon), computeGate(), matArenas,
+            METERS);
+    }
+
+    /** The whole removal pipeline, with session keeping on and processed image storage off. */
+    static BackgroundRemovalService backgroundRemovalService(SegmentationSessions sessions) throws IOException {
+        MatArenas matArenas = matArenas();
+        GrabCutSegmenter grabCutSegmenter = grabCutSegmenter(GRAB_CUT, matArenas);
+        ClothingTemplateCache clothingTemplateCache = new ClothingTemplateCache(
+            new ClothingTemplateProperties("classpath:images/*.png", "formal2", 1.5, DataSize.ofMegabytes(128)),
+            grabCutSegmenter, new PathMatchingResourcePatternResolver(), matArenas);
+        ProcessedImageStore processedImageStore = new ProcessedImageStore(
+            new ProcessedImageStoreProperties(false, Path.of("target/benchmark-processed"), 64, DataSize.ofGigabytes(1),
+                Duration.ofDays(7), Duration.ofMinutes(10), Duration.ofDays(365)),
+            Runnable::run, Executors.newSingleThreadScheduledExecutor(Fixtures::daemon), METERS);
+        BackgroundAssets backgroundAssets = new BackgroundAssets(
+            new BackgroundAssetProperties(DataSize.ofMegabytes(128), DataSize.ofMegabytes(128)),
+            new ImageDecoder(DataSize.ofMegabytes(20), new ImageDecodeProperties(1000, 1000)));
+
+        return new BackgroundRemovalService(faceAnalysisService(matArenas), grabCutSegmenter, clothingTemplateCache,
+            matArenas, processedImageStore, sessions, backgroundAssets);
+    }
+
+    /** A gate with one permit per core, as {@code photogen.compute.permits=0} configures. */
+    static ComputeGate computeGate() {
+        ComputeGateProperties properties = new ComputeGateProperties(0, 16, Duration.ofSeconds(10), Duration.ofSeconds(1), -1);
+        return new ComputeGate(properties, Executors.newFixedThreadPool(properties.resolvedPermits(), Fixtures::daemon));
+    }
+
+    static SegmentationSessions segmentationSessions() {
+        return new SegmentationSessions(new SegmentationSessionProperties(true, Duration.ofMinutes(10), DataSize.ofMegabytes(256)));
+    }
+
+    private static Thread daemon(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.photogen.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.photogen.config.GrabCutProperties;
+import com.example.photogen.service.GrabCutResult;
+import com.example.photogen.service.GrabCutSegmenter;
+
+/**
+ * Compares GrabCut over the whole image with GrabCut restricted to a padded crop around the
+ * initial rectangle, with and without the coarse-to-fine pass, at the fixture's own size and
+ * upscaled to phone-photo sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class GrabCutBenchmark {
+
+    @Param({"1", "2"})
+    public int upscale;
+
+    @Param({"false", "true"})
+    public boolean roiEnabled;
+
+    @Param({"false", "true"})
+    public boolean coarseToFine;
+
+    private GrabCutSegmenter segmenter;
+    private Mat image;
+    private Rect rect;
+
+    @Setup
+    public void setUp() throws Exception {
+        GrabCutProperties properties = new GrabCutProperties(roiEnabled, 0.25, coarseToFine, 400, 50, 5,
+            coarseToFine ? 0.001 : -1);
+        segmenter = Fixtures.grabCutSegmenter(properties, Fixtures.matArenas());
+        image = Fixtures.portrait(upscale);
+
+        // Roughly where expandFaceRegion puts the head in a head-and-shoulders portrait
+        rect = new Rect((int) (image.cols() * 0.23), (int) (image.rows() * 0.05),
+            (int) (image.cols() * 0.53), (int) (image.rows() * 0.63));
+    }
+
+    @Benchmark
+    public int segment() {
+        GrabCutResult result = segmenter.segment(image, rect);
+        result.foregroundMask().release();
+        return result.iterations();
+    }
+}
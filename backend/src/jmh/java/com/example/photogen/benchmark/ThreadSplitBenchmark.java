@@ -0,0 +1,82 @@
+package com.example.photogen.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.photogen.service.BackgroundRemovalResult;
+import com.example.photogen.service.BackgroundRemovalService;
+
+/**
+ * Finds the split of the cores between images processed at once ({@code photogen.compute.permits})
+ * and OpenCV's threads inside each call ({@code photogen.compute.opencv-threads}): a fixed burst
+ * of removals is pushed through {@code permits} workers, and the score is the time to clear it.
+ * Run it on the production hardware and pick the fastest pair.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ThreadSplitBenchmark {
+
+    private static final int BURST = 8;
+
+    @Param({"1", "2", "4"})
+    public int permits;
+
+    // -1 keeps OpenCV's default, 0 runs every call sequentially
+    @Param({"-1", "0", "2"})
+    public int opencvThreads;
+
+    private BackgroundRemovalService backgroundRemovalService;
+    private ExecutorService workers;
+    private Mat image;
+
+    @Setup
+    public void setUp() throws Exception {
+        // Fixtures loads the native library
+        backgroundRemovalService = Fixtures.backgroundRemovalService(Fixtures.segmentationSessions());
+        Core.setNumThreads(opencvThreads);
+        workers = Executors.newFixedThreadPool(permits);
+        image = Fixtures.portrait(3);
+    }
+
+    @TearDown
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Benchmark
+    public int burst() throws Exception {
+        List<Future<BackgroundRemovalResult>> removals = new ArrayList<>();
+        for (int i = 0; i < BURST; i++) {
+            removals.add(workers.submit(() -> backgroundRemovalService.process(image, null, "#ffffff", false, null)));
+        }
+
+        int iterations = 0;
+        for (Future<BackgroundRemovalResult> removal : removals) {
+            iterations += removal.get().grabCutIterations();
+        }
+        return iterations;
+    }
+}
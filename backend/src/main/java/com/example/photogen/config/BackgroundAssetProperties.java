@@ -0,0 +1,17 @@
+package com.example.photogen.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Custom backgrounds registered once and referenced by id, bound from {@code photogen.backgrounds.*}.
+ *
+ * @param maxSize          total native size of the decoded backgrounds, beyond which the least used are dropped
+ * @param renderingMaxSize total native size of the backgrounds resized to output sizes, kept least used first out
+ */
+@ConfigurationProperties(prefix = "photogen.backgrounds")
+public record BackgroundAssetProperties(
+        @DefaultValue("128MB") DataSize maxSize,
+        @DefaultValue("128MB") DataSize renderingMaxSize) {
+}
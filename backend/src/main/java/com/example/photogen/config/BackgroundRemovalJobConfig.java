@@ -0,0 +1,38 @@
+package com.example.photogen.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class BackgroundRemovalJobConfig {
+
+    /**
+     * Workers for asynchronous background removal jobs, kept apart from the servlet threads so a
+     * burst of removals can't starve the cheap endpoints. Submissions beyond the queue are
+     * rejected rather than run by the caller.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService backgroundRemovalJobExecutor(BackgroundRemovalJobProperties properties) {
+        int poolSize = properties.threads() > 0
+            ? properties.threads()
+            : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "background-removal-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, properties.queueCapacity())), threadFactory,
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+}
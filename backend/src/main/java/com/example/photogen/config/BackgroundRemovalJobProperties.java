@@ -0,0 +1,24 @@
+package com.example.photogen.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Sizing for the asynchronous background removal jobs, bound from {@code photogen.jobs.*}.
+ *
+ * @param threads       worker threads running jobs; 0 means half the available processors, at least one
+ * @param queueCapacity jobs that may wait for a worker before new submissions are rejected
+ * @param ttl           how long a job stays retrievable after its last update
+ * @param maxSize       total heap size of the jobs kept, mostly the data URLs of images that couldn't be stored;
+ *                      the least recently used jobs are dropped first
+ */
+@ConfigurationProperties(prefix = "photogen.jobs")
+public record BackgroundRemovalJobProperties(
+        @DefaultValue("0") int threads,
+        @DefaultValue("16") int queueCapacity,
+        @DefaultValue("10m") Duration ttl,
+        @DefaultValue("64MB") DataSize maxSize) {
+}
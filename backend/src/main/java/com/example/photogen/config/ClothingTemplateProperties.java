@@ -0,0 +1,21 @@
+package com.example.photogen.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Clothing templates for the formal-clothes option, bound from {@code photogen.clothing.*}.
+ *
+ * @param location          resource pattern the templates are loaded from; each file is a template named after it
+ * @param defaultTemplate   template used when a request doesn't name one
+ * @param horizontalStretch how much wider than the output image the clothes are drawn before cropping back
+ * @param maxSize           total native size of the template renderings kept, one per template and output size
+ */
+@ConfigurationProperties(prefix = "photogen.clothing")
+public record ClothingTemplateProperties(
+        @DefaultValue("classpath:images/*.png") String location,
+        @DefaultValue("formal2") String defaultTemplate,
+        @DefaultValue("1.5") double horizontalStretch,
+        @DefaultValue("128MB") DataSize maxSize) {
+}
@@ -0,0 +1,29 @@
+package com.example.photogen.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Thresholds for the ID photo compliance checks, bound from {@code photogen.compliance.*}.
+ *
+ * @param whiteThreshold         lowest value every channel of a background pixel may have to count as white
+ * @param maxNonWhiteFraction    largest fraction of the background that may be non-white
+ * @param maxBackgroundDeviation largest per-channel standard deviation of the background beside the head
+ * @param shadowThreshold        luminance at or below which a face pixel counts as clipped to black
+ * @param highlightThreshold     luminance at or above which a face pixel counts as clipped to white
+ * @param maxClippedFraction     largest fraction of the face that may be clipped at either end
+ * @param checkUniformity        whether an unevenly coloured background fails the check, rather than only
+ *                               being reported under {@code metrics}
+ * @param checkExposure          whether a clipped face fails the check, rather than only being reported
+ */
+@ConfigurationProperties(prefix = "photogen.compliance")
+public record ComplianceProperties(
+        @DefaultValue("230") int whiteThreshold,
+        @DefaultValue("0.5") double maxNonWhiteFraction,
+        @DefaultValue("40") double maxBackgroundDeviation,
+        @DefaultValue("10") int shadowThreshold,
+        @DefaultValue("245") int highlightThreshold,
+        @DefaultValue("0.2") double maxClippedFraction,
+        @DefaultValue("false") boolean checkUniformity,
+        @DefaultValue("false") boolean checkExposure) {
+}
@@ -0,0 +1,36 @@
+package com.example.photogen.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ComputeGateConfig {
+
+    /**
+     * Platform threads that run the admitted work of virtual request threads. A virtual thread
+     * inside a native OpenCV call pins its carrier, so the long calls are kept off the carriers.
+     * The gate never admits more work than there are threads.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService computeExecutor(ComputeGateProperties properties) {
+        int poolSize = properties.resolvedPermits();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "compute-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        // A permit is released as soon as the result is handed back, possibly before the thread is idle again
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(poolSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
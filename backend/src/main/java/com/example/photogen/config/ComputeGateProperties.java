@@ -0,0 +1,30 @@
+package com.example.photogen.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Admission to the CPU-heavy OpenCV stages, bound from {@code photogen.compute.*}.
+ *
+ * @param permits        images processed at once; 0 means one per available processor
+ * @param queueCapacity  requests that may wait for a permit before new ones get a 429
+ * @param maxWait        longest a request waits for a permit before it gets a 429
+ * @param retryAfter     the {@code Retry-After} sent with a 429
+ * @param opencvThreads  threads OpenCV may use inside one call; 0 runs every call sequentially, a negative value
+ *                       keeps OpenCV's own default
+ */
+@ConfigurationProperties(prefix = "photogen.compute")
+public record ComputeGateProperties(
+        @DefaultValue("0") int permits,
+        @DefaultValue("16") int queueCapacity,
+        @DefaultValue("10s") Duration maxWait,
+        @DefaultValue("1s") Duration retryAfter,
+        @DefaultValue("-1") int opencvThreads) {
+
+    /** {@link #permits()}, with 0 resolved to the number of available processors. */
+    public int resolvedPermits() {
+        return permits > 0 ? permits : Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.photogen.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Face detection shared by every endpoint, bound from {@code photogen.face-analysis.*}.
+ *
+ * @param cacheSize        analysis results kept, keyed by a hash of the decoded pixels
+ * @param engine           detector used by this deployment
+ * @param maxSide          longest side of the copy faces are searched on; 0 searches at full resolution
+ * @param minFaceFraction  smallest face kept, as a fraction of the image's short side
+ * @param maxFaceFraction  largest face kept, as a fraction of the image's short side
+ * @param dnn              settings of the {@link Engine#DNN} engine
+ */
+@ConfigurationProperties(prefix = "photogen.face-analysis")
+public record FaceAnalysisProperties(
+        @DefaultValue("256") long cacheSize,
+        @DefaultValue("haar") Engine engine,
+        @DefaultValue("640") int maxSide,
+        @DefaultValue("0.1") double minFaceFraction,
+        @DefaultValue("1.0") double maxFaceFraction,
+        @DefaultValue Dnn dnn) {
+
+    public enum Engine {
+        /** Haar cascades for the face, then for the eyes and nose inside it. */
+        HAAR,
+        /** OpenCV's YuNet network, which finds the face and its landmarks in one pass. */
+        DNN
+    }
+
+    /**
+     * @param model           location of the YuNet ONNX model, as a Spring resource
+     * @param scoreThreshold  lowest confidence a face is kept with
+     * @param nmsThreshold    overlap above which the weaker of two faces is dropped
+     * @param topK            candidates kept before non-maximum suppression
+     */
+    public record Dnn(
+            @DefaultValue("classpath:models/face_detection_yunet_2023mar.onnx") String model,
+            @DefaultValue("0.8") float scoreThreshold,
+            @DefaultValue("0.3") float nmsThreshold,
+            @DefaultValue("50") int topK) {
+    }
+}
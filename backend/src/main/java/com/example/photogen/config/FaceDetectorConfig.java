@@ -0,0 +1,28 @@
+package com.example.photogen.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ResourceLoader;
+
+import com.example.photogen.service.CascadeClassifierRegistry;
+import com.example.photogen.service.DnnFaceDetector;
+import com.example.photogen.service.FaceDetector;
+import com.example.photogen.service.HaarFaceDetector;
+import com.example.photogen.service.MatArenas;
+
+@Configuration
+public class FaceDetectorConfig {
+
+    /**
+     * The engine chosen with {@code photogen.face-analysis.engine}. The cascades are loaded
+     * either way, because the reload endpoint and the Haar engine share them.
+     */
+    @Bean
+    public FaceDetector faceDetector(FaceAnalysisProperties properties, CascadeClassifierRegistry cascadeClassifierRegistry,
+            MatArenas matArenas, ResourceLoader resourceLoader) {
+        return switch (properties.engine()) {
+            case HAAR -> new HaarFaceDetector(cascadeClassifierRegistry, matArenas, properties);
+            case DNN -> new DnnFaceDetector(resourceLoader.getResource(properties.dnn().model()), matArenas, properties);
+        };
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.photogen.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Tuning for {@link com.example.photogen.service.GrabCutSegmenter}, bound from {@code photogen.grabcut.*}.
+ *
+ * @param roiEnabled       segment a padded crop around the initial rectangle instead of the whole image
+ * @param roiPadding       padding on each side of the crop, as a fraction of the rectangle's size
+ * @param coarseToFine     segment a downsampled copy first and refine only the boundary at full resolution
+ * @param coarseMaxSide    long side of the downsampled copy, in pixels
+ * @param maxIterations    iteration budget for the first (or only) pass
+ * @param refineIterations iteration budget for the full resolution boundary refinement
+ * @param tolerance        stop once fewer than this fraction of the undecided pixels change in an iteration;
+ *                         a negative value always runs the full budget
+ */
+@ConfigurationProperties(prefix = "photogen.grabcut")
+public record GrabCutProperties(
+        @DefaultValue("true") boolean roiEnabled,
+        @DefaultValue("0.25") double roiPadding,
+        @DefaultValue("true") boolean coarseToFine,
+        @DefaultValue("400") int coarseMaxSide,
+        @DefaultValue("50") int maxIterations,
+        @DefaultValue("5") int refineIterations,
+        @DefaultValue("0.001") double tolerance) {
+}
@@ -0,0 +1,18 @@
+package com.example.photogen.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * How uploads are decoded, bound from {@code photogen.decode.*}.
+ *
+ * @param workingMegapixels the most pixels an upload is decoded to; larger uploads are decoded at a
+ *                          half, quarter or eighth of their size, then scaled down the rest of the way.
+ *                          Background removal outputs the decoded image, so this also caps its output size
+ * @param maxMegapixels     uploads with more pixels than this are rejected before decoding
+ */
+@ConfigurationProperties(prefix = "photogen.decode")
+public record ImageDecodeProperties(
+        @DefaultValue("12") double workingMegapixels,
+        @DefaultValue("100") double maxMegapixels) {
+}
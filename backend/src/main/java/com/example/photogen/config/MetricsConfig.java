@@ -0,0 +1,83 @@
+package com.example.photogen.config;
+
+import java.util.concurrent.ExecutorService;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.photogen.service.ComputeGate;
+import com.example.photogen.service.MatArenas;
+import com.example.photogen.service.ResultCache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Queue depth and activity of every bounded pool and of the compute gate, the native memory
+     * held through Mat arenas and the result cache's hit rate. All of these are read when the
+     * registry is scraped, so they add nothing to the request path.
+     */
+    @Bean
+    public MeterBinder photogenMeters(MatArenas matArenas, ResultCache resultCache, ComputeGate computeGate,
+            @Qualifier("computeExecutor") ExecutorService computeExecutor,
+            @Qualifier("segmentationExecutor") ExecutorService segmentationExecutor,
+            @Qualifier("batchExecutor") ExecutorService batchExecutor,
+            @Qualifier("backgroundRemovalJobExecutor") ExecutorService backgroundRemovalJobExecutor,
+            @Qualifier("processedImageWriter") ExecutorService processedImageWriter) {
+        return registry -> {
+            new ExecutorServiceMetrics(segmentationExecutor, "segmentation", Tags.empty()).bindTo(registry);
+            new ExecutorServiceMetrics(batchExecutor, "batch", Tags.empty()).bindTo(registry);
+            new ExecutorServiceMetrics(backgroundRemovalJobExecutor, "background-removal-jobs", Tags.empty()).bindTo(registry);
+            new ExecutorServiceMetrics(processedImageWriter, "processed-image-writer", Tags.empty()).bindTo(registry);
+            new ExecutorServiceMetrics(computeExecutor, "compute", Tags.empty()).bindTo(registry);
+
+            Gauge.builder("photogen.compute.active", computeGate, ComputeGate::getActive)
+                .description("Images holding a compute permit")
+                .register(registry);
+            Gauge.builder("photogen.compute.waiting", computeGate, ComputeGate::getWaiting)
+                .description("Images waiting for a compute permit")
+                .register(registry);
+            FunctionCounter.builder("photogen.compute.rejected", computeGate, ComputeGate::getRejected)
+                .description("Requests turned away with a 429")
+                .register(registry);
+
+            Gauge.builder("photogen.mat.live", matArenas, MatArenas::getLiveBytes)
+                .description("Native bytes of the Mats tracked by open arenas")
+                .baseUnit("bytes")
+                .register(registry);
+            Gauge.builder("photogen.mat.pooled", matArenas, MatArenas::getPooledBytes)
+                .description("Native bytes of released Mats kept for reuse")
+                .baseUnit("bytes")
+                .register(registry);
+            Gauge.builder("photogen.mat.arenas.open", matArenas, MatArenas::getOpenArenas)
+                .register(registry);
+            FunctionCounter.builder("photogen.mat.arenas.leaked", matArenas, MatArenas::getLeakedArenas)
+                .description("Arenas garbage collected without being closed")
+                .register(registry);
+
+            FunctionCounter.builder("cache.gets", resultCache, cache -> cache.getStats().hitCount())
+                .tags("cache", "results", "result", "hit")
+                .register(registry);
+            FunctionCounter.builder("cache.gets", resultCache, cache -> cache.getStats().missCount())
+                .tags("cache", "results", "result", "miss")
+                .register(registry);
+            FunctionCounter.builder("photogen.result-cache.disk-hits", resultCache, ResultCache::getDiskHits)
+                .description("Memory misses answered from the disk tier")
+                .register(registry);
+            FunctionCounter.builder("cache.evictions", resultCache, cache -> cache.getStats().evictionCount())
+                .tags("cache", "results")
+                .register(registry);
+            Gauge.builder("photogen.result-cache.weighted", resultCache, ResultCache::getWeightedSize)
+                .description("Serialized size of the results held in memory")
+                .baseUnit("bytes")
+                .register(registry);
+        };
+    }
+}
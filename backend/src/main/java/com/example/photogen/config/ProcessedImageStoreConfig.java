@@ -0,0 +1,38 @@
+package com.example.photogen.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ProcessedImageStoreConfig {
+
+    /**
+     * Single writer behind the processed image store, so requests never wait on the disk.
+     * Images beyond the queue are rejected, and the store drops them rather than block.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService processedImageWriter(ProcessedImageStoreProperties properties) {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, properties.queueCapacity())),
+            runnable -> daemon(runnable, "processed-image-writer"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /** Applies the retention policy of the processed image store in the background. */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService processedImageEvictor() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "processed-image-evictor"));
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.photogen.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Where and for how long processed images are kept, bound from {@code photogen.storage.*}.
+ *
+ * @param enabled          whether processed images are written to disk at all
+ * @param directory        directory the images are written to, created on startup
+ * @param queueCapacity    encoded images that may wait for the writer before new ones are dropped
+ * @param maxSize          total size of the directory above which the oldest images are evicted
+ * @param maxAge           age after which an image is evicted
+ * @param evictionInterval how often the retention policy is applied
+ * @param cacheMaxAge      how long clients may cache an image fetched from {@code /api/results}
+ */
+@ConfigurationProperties(prefix = "photogen.storage")
+public record ProcessedImageStoreProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("data/processed") Path directory,
+        @DefaultValue("64") int queueCapacity,
+        @DefaultValue("1GB") DataSize maxSize,
+        @DefaultValue("7d") Duration maxAge,
+        @DefaultValue("10m") Duration evictionInterval,
+        @DefaultValue("365d") Duration cacheMaxAge) {
+}
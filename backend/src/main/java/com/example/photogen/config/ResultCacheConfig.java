@@ -0,0 +1,21 @@
+package com.example.photogen.config;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ResultCacheConfig {
+
+    /** Applies the retention policy of the result cache's disk tier in the background. */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService resultCacheEvictor() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "result-cache-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
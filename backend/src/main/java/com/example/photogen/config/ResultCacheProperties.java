@@ -0,0 +1,30 @@
+package com.example.photogen.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Sizing of the result cache, bound from {@code photogen.result-cache.*}.
+ *
+ * @param enabled       whether results are cached at all
+ * @param maxSize       total serialized size of the results kept in memory
+ * @param diskEnabled   whether results are also written to {@code diskDirectory}, so they survive restarts
+ * @param diskDirectory directory of the on-disk tier, created on startup
+ * @param diskMaxAge    age after which a result on disk is no longer used, and is evicted
+ * @param diskMaxSize   total size of the disk tier above which the oldest results are evicted
+ * @param diskEvictionInterval how often the disk tier's retention policy is applied
+ */
+@ConfigurationProperties(prefix = "photogen.result-cache")
+public record ResultCacheProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("64MB") DataSize maxSize,
+        @DefaultValue("false") boolean diskEnabled,
+        @DefaultValue("data/result-cache") Path diskDirectory,
+        @DefaultValue("1d") Duration diskMaxAge,
+        @DefaultValue("256MB") DataSize diskMaxSize,
+        @DefaultValue("10m") Duration diskEvictionInterval) {
+}
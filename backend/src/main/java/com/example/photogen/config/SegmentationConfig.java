@@ -0,0 +1,36 @@
+package com.example.photogen.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SegmentationConfig {
+
+    /**
+     * CPU-bound pool for running independent GrabCut passes of one request side by side. A pass
+     * only runs here while a compute permit is free, and work the pool can't take is run by the
+     * submitting thread instead, so the queue stays short and the gate still bounds the cores used.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService segmentationExecutor(@Value("${photogen.segmentation.threads:0}") int threads) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "segmentation-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(poolSize * 2), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.photogen.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * How long the segmentation of a background removal is kept for recoloring, bound from
+ * {@code photogen.sessions.*}.
+ *
+ * @param enabled     whether removals keep their segmentation and return a session token
+ * @param idleTimeout how long a session is kept after it was last created or used
+ * @param maxSize     total native size of the kept segmentations, beyond which the least used are dropped
+ */
+@ConfigurationProperties(prefix = "photogen.sessions")
+public record SegmentationSessionProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("10m") Duration idleTimeout,
+        @DefaultValue("256MB") DataSize maxSize) {
+}
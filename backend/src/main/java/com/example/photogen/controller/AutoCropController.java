@@ -1,28 +1,47 @@
 package com.example.photogen.controller;
 
-import java.util.Base64;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.core.MatOfRect;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
-import org.opencv.core.Size;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.photogen.service.ComputeGate;
+import com.example.photogen.service.ContentHash;
+import com.example.photogen.service.FaceAnalysis;
+import com.example.photogen.service.FaceAnalysisService;
+import com.example.photogen.service.FaceDetectionException;
+import com.example.photogen.service.ImageDecoder;
+import com.example.photogen.service.ImagePayload;
+import com.example.photogen.service.ImagePayloadReader;
+import com.example.photogen.service.InvalidOptionException;
+import com.example.photogen.service.MatArena;
+import com.example.photogen.service.MatArenas;
+import com.example.photogen.service.PipelineMetrics;
+import com.example.photogen.service.ResultCache;
+import com.example.photogen.service.WorkingImage;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 @RestController
 @RequestMapping("/api/auto-crop")
@@ -33,139 +52,166 @@ public class AutoCropController {
     static {
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
     }
+
+    private static final String OPERATION = "auto-crop";
+    private static final TypeReference<Map<String, Object>> CROP_DATA = new TypeReference<>() {};
+    private static final double DEFAULT_ASPECT_RATIO = 35.0 / 45.0;
+
+    private final FaceAnalysisService faceAnalysisService;
+    private final ImageDecoder imageDecoder;
+    private final ImagePayloadReader imagePayloadReader;
+    private final BatchStreamer batchStreamer;
+    private final MatArenas matArenas;
+    private final ResultCache resultCache;
+    private final PipelineMetrics pipelineMetrics;
+    private final ComputeGate computeGate;
+
+    public AutoCropController(FaceAnalysisService faceAnalysisService, ImageDecoder imageDecoder,
+            ImagePayloadReader imagePayloadReader, BatchStreamer batchStreamer, MatArenas matArenas, ResultCache resultCache,
+            PipelineMetrics pipelineMetrics, ComputeGate computeGate) {
+        this.faceAnalysisService = faceAnalysisService;
+        this.imageDecoder = imageDecoder;
+        this.imagePayloadReader = imagePayloadReader;
+        this.batchStreamer = batchStreamer;
+        this.matArenas = matArenas;
+        this.resultCache = resultCache;
+        this.pipelineMetrics = pipelineMetrics;
+        this.computeGate = computeGate;
+    }
     
-    @PostMapping("/improved-detect-face")
-    public ResponseEntity<?> detectFace(@RequestBody Map<String, Object> payload) {
-        try {
-            String imageData = (String) payload.get("image");
-            double aspectRatio = payload.containsKey("aspectRatio") ? 
-                Double.parseDouble(payload.get("aspectRatio").toString()) : 35.0/45.0;
-                
-            // Remove data URL prefix if present
-            if (imageData.startsWith("data:")) {
-                imageData = imageData.substring(imageData.indexOf(",") + 1);
-            }
-            
-            // Decode base64 image
-            byte[] imageBytes;
-            try {
-                imageBytes = Base64.getDecoder().decode(imageData);
-            } catch (IllegalArgumentException e) {
-                logger.error("Invalid base64 encoding: ", e);
-                return ResponseEntity.badRequest().body(Map.of("error", "Invalid image data encoding"));
+    @PostMapping(value = "/improved-detect-face", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> detectFace(HttpServletRequest request) {
+        return UploadResponses.respond(() -> {
+            try (MatArena arena = matArenas.open(); PipelineMetrics.Run run = pipelineMetrics.start(OPERATION)) {
+                run.stage("read");
+                ImagePayload payload;
+                try {
+                    payload = imagePayloadReader.read(request.getInputStream(), request.getContentLengthLong(), arena);
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Could not read the request body: {}", e.getMessage());
+                    throw e;
+                }
+                return detectFace(run, arena, payload.image("image"), aspectRatio(payload.get("aspectRatio")));
             }
-            
-            Mat image = Imgcodecs.imdecode(new MatOfByte(imageBytes), Imgcodecs.IMREAD_COLOR);
-            
-            if (image.empty()) {
-                logger.error("Could not decode image data, returning error");
-                return ResponseEntity.badRequest().body(Map.of("error", "Could not read image"));
+        });
+    }
+
+    @PostMapping(value = "/improved-detect-face", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> detectFace(@RequestPart("image") MultipartFile imageFile,
+            @RequestParam(required = false) Double aspectRatio) {
+        return UploadResponses.respond(() -> {
+            try (InputStream in = imageFile.getInputStream(); MatArena arena = matArenas.open();
+                 PipelineMetrics.Run run = pipelineMetrics.start(OPERATION)) {
+                run.stage("read");
+                return detectFace(run, arena, arena.track(imageDecoder.read(in, imageFile.getSize())), aspectRatio);
             }
-            
-            Map<String, Object> cropData = detectFacesAndEyes(image, aspectRatio);
-            
-            return ResponseEntity.ok(Map.of("cropData", cropData));
-            
-        } catch (Exception e) {
-            logger.error("Error in face detection: ", e);
-            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
-        }
+        });
     }
 
-    private Map<String, Object> detectFacesAndEyes(Mat image, double aspectRatio) {
-        Mat frameGray = new Mat();
-        Imgproc.cvtColor(image, frameGray, Imgproc.COLOR_BGR2GRAY);
-        Imgproc.equalizeHist(frameGray, frameGray);
+    @PostMapping(value = "/improved-detect-face", consumes = "image/*")
+    public ResponseEntity<?> detectFace(HttpServletRequest request, @RequestParam(required = false) Double aspectRatio) {
+        return UploadResponses.respond(() -> {
+            try (MatArena arena = matArenas.open(); PipelineMetrics.Run run = pipelineMetrics.start(OPERATION)) {
+                run.stage("read");
+                return detectFace(run, arena,
+                    arena.track(imageDecoder.read(request.getInputStream(), request.getContentLengthLong())), aspectRatio);
+            }
+        });
+    }
 
-        // Load face, eye and nose classifiers with proper path handling
-        // Use URL.getFile() instead of getPath() to handle Windows paths properly
-        CascadeClassifier faceCascade = new CascadeClassifier();
-        CascadeClassifier eyesCascade = new CascadeClassifier();
-        CascadeClassifier noseCascade = new CascadeClassifier();
-        
+    /**
+     * Crops every image of {@code images} with the same aspect ratio, streaming one NDJSON line per
+     * image in order.
+     */
+    @PostMapping(value = "/improved-detect-face/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> detectFaces(HttpServletRequest request) throws IOException {
+        // Holds the uploads until the last line is written
+        MatArena uploads = matArenas.open();
+        ImagePayload payload;
+        Double aspectRatio;
         try {
-            // Load classifiers from resources using classpath
-            java.io.File faceCascadeFile = org.springframework.core.io.Resource.class.cast(
-                new org.springframework.core.io.ClassPathResource("/haarcascade_frontalface_alt.xml")).getFile();
-            java.io.File eyesCascadeFile = org.springframework.core.io.Resource.class.cast(
-                new org.springframework.core.io.ClassPathResource("/haarcascade_eye_tree_eyeglasses.xml")).getFile();
-            java.io.File noseCascadeFile = org.springframework.core.io.Resource.class.cast(
-                new org.springframework.core.io.ClassPathResource("/haarcascade_mcs_nose.xml")).getFile();
-            
-            faceCascade.load(faceCascadeFile.getAbsolutePath());
-            eyesCascade.load(eyesCascadeFile.getAbsolutePath());
-            noseCascade.load(noseCascadeFile.getAbsolutePath());
-        } catch (Exception e) {
-            logger.error("Error loading cascade classifiers: ", e);
-            
-            // Fallback to the old method if the above fails
-            String faceCascadePath = getClass().getResource("/haarcascade_frontalface_alt.xml").getPath();
-            String eyesCascadePath = getClass().getResource("/haarcascade_eye_tree_eyeglasses.xml").getPath();
-            String noseCascadePath = getClass().getResource("/haarcascade_mcs_nose.xml").getPath();
-            
-            // Fix Windows path issues
-            if (faceCascadePath.contains(":") && faceCascadePath.startsWith("/")) {
-                faceCascadePath = faceCascadePath.substring(1);
-            }
-            if (eyesCascadePath.contains(":") && eyesCascadePath.startsWith("/")) {
-                eyesCascadePath = eyesCascadePath.substring(1);
-            }
-            if (noseCascadePath.contains(":") && noseCascadePath.startsWith("/")) {
-                noseCascadePath = noseCascadePath.substring(1);
+            payload = imagePayloadReader.read(request.getInputStream(), request.getContentLengthLong(), uploads);
+            aspectRatio = aspectRatio(payload.get("aspectRatio"));
+        } catch (IllegalArgumentException e) {
+            // A malformed body or option, which would otherwise surface as a 500
+            uploads.close();
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            uploads.close();
+            throw e;
+        }
+
+        return batchStreamer.stream(payload.imageCount("images"), i -> {
+            try (MatArena arena = matArenas.open(); PipelineMetrics.Run run = pipelineMetrics.start(OPERATION)) {
+                run.stage("read");
+                Mat encoded = payload.image("images", i);
+                run.stage("cache-lookup");
+                Map<String, Object> cropData = cropData(run, ContentHash.of(encoded),
+                    aspectRatio != null ? aspectRatio : DEFAULT_ASPECT_RATIO, () -> decode(arena, encoded));
+                run.succeed();
+                return Map.of("cropData", cropData);
             }
-            
-            faceCascade = new CascadeClassifier(faceCascadePath);
-            eyesCascade = new CascadeClassifier(eyesCascadePath);
-            noseCascade = new CascadeClassifier(noseCascadePath);
+        }, uploads);
+    }
+
+    /** The aspect ratio option of a JSON body, or null if it has none. */
+    private static Double aspectRatio(String value) {
+        if (value == null) {
+            return null;
         }
-        
-        if (faceCascade.empty() || eyesCascade.empty() || noseCascade.empty()) {
-            throw new RuntimeException("Error loading cascade classifiers");
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new InvalidOptionException("Invalid aspectRatio " + value + "; use a number such as 0.7778");
         }
+    }
 
-        // Detect faces
-        MatOfRect faces = new MatOfRect();
-        faceCascade.detectMultiScale(
-            frameGray, 
-            faces, 
-            1.1,  // Scale factor
-            3,    // Min neighbors
-            0,    // Flags
-            new Size(30, 30), // Min size
-            new Size()        // Max size
-        );
+    private ResponseEntity<?> detectFace(PipelineMetrics.Run run, MatArena arena, Mat encoded, Double aspectRatio)
+            throws Exception {
+        double ratio = aspectRatio != null ? aspectRatio : DEFAULT_ASPECT_RATIO;
+        run.stage("cache-lookup");
+        Map<String, Object> cropData = cropData(run, ContentHash.of(encoded), ratio, () -> decode(arena, encoded));
+        run.succeed();
+        return ResponseEntity.ok(Map.of("cropData", cropData));
+    }
 
-        List<Rect> listOfFaces = faces.toList();
-        if (listOfFaces.isEmpty()) {
-            throw new RuntimeException("No faces detected");
-        }
+    /**
+     * The crop for the image whose bytes hash to {@code imageHash}, decoding it with
+     * {@code decoder} only if the crop isn't cached. Only the uncached path goes through the gate.
+     * The decoder may return a reduced working copy; the crop is found on that copy and reported
+     * in the upload's own coordinates, so the client crops its full-quality original.
+     */
+    private Map<String, Object> cropData(PipelineMetrics.Run run, String imageHash, double aspectRatio,
+            Callable<WorkingImage> decoder) throws Exception {
+        return resultCache.get(ResultCache.key(OPERATION, imageHash, aspectRatio), CROP_DATA, () -> {
+            run.stage("admission");
+            return computeGate.call(() -> {
+                run.stage("decode");
+                WorkingImage working = decoder.call();
+                run.image(working.image());
+                return detectFacesAndEyes(run, working.image(), aspectRatio, working.scale());
+            });
+        });
+    }
 
-        // Find the largest face
-        Rect largestFace = listOfFaces.get(0);
-        for (Rect face : listOfFaces) {
-            if (face.area() > largestFace.area()) {
-                largestFace = face;
-            }
+    private WorkingImage decode(MatArena arena, Mat encoded) {
+        WorkingImage working = imageDecoder.decodeWorking(encoded);
+        arena.track(working.image());
+        return working;
+    }
+
+    private Map<String, Object> detectFacesAndEyes(PipelineMetrics.Run run, Mat image, double aspectRatio,
+            double scale) {
+        run.stage("detect");
+        FaceAnalysis analysis = faceAnalysisService.analyze(image);
+        if (!analysis.hasFace()) {
+            throw new FaceDetectionException("No faces detected");
         }
 
-        // For the largest face, detect eyes
-        Mat faceROI = frameGray.submat(largestFace);
-        MatOfRect eyes = new MatOfRect();
-        eyesCascade.detectMultiScale(faceROI, eyes);
-        List<Rect> listOfEyes = eyes.toList();
-        
-        // For the largest face, detect nose with improved parameters for better detection
-        MatOfRect noses = new MatOfRect();
-        noseCascade.detectMultiScale(
-            faceROI, 
-            noses,
-            1.1,  // Use slightly lower scale factor for better nose detection
-            3,    // Min neighbors
-            0,    // Flags
-            new Size(10, 10), // Smaller min size for nose
-            new Size(faceROI.width() / 2, faceROI.height() / 2) // Max size relative to face
-        );
-        List<Rect> listOfNoses = noses.toList();
+        run.stage("crop");
+
+        Rect largestFace = analysis.largestFace();
+        List<Rect> listOfEyes = analysis.eyes();
         
         // Create a region that encompasses the face, eyes, and nose
         int minX = largestFace.x;
@@ -185,8 +231,8 @@ public class AutoCropController {
             double sumX = 0, sumY = 0;
             
             for (Rect eye : listOfEyes) {
-                int eyeX = largestFace.x + eye.x;
-                int eyeY = largestFace.y + eye.y;
+                int eyeX = eye.x;
+                int eyeY = eye.y;
                 int eyeRight = eyeX + eye.width;
                 int eyeBottom = eyeY + eye.height;
                 
@@ -212,17 +258,11 @@ public class AutoCropController {
         
         // Include nose in the bounding box if detected
         Point noseMidpoint = null;
-        if (!listOfNoses.isEmpty()) {
-            // Find the largest nose (most likely the actual nose)
-            Rect largestNose = listOfNoses.get(0);
-            for (Rect nose : listOfNoses) {
-                if (nose.area() > largestNose.area()) {
-                    largestNose = nose;
-                }
-            }
+        if (analysis.hasNose()) {
+            Rect largestNose = analysis.nose();
             
-            int noseX = largestFace.x + largestNose.x;
-            int noseY = largestFace.y + largestNose.y;
+            int noseX = largestNose.x;
+            int noseY = largestNose.y;
             int noseRight = noseX + largestNose.width;
             int noseBottom = noseY + largestNose.height;
             
@@ -340,52 +380,22 @@ public class AutoCropController {
         if (left + cropWidth > image.width()) cropWidth = image.width() - left;
         if (top + cropHeight > image.height()) cropHeight = image.height() - top;
         
-        // Build result data
+        // Build result data, mapped back from the working copy to the uploaded image
         Map<String, Object> cropData = new HashMap<>();
-        cropData.put("left", (int)left);
-        cropData.put("top", (int)top);
-        cropData.put("width", (int)cropWidth);
-        cropData.put("height", (int)cropHeight);
+        cropData.put("left", (int)(left * scale));
+        cropData.put("top", (int)(top * scale));
+        cropData.put("width", (int)(cropWidth * scale));
+        cropData.put("height", (int)(cropHeight * scale));
         
         // For debugging, add feature points
         Map<String, Object> debugPoints = new HashMap<>();
-        debugPoints.put("faceCenter", new double[] {faceCenter.x, faceCenter.y});
+        debugPoints.put("faceCenter", new double[] {faceCenter.x * scale, faceCenter.y * scale});
         if (eyesMidpoint != null) {
-            debugPoints.put("eyesMidpoint", new double[] {eyesMidpoint.x, eyesMidpoint.y});
+            debugPoints.put("eyesMidpoint", new double[] {eyesMidpoint.x * scale, eyesMidpoint.y * scale});
         }
-        debugPoints.put("noseMidpoint", new double[] {noseMidpoint.x, noseMidpoint.y});
+        debugPoints.put("noseMidpoint", new double[] {noseMidpoint.x * scale, noseMidpoint.y * scale});
         cropData.put("debugPoints", debugPoints);
         
         return cropData;
     }
-    
-    public void detectAndDisplay(Mat frame, CascadeClassifier faceCascade, CascadeClassifier eyesCascade) {
-        Mat frameGray = new Mat();
-        Imgproc.cvtColor(frame, frameGray, Imgproc.COLOR_BGR2GRAY);
-        Imgproc.equalizeHist(frameGray, frameGray);
-
-        // -- Detect faces
-        MatOfRect faces = new MatOfRect();
-        faceCascade.detectMultiScale(frameGray, faces);
-
-        List<Rect> listOfFaces = faces.toList();
-        for (Rect face : listOfFaces) {
-            Point center = new Point(face.x + face.width / 2, face.y + face.height / 2);
-            Imgproc.ellipse(frame, center, new Size(face.width / 2, face.height / 2), 0, 0, 360,
-                    new Scalar(255, 0, 255));
-
-            Mat faceROI = frameGray.submat(face);
-
-            // -- In each face, detect eyes
-            MatOfRect eyes = new MatOfRect();
-            eyesCascade.detectMultiScale(faceROI, eyes);
-
-            List<Rect> listOfEyes = eyes.toList();
-            for (Rect eye : listOfEyes) {
-                Point eyeCenter = new Point(face.x + eye.x + eye.width / 2, face.y + eye.y + eye.height / 2);
-                int radius = (int) Math.round((eye.width + eye.height) * 0.25);
-                Imgproc.circle(frame, eyeCenter, radius, new Scalar(255, 0, 0), 4);
-            }
-        }
-    }
-}
\ No newline at end of file
+}
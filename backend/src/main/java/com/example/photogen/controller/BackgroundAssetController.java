@@ -0,0 +1,91 @@
+package com.example.photogen.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.example.photogen.service.BackgroundAssets;
+import com.example.photogen.service.ImageDecoder;
+import com.example.photogen.service.ImagePayload;
+import com.example.photogen.service.ImagePayloadReader;
+import com.example.photogen.service.MatArena;
+import com.example.photogen.service.MatArenas;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Registers custom backgrounds with {@link BackgroundAssets}. The returned {@code backgroundId}
+ * is passed to the removal, recolor and job endpoints in place of uploading
+ * {@code customBackground} again.
+ */
+@RestController
+@RequestMapping("/api/backgrounds")
+public class BackgroundAssetController {
+
+    private final BackgroundAssets backgroundAssets;
+    private final ImageDecoder imageDecoder;
+    private final ImagePayloadReader imagePayloadReader;
+    private final MatArenas matArenas;
+
+    public BackgroundAssetController(BackgroundAssets backgroundAssets, ImageDecoder imageDecoder,
+            ImagePayloadReader imagePayloadReader, MatArenas matArenas) {
+        this.backgroundAssets = backgroundAssets;
+        this.imageDecoder = imageDecoder;
+        this.imagePayloadReader = imagePayloadReader;
+        this.matArenas = matArenas;
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> register(HttpServletRequest request) {
+        try (MatArena arena = matArenas.open()) {
+            ImagePayload payload = imagePayloadReader.read(request.getInputStream(), request.getContentLengthLong(), arena);
+            return registered(backgroundAssets.register(payload.image("image")));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid image data encoding"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> register(@RequestPart("image") MultipartFile image) {
+        try (InputStream in = image.getInputStream(); MatArena arena = matArenas.open()) {
+            return registered(backgroundAssets.register(arena.track(imageDecoder.read(in, image.getSize()))));
+        } catch (IOException | IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping(consumes = "image/*")
+    public ResponseEntity<?> registerRaw(HttpServletRequest request) {
+        try (MatArena arena = matArenas.open()) {
+            return registered(backgroundAssets.register(
+                arena.track(imageDecoder.read(request.getInputStream(), request.getContentLengthLong()))));
+        } catch (IOException | IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> remove(@PathVariable String id) {
+        if (!backgroundAssets.remove(id)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Background not found"));
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    private static ResponseEntity<?> registered(String id) {
+        return ResponseEntity.status(HttpStatus.CREATED).body(Map.of("backgroundId", id));
+    }
+}
@@ -1,312 +1,446 @@
 package com.example.photogen.controller;
 
-import java.util.Base64;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.core.MatOfRect;
-import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
-import org.opencv.core.Size;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.photogen.service.BackgroundAssets;
+import com.example.photogen.service.BackgroundRemovalResult;
+import com.example.photogen.service.BackgroundRemovalService;
+import com.example.photogen.service.ComputeBusyException;
+import com.example.photogen.service.ComputeGate;
+import com.example.photogen.service.ContentHash;
+import com.example.photogen.service.FaceDetectionException;
+import com.example.photogen.service.ImageDecoder;
+import com.example.photogen.service.ImageDelivery;
+import com.example.photogen.service.ImagePayload;
+import com.example.photogen.service.ImagePayloadReader;
+import com.example.photogen.service.MatArena;
+import com.example.photogen.service.MatArenas;
+import com.example.photogen.service.OutputFormat;
+import com.example.photogen.service.PipelineMetrics;
+import com.example.photogen.service.ProcessedImageStore;
+import com.example.photogen.service.ResultCache;
+import com.example.photogen.service.SegmentationSessions;
+import com.example.photogen.service.UnknownBackgroundException;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 @RestController
 @RequestMapping("/api/background-removal")
 public class BackgroundRemovalController {
 
-    private static final Logger logger = LoggerFactory.getLogger(BackgroundRemovalController.class);
-
     static {
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
     }
 
-    @PostMapping("/remove")
-    public ResponseEntity<?> removeBackground(@RequestBody Map<String, String> payload) {
-        try {
-            String backgroundColour = payload.get("backgroundColour");
-            Boolean isFormalClothesEnabled = Boolean.parseBoolean(payload.get("isFormalClothesEnabled"));
-
-            String imageData = payload.get("image").split(",")[1];
-            byte[] inputImageBytes = java.util.Base64.getDecoder().decode(imageData);
-            Mat inputImage = Imgcodecs.imdecode(new MatOfByte(inputImageBytes), Imgcodecs.IMREAD_COLOR);
-
-            Mat customBackground;
-            if (payload.get("customBackground") != null) {
-                String backgroundData = payload.get("customBackground").split(",")[1];
-                byte[] backgroundImageBytes = java.util.Base64.getDecoder().decode(backgroundData);
-                customBackground = Imgcodecs.imdecode(new MatOfByte(backgroundImageBytes), Imgcodecs.IMREAD_COLOR);
-            } else {
-                customBackground = null;
-            }
-
-            String dataUrl = processUserDrawing(inputImage, customBackground, backgroundColour, isFormalClothesEnabled);
+    private static final String OPERATION = "background-removal";
+    private static final String RECOLOR = "background-recolor";
+
+    private final BackgroundRemovalService backgroundRemovalService;
+    private final ImageDecoder imageDecoder;
+    private final ImagePayloadReader imagePayloadReader;
+    private final BatchStreamer batchStreamer;
+    private final MatArenas matArenas;
+    private final ResultCache resultCache;
+    private final SegmentationSessions segmentationSessions;
+    private final PipelineMetrics pipelineMetrics;
+    private final ComputeGate computeGate;
+    private final ProcessedImageStore processedImageStore;
+    private final BackgroundAssets backgroundAssets;
+
+    public BackgroundRemovalController(BackgroundRemovalService backgroundRemovalService, ImageDecoder imageDecoder,
+            ImagePayloadReader imagePayloadReader, BatchStreamer batchStreamer, MatArenas matArenas, ResultCache resultCache,
+            SegmentationSessions segmentationSessions, PipelineMetrics pipelineMetrics, ComputeGate computeGate,
+            ProcessedImageStore processedImageStore, BackgroundAssets backgroundAssets) {
+        this.backgroundRemovalService = backgroundRemovalService;
+        this.imageDecoder = imageDecoder;
+        this.imagePayloadReader = imagePayloadReader;
+        this.batchStreamer = batchStreamer;
+        this.matArenas = matArenas;
+        this.resultCache = resultCache;
+        this.segmentationSessions = segmentationSessions;
+        this.pipelineMetrics = pipelineMetrics;
+        this.computeGate = computeGate;
+        this.processedImageStore = processedImageStore;
+        this.backgroundAssets = backgroundAssets;
+    }
 
-            return ResponseEntity.ok(Map.of(
-                "processedImageDataUrl", dataUrl,
-                "message", "Background removed successfully"
-            ));
-        } catch (IllegalArgumentException e) {
-            return ResponseEntity.badRequest().body(Map.of("error", "Face detection failed: " + e.getMessage()));
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body(Map.of("error", "Processing failed: " + e.getMessage()));
-        }
+    @PostMapping(value = "/remove", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> removeBackground(HttpServletRequest request) {
+        // The endpoint tag depends on the options, which are only known once the body is read
+        return respond(OPERATION, request.getHeader(HttpHeaders.ACCEPT), (arena, run) -> {
+            ImagePayload payload = imagePayloadReader.read(request.getInputStream(), request.getContentLengthLong(), arena);
+            boolean isFormalClothesEnabled = Boolean.parseBoolean(payload.get("isFormalClothesEnabled"));
+            OutputFormat format = OutputFormat.parse(payload.get("format"), payload.get("quality"));
+            ImageDelivery delivery = ImageDelivery.of(payload.get("delivery"));
+            run.endpoint(endpoint(isFormalClothesEnabled));
+            BackgroundRemovalResult processed = remove(run, arena, payload.image("image"),
+                payload.optionalImage("customBackground"), payload.get("backgroundId"), payload.get("backgroundColour"),
+                isFormalClothesEnabled, payload.get("clothingTemplate"), format);
+            return new Removal(processed, delivery);
+        });
     }
 
-    private String processUserDrawing(Mat drawnImage, Mat customBackground, String backgroundColour, Boolean isFormalClothesEnabled) {
-        if (drawnImage.empty()) {
-            throw new IllegalArgumentException("Empty image");
-        }
+    @PostMapping(value = "/remove", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> removeBackground(
+            @RequestPart("image") MultipartFile image,
+            @RequestPart(value = "customBackground", required = false) MultipartFile customBackground,
+            @RequestParam(required = false) String backgroundId,
+            @RequestParam(defaultValue = "#ffffff") String backgroundColour,
+            @RequestParam(defaultValue = "false") boolean isFormalClothesEnabled,
+            @RequestParam(required = false) String clothingTemplate,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) Integer quality,
+            @RequestParam(required = false) String delivery,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        return respond(endpoint(isFormalClothesEnabled), accept, (arena, run) -> {
+            OutputFormat outputFormat = OutputFormat.of(format, quality);
+            ImageDelivery imageDelivery = ImageDelivery.of(delivery);
+            Mat encodedImage = arena.track(read(image));
+            Mat encodedBackground = customBackground != null ? arena.track(read(customBackground)) : null;
+            return new Removal(remove(run, arena, encodedImage, encodedBackground, backgroundId, backgroundColour,
+                isFormalClothesEnabled, clothingTemplate, outputFormat), imageDelivery);
+        });
+    }
 
-        if (customBackground != null && customBackground.empty()) {
-            throw new IllegalArgumentException("Empty custom background image");
-        }
+    @PostMapping(value = "/remove", consumes = "image/*")
+    public ResponseEntity<?> removeBackground(
+            HttpServletRequest request,
+            @RequestParam(required = false) String backgroundId,
+            @RequestParam(defaultValue = "#ffffff") String backgroundColour,
+            @RequestParam(defaultValue = "false") boolean isFormalClothesEnabled,
+            @RequestParam(required = false) String clothingTemplate,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) Integer quality,
+            @RequestParam(required = false) String delivery) {
+        return respond(endpoint(isFormalClothesEnabled), request.getHeader(HttpHeaders.ACCEPT), (arena, run) -> {
+            OutputFormat outputFormat = OutputFormat.of(format, quality);
+            ImageDelivery imageDelivery = ImageDelivery.of(delivery);
+            Mat encodedImage = arena.track(imageDecoder.read(request.getInputStream(), request.getContentLengthLong()));
+            return new Removal(remove(run, arena, encodedImage, null, backgroundId, backgroundColour,
+                isFormalClothesEnabled, clothingTemplate, outputFormat), imageDelivery);
+        });
+    }
 
-        // Create a new Mat object to store the result depending on whether a custom background is provided
-        Mat result;
-        if (customBackground != null) {
-            Mat resizedBackground = resizeImage(customBackground, drawnImage.width(), drawnImage.height());
+    /**
+     * Puts the person segmented by an earlier removal on a new colour or custom background, using
+     * the {@code sessionToken} that removal returned. Nothing is segmented again.
+     */
+    @PostMapping(value = "/recolor", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> recolor(HttpServletRequest request) {
+        return respond(RECOLOR, request.getHeader(HttpHeaders.ACCEPT), (arena, run) -> {
+            ImagePayload payload = imagePayloadReader.read(request.getInputStream(), request.getContentLengthLong(), arena);
+            String backgroundColour = payload.get("backgroundColour") != null ? payload.get("backgroundColour") : "#ffffff";
+            OutputFormat format = OutputFormat.parse(payload.get("format"), payload.get("quality"));
+            ImageDelivery delivery = ImageDelivery.of(payload.get("delivery"));
+            Mat encodedBackground = payload.optionalImage("customBackground");
+            Mat customBackground = encodedBackground != null ? arena.track(imageDecoder.decode(encodedBackground)) : null;
+            run.stage("admission");
+            return new Removal(computeGate.call(() -> {
+                run.stage("composite");
+                run.computed();
+                return backgroundRemovalService.recolor(payload.get("sessionToken"), customBackground,
+                    payload.get("backgroundId"), backgroundColour, format);
+            }), delivery);
+        });
+    }
 
-            if (resizedBackground.width() != drawnImage.width() || resizedBackground.height() != drawnImage.height()) {
-                throw new IllegalArgumentException("Custom background image size does not match original image size");
-            }
+    @PostMapping(value = "/recolor", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> recolor(
+            @RequestParam String sessionToken,
+            @RequestPart(value = "customBackground", required = false) MultipartFile customBackground,
+            @RequestParam(required = false) String backgroundId,
+            @RequestParam(defaultValue = "#ffffff") String backgroundColour,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) Integer quality,
+            @RequestParam(required = false) String delivery,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        return respond(RECOLOR, accept, (arena, run) -> {
+            OutputFormat outputFormat = OutputFormat.of(format, quality);
+            ImageDelivery imageDelivery = ImageDelivery.of(delivery);
+            Mat background = customBackground != null ? arena.track(imageDecoder.decode(arena.track(read(customBackground)))) : null;
+            run.stage("admission");
+            return new Removal(computeGate.call(() -> {
+                run.stage("composite");
+                run.computed();
+                return backgroundRemovalService.recolor(sessionToken, background, backgroundId, backgroundColour,
+                    outputFormat);
+            }), imageDelivery);
+        });
+    }
 
-            result = resizedBackground.clone();
-        } else {
-            result = new Mat(drawnImage.size(), drawnImage.type(), parseColor(backgroundColour));
+    /**
+     * Removes the background of every image of {@code images} with the same options, streaming
+     * one NDJSON line per image in order.
+     */
+    @PostMapping(value = "/remove/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> removeBackgrounds(HttpServletRequest request) throws IOException {
+        // Holds the uploads and the decoded background until the last line is written
+        MatArena uploads = matArenas.open();
+        ImagePayload payload;
+        Mat customBackground;
+        String backgroundHash;
+        try {
+            payload = imagePayloadReader.read(request.getInputStream(), request.getContentLengthLong(), uploads);
+        } catch (IllegalArgumentException e) {
+            uploads.close();
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            uploads.close();
+            throw e;
         }
-
-        CascadeClassifier faceDetector = new CascadeClassifier(getClass().getResource("/haarcascade_frontalface_default.xml").getPath().substring(1));
-        MatOfRect faceDetections = new MatOfRect();
-        faceDetector.detectMultiScale(drawnImage, faceDetections);
-
-        if (faceDetections.empty()) {
-            throw new IllegalArgumentException("No faces detected");
+        try {
+            Mat encodedBackground = payload.optionalImage("customBackground");
+            customBackground = encodedBackground != null ? uploads.track(imageDecoder.decode(encodedBackground)) : null;
+            backgroundHash = encodedBackground != null ? ContentHash.of(encodedBackground) : payload.get("backgroundId");
+        } catch (IllegalArgumentException e) {
+            uploads.close();
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid custom background: " + e.getMessage());
         }
-
-        Rect faceRect = faceDetections.toArray()[0];
-        for (Rect rect : faceDetections.toArray()) {
-            if (rect.area() > faceRect.area()) {
-                faceRect = rect;
-            }
+        String backgroundId = payload.get("backgroundId");
+        if (backgroundId != null && !backgroundAssets.contains(backgroundId)) {
+            uploads.close();
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, new UnknownBackgroundException(backgroundId).getMessage());
         }
-
-        Mat faceImage = drawnImage.clone();
-        Mat faceImageClone = faceImage.clone();
-        Mat formalImage = Imgcodecs.imread("src/main/resources/images/formal2.png");
-        if (formalImage.empty()) {
-            throw new IllegalArgumentException("Formal image not found");
+        String backgroundColour = payload.get("backgroundColour") != null ? payload.get("backgroundColour") : "#ffffff";
+        boolean isFormalClothesEnabled = Boolean.parseBoolean(payload.get("isFormalClothesEnabled"));
+        String clothingTemplate = payload.get("clothingTemplate");
+        OutputFormat format;
+        ImageDelivery delivery;
+        try {
+            format = OutputFormat.parse(payload.get("format"), payload.get("quality"));
+            delivery = ImageDelivery.of(payload.get("delivery"));
+        } catch (IllegalArgumentException e) {
+            uploads.close();
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
         }
-        
-        if (faceRect.height < 0.6 * drawnImage.height()) {
-            Rect expandedFaceRect = expandFaceRegion(faceRect, drawnImage.size(), 2.4, 1.3);
-            
-            Mat faceForegroundMask = grabCut(faceImage, expandedFaceRect);
-            faceImageClone.copyTo(result, faceForegroundMask);
 
-            if (isFormalClothesEnabled) {
-                Mat formalImageResized = resizeImage(formalImage, drawnImage.width(), drawnImage.height());
-                Mat formalImageClone = formalImageResized.clone();
-                Rect formalClothesRect = new Rect(0, formalImageResized.height() / 2, formalImageResized.width(), formalImageResized.height() / 2);
-                Mat formalForegroundMask = grabCut(formalImageResized, formalClothesRect);
-
-                ImmutablePair<Mat, Mat> stretchedAndCropped = stretchAndCropHorizontally(formalImageClone, formalForegroundMask, 1.5);
-                formalImageClone = stretchedAndCropped.getLeft();
-                formalForegroundMask = stretchedAndCropped.getRight();
-
-                double largestGap = findLargestGap(faceForegroundMask, formalForegroundMask) * 0.6;
-                Mat formalImageTranslated = shiftDown(formalImageClone, largestGap);
-                Mat formalForegroundMaskTranslated = shiftDown(formalForegroundMask, largestGap);
-                formalImageTranslated.copyTo(result, formalForegroundMaskTranslated);
-            } 
-            else {
-                Rect clothesRect = clothesRegion(faceRect, drawnImage.size());
-                Mat clothesImage = drawnImage.clone();
-                Mat clothesImageClone = clothesImage.clone();
-                Mat clothesForegroundMask = grabCut(clothesImage, clothesRect);
-                clothesImageClone.copyTo(result, clothesForegroundMask);
+        return batchStreamer.stream(payload.imageCount("images"), i -> {
+            try (MatArena arena = matArenas.open();
+                 PipelineMetrics.Run run = pipelineMetrics.start(endpoint(isFormalClothesEnabled))) {
+                run.stage("read");
+                Mat encodedImage = payload.image("images", i);
+                run.stage("cache-lookup");
+                String key = key(ContentHash.of(encodedImage), backgroundHash, backgroundColour, isFormalClothesEnabled,
+                    clothingTemplate, format);
+                BackgroundRemovalResult processed = removeCached(run, key, format, () -> {
+                    run.stage("decode");
+                    Mat inputImage = arena.track(imageDecoder.decode(encodedImage));
+                    run.image(inputImage);
+                    return backgroundRemovalService.process(inputImage, customBackground, backgroundId, backgroundColour,
+                        isFormalClothesEnabled, clothingTemplate, format, run::stage);
+                });
+
+                run.succeed();
+                return removalResponse(processed, delivery);
+            } catch (FaceDetectionException e) {
+                return Map.of("error", "Face detection failed: " + e.getMessage());
+            } catch (UnknownBackgroundException | IllegalArgumentException e) {
+                return Map.of("error", e.getMessage());
             }
-        } 
-        else {
-            Rect expandedFaceRect = expandFaceRegion(faceRect, drawnImage.size(), 1.7, 1.2);
-            Mat faceForegroundMask = grabCut(faceImage, expandedFaceRect);
-            faceImageClone.copyTo(result, faceForegroundMask);
-        }
-
-        String uniqueFileName = UUID.randomUUID().toString() + ".jpg";
-
-        String outputPath = "src/main/resources/processed/" + uniqueFileName;
-        Imgcodecs.imwrite(outputPath, result);
-        logger.info("Image saved at: " + outputPath);
-
-        MatOfByte matOfByte = new MatOfByte();
-        Imgcodecs.imencode(".jpg", result, matOfByte);
-        byte[] byteArray = matOfByte.toArray();
-        String base64Image = Base64.getEncoder().encodeToString(byteArray);
-
-        String dataUrl = "data:image/jpeg;base64," + base64Image;
-
-        return dataUrl;
+        }, uploads);
     }
 
-    private Rect expandFaceRegion(Rect faceRect, Size imageSize, double verticalExpansion, double horizontalExpansion) {
-        // Expand both horizontally and vertically
-        int newWidth = (int) (faceRect.width * horizontalExpansion);
-        int newX = Math.max(0, faceRect.x - (newWidth - faceRect.width) / 2) + 5;
-        newWidth = Math.min(newWidth, (int) (imageSize.width - newX)) - 10;
-
-        int newHeight = (int) (faceRect.height * verticalExpansion);
-        int newY = Math.max(0, faceRect.y + faceRect.height / 2 - newHeight / 2) + 5;
-        newHeight = Math.min(newHeight, (int) (imageSize.height - newY)) - 10;
+    /** A result, or null for an expired session, and how the request wants it delivered. */
+    private record Removal(BackgroundRemovalResult result, ImageDelivery delivery) {
+    }
 
-        return new Rect(newX, newY, newWidth, newHeight);
+    @FunctionalInterface
+    private interface Processing {
+        Removal process(MatArena arena, PipelineMetrics.Run run) throws Exception;
     }
 
-    private Rect clothesRegion(Rect faceRect, Size imageSize) {
-        // Expand both horizontally and vertically
-        double horizontalExpansion = 2.7;
+    /**
+     * Runs {@code processing} and answers with the JSON response, or with the image bytes alone
+     * if {@code accept} prefers an image type.
+     */
+    private ResponseEntity<?> respond(String endpoint, String accept, Processing processing) {
+        // The arena owns the decoded uploads
+        try (PipelineMetrics.Run run = pipelineMetrics.start(endpoint); MatArena arena = matArenas.open()) {
+            run.stage("read");
+            boolean raw = prefersImage(accept);
+            Removal removal = processing.process(arena, run);
+            if (removal.result() == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Unknown or expired session"));
+            }
 
-        int newWidth = (int) (faceRect.width * horizontalExpansion);
-        int newX = Math.max(0, faceRect.x - (newWidth - faceRect.width) / 2);
-        newWidth = Math.min(newWidth, (int) (imageSize.width - newX));
-        newWidth = Math.max(newWidth, 0);
-    
-        int newY = faceRect.y + faceRect.height - 10;
-        int newHeight = (int) (imageSize.height - newY);
-        newHeight = Math.max(newHeight, 0);
+            run.succeed();
+            return raw
+                ? rawResponse(removal.result())
+                : ResponseEntity.ok(removalResponse(removal.result(), removal.delivery()));
+        } catch (UnknownBackgroundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", e.getMessage()));
+        } catch (FaceDetectionException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Face detection failed: " + e.getMessage()));
+        } catch (InvalidMediaTypeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid Accept header: " + e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (ComputeBusyException e) {
+            return ComputeBusyAdvice.tooManyRequests(e);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(Map.of("error", "Processing failed: " + e.getMessage()));
+        }
+    }
 
-        return new Rect(newX, newY, newWidth, newHeight);
+    /**
+     * Removes the background of an upload still encoded in {@code arena}, or answers it from the
+     * cache. A registered background's id is the hash of its bytes, so it keys the cache just as
+     * uploading the same background would.
+     */
+    private BackgroundRemovalResult remove(PipelineMetrics.Run run, MatArena arena, Mat encodedImage, Mat encodedBackground,
+            String backgroundId, String backgroundColour, boolean isFormalClothesEnabled, String clothingTemplate,
+            OutputFormat format) throws Exception {
+        run.stage("cache-lookup");
+        String backgroundHash = encodedBackground != null ? ContentHash.of(encodedBackground) : backgroundId;
+        String key = key(ContentHash.of(encodedImage), backgroundHash, backgroundColour, isFormalClothesEnabled,
+            clothingTemplate, format);
+        return removeCached(run, key, format, () -> {
+            run.stage("decode");
+            Mat inputImage = arena.track(imageDecoder.decode(encodedImage));
+            Mat background = encodedBackground != null ? arena.track(imageDecoder.decode(encodedBackground)) : null;
+            run.image(inputImage);
+            return backgroundRemovalService.process(inputImage, background, backgroundId, backgroundColour,
+                isFormalClothesEnabled, clothingTemplate, format, run::stage);
+        });
     }
 
-    private Scalar parseColor(String colorString) {
-        if (colorString.startsWith("#")) {
-            // Handle hex color code
-            String hex = colorString.substring(1); // Remove the #
-            int r = Integer.parseInt(hex.substring(0, 2), 16);
-            int g = Integer.parseInt(hex.substring(2, 4), 16);
-            int b = Integer.parseInt(hex.substring(4, 6), 16);
-            return new Scalar(b, g, r); // OpenCV uses BGR order
-        } else {
-            // Handle comma-separated format
-            String[] rgb = colorString.split(",");
-            return new Scalar(Double.parseDouble(rgb[2]), Double.parseDouble(rgb[1]), Double.parseDouble(rgb[0]));
+    /**
+     * Looks the removal up in the result cache, running it through the compute gate on a miss.
+     *
+     * The cache keeps the result without the name it was stored under, and with the token of the
+     * session it was computed with. A client answered from the cache gets its own token for that
+     * session, and the image is saved again for its link, which also stores it anew if it was
+     * evicted. A cached result whose session has expired is computed again, so the token it
+     * returns can still be recolored.
+     */
+    private BackgroundRemovalResult removeCached(PipelineMetrics.Run run, String key, OutputFormat format,
+            Callable<BackgroundRemovalResult> removal) throws Exception {
+        AtomicReference<BackgroundRemovalResult> computed = new AtomicReference<>();
+        Callable<BackgroundRemovalResult> admitted = () -> {
+            run.stage("admission");
+            BackgroundRemovalResult result = computeGate.call(removal);
+            computed.set(result);
+            return result.withIds(null, result.sessionToken());
+        };
+
+        BackgroundRemovalResult cached = resultCache.get(key, BackgroundRemovalResult.class, admitted);
+        if (computed.get() != null) {
+            return computed.get();
         }
+        String sessionToken = segmentationSessions.share(cached.sessionToken());
+        if (cached.sessionToken() != null && sessionToken == null) {
+            resultCache.invalidate(key);
+            cached = resultCache.get(key, BackgroundRemovalResult.class, admitted);
+            if (computed.get() != null) {
+                return computed.get();
+            }
+            sessionToken = segmentationSessions.share(cached.sessionToken());
+        }
+        return cached.withIds(processedImageStore.save(cached.image(), format.type().extension()), sessionToken);
     }
 
-    private Mat grabCut(Mat image, Rect rect) {
-        Mat mask = new Mat(image.size(), CvType.CV_8UC1, new Scalar(Imgproc.GC_BGD));
-        Imgproc.rectangle(mask, rect.tl(), rect.br(), new Scalar(Imgproc.GC_PR_FGD), -1);
-
-        Mat imageClone = image.clone();
-        Imgproc.rectangle(imageClone, rect.tl(), rect.br(), new Scalar(0, 255, 0), 3);
-
-        Mat bgdModel = new Mat();
-        Mat fgdModel = new Mat();
-        int grabCutIterations = 50;
-
-        Imgproc.grabCut(image, mask, rect, bgdModel, fgdModel, grabCutIterations, Imgproc.GC_INIT_WITH_MASK | Imgproc.GC_INIT_WITH_RECT);
-
-        Mat foregroundMask = new Mat(mask.size(), CvType.CV_8UC1, new Scalar(0));
-        Core.compare(mask, new Scalar(Imgproc.GC_PR_FGD), foregroundMask, Core.CMP_EQ);
-
-        Mat fgdMask = new Mat(mask.size(), CvType.CV_8UC1, new Scalar(0));
-        Core.compare(mask, new Scalar(Imgproc.GC_FGD), fgdMask, Core.CMP_EQ);
-
-        Core.bitwise_or(foregroundMask, fgdMask, foregroundMask);
-
-        int iterations = 2;
-        int size = 5;
-        for (int i = 0; i < iterations; i++) {
-            Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(size + i * 2, size + i * 2));
-            Imgproc.morphologyEx(foregroundMask, foregroundMask, Imgproc.MORPH_CLOSE, kernel);
+    /**
+     * The JSON response. The link to the stored image is included whenever it can still be
+     * fetched, which a cached result's may not; the data URL is left out only if the client
+     * asked for the link alone and there is one.
+     */
+    private Map<String, Object> removalResponse(BackgroundRemovalResult processed, ImageDelivery delivery) {
+        String url = storedUrl(processed);
+        Map<String, Object> response = new LinkedHashMap<>();
+        if (url == null || delivery == ImageDelivery.INLINE) {
+            response.put("processedImageDataUrl", processed.dataUrl());
         }
-
-        return foregroundMask;
+        if (url != null) {
+            response.put("processedImageUrl", url);
+        }
+        response.put("grabCutIterations", processed.grabCutIterations());
+        if (processed.sessionToken() != null) {
+            response.put("sessionToken", processed.sessionToken());
+        }
+        response.put("message", "Background removed successfully");
+        return response;
     }
 
-    private Mat shiftDown(Mat inputMat, double shiftY) {
-        // Create the translation matrix
-        Mat translationMatrix = new Mat(2, 3, CvType.CV_32F);
-        translationMatrix.put(0, 0, 1, 0, 0); // tx = 0
-        translationMatrix.put(1, 0, 0, 1, shiftY); // ty = shiftY
-
-        // Calculate the new image size
-        Size newSize = new Size(inputMat.cols(), inputMat.rows());
-
-        // Apply warpAffine
-        Mat outputMat = new Mat();
-        Imgproc.warpAffine(inputMat, outputMat, translationMatrix, newSize);
-
-        return outputMat;
+    /**
+     * The image bytes as the body, with the rest of the JSON response moved into headers and the
+     * link to the stored image as the {@code Content-Location}.
+     */
+    private ResponseEntity<byte[]> rawResponse(BackgroundRemovalResult processed) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(processed.mediaType()))
+            .header("X-GrabCut-Iterations", Integer.toString(processed.grabCutIterations()));
+        if (processed.sessionToken() != null) {
+            response.header("X-Session-Token", processed.sessionToken());
+        }
+        String url = storedUrl(processed);
+        if (url != null) {
+            response.header(HttpHeaders.CONTENT_LOCATION, url);
+        }
+        return response.body(processed.image());
     }
 
-    private Mat resizeImage(Mat image, int width, int height) {
-        Mat resizedImage = new Mat();
-        Imgproc.resize(image, resizedImage, new Size(width, height), 0, 0, Imgproc.INTER_CUBIC);
-        return resizedImage;
+    /** The link to the stored image, or null if it wasn't stored or has been evicted since. */
+    private String storedUrl(BackgroundRemovalResult processed) {
+        if (processed.resultId() == null || processedImageStore.find(processed.resultId()) == null) {
+            return null;
+        }
+        return ProcessedImageStore.url(processed.resultId());
     }
 
-    private int findLargestGap(Mat faceMask, Mat clothesMask){
-        int largestGap = 0;
-        
-        for (int x = 0; x < faceMask.cols(); x++) {
-            int gap;
-            int highest = Integer.MAX_VALUE;
-            int lowest = -1;
-
-            for (int y = 0; y < clothesMask.rows(); y++) {
-                if (clothesMask.get(y, x)[0] == 255 && y < highest) {
-                    highest = y;
-                }
-            }
-
-            for (int y = faceMask.rows() - 1; y >= 0; y--) {
-                if (faceMask.get(y, x)[0] == 255 && y > lowest) {
-                    lowest = y;
-                }
-            }
-
-            if (highest == 0 || lowest == 0) {
-                continue;
-            }
-
-            gap = lowest - highest;
-            if (gap > largestGap) {
-                largestGap = gap;
+    /**
+     * Whether the most preferred type of the {@code Accept} header is an image or
+     * {@code application/octet-stream}. Wildcards, JSON or no header keep the JSON response.
+     */
+    private static boolean prefersImage(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        MediaType preferred = null;
+        for (MediaType type : MediaType.parseMediaTypes(accept)) {
+            if (preferred == null || type.getQualityValue() > preferred.getQualityValue()) {
+                preferred = type;
             }
         }
-
-        return largestGap;
+        return preferred != null && !preferred.isWildcardType()
+            && (preferred.getType().equals("image") || preferred.equalsTypeAndSubtype(MediaType.APPLICATION_OCTET_STREAM));
     }
 
-    private ImmutablePair<Mat, Mat> stretchAndCropHorizontally(Mat image, Mat mask, double horizontalScale) {
-        int newWidth = (int) (image.cols() * horizontalScale);
-        Size newSize = new Size(newWidth, image.rows());
-
-        Mat resizedImage = new Mat();
-        Mat resizedMask = new Mat();
-        Imgproc.resize(image, resizedImage, newSize);
-        Imgproc.resize(mask, resizedMask, newSize);
-
-        int offsetX = (newWidth - image.cols()) / 2;
+    /** The formal clothes path segments the person twice and pastes a template, so it is timed apart. */
+    private static String endpoint(boolean isFormalClothesEnabled) {
+        return isFormalClothesEnabled ? OPERATION + "-formal" : OPERATION;
+    }
 
-        Rect cropRect = new Rect(offsetX, 0, image.cols(), image.rows());
-        Mat croppedImage = resizedImage.submat(cropRect).clone();
-        Mat croppedMask = resizedMask.submat(cropRect).clone();
+    private static String key(String imageHash, String backgroundHash, String backgroundColour,
+            boolean isFormalClothesEnabled, String clothingTemplate, OutputFormat format) {
+        return ResultCache.key(OPERATION, imageHash, backgroundHash, backgroundColour, isFormalClothesEnabled, clothingTemplate,
+            format.type(), format.quality());
+    }
 
-        return new ImmutablePair<>(croppedImage, croppedMask);
+    private Mat read(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return imageDecoder.read(in, file.getSize());
+        }
     }
 }
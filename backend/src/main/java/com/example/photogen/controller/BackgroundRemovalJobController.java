@@ -0,0 +1,199 @@
+package com.example.photogen.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.example.photogen.config.BackgroundRemovalJobProperties;
+import com.example.photogen.service.BackgroundRemovalJob;
+import com.example.photogen.service.BackgroundRemovalJobRequest;
+import com.example.photogen.service.BackgroundRemovalJobService;
+import com.example.photogen.service.ImageDecoder;
+import com.example.photogen.service.ImagePayload;
+import com.example.photogen.service.ImagePayloadReader;
+import com.example.photogen.service.MatArena;
+import com.example.photogen.service.MatArenas;
+import com.example.photogen.service.OutputFormat;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Asynchronous variant of {@code /api/background-removal/remove}: submitting returns a job id
+ * straight away, and the result is fetched by polling the job or by subscribing to its
+ * server-sent events.
+ */
+@RestController
+@RequestMapping("/api/background-removal/jobs")
+public class BackgroundRemovalJobController {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    private final BackgroundRemovalJobService jobService;
+    private final ImageDecoder imageDecoder;
+    private final ImagePayloadReader imagePayloadReader;
+    private final MatArenas matArenas;
+    private final long eventTimeoutMillis;
+
+    public BackgroundRemovalJobController(BackgroundRemovalJobService jobService, ImageDecoder imageDecoder,
+            ImagePayloadReader imagePayloadReader, MatArenas matArenas, BackgroundRemovalJobProperties properties) {
+        this.jobService = jobService;
+        this.imageDecoder = imageDecoder;
+        this.imagePayloadReader = imagePayloadReader;
+        this.matArenas = matArenas;
+        this.eventTimeoutMillis = properties.ttl().toMillis();
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> submit(HttpServletRequest request) {
+        try (MatArena arena = matArenas.open()) {
+            ImagePayload payload = imagePayloadReader.read(request.getInputStream(), request.getContentLengthLong(), arena);
+            Mat encodedBackground = payload.optionalImage("customBackground");
+            OutputFormat format = OutputFormat.parse(payload.get("format"), payload.get("quality"));
+
+            // The job outlives the request's arena, so it gets its own compact copies
+            return submit(new BackgroundRemovalJobRequest(payload.image("image").clone(),
+                encodedBackground != null ? encodedBackground.clone() : null, payload.get("backgroundId"),
+                payload.get("backgroundColour"), Boolean.parseBoolean(payload.get("isFormalClothesEnabled")),
+                payload.get("clothingTemplate"), format));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid image data encoding"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> submit(
+            @RequestPart("image") MultipartFile image,
+            @RequestPart(value = "customBackground", required = false) MultipartFile customBackground,
+            @RequestParam(required = false) String backgroundId,
+            @RequestParam(defaultValue = "#ffffff") String backgroundColour,
+            @RequestParam(defaultValue = "false") boolean isFormalClothesEnabled,
+            @RequestParam(required = false) String clothingTemplate,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) Integer quality) {
+        try {
+            OutputFormat outputFormat = OutputFormat.of(format, quality);
+            Mat encodedImage = read(image);
+            Mat encodedBackground;
+            try {
+                encodedBackground = customBackground != null ? read(customBackground) : null;
+            } catch (IOException | IllegalArgumentException e) {
+                encodedImage.release();
+                throw e;
+            }
+
+            return submit(new BackgroundRemovalJobRequest(encodedImage, encodedBackground, backgroundId, backgroundColour,
+                isFormalClothesEnabled, clothingTemplate, outputFormat));
+        } catch (IOException | IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getJob(@PathVariable String id) {
+        BackgroundRemovalJob job = jobService.get(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Job not found"));
+        }
+        return ResponseEntity.ok(job.snapshot());
+    }
+
+    /**
+     * Streams the job's state as server-sent events named after its status ({@code queued},
+     * {@code running}, {@code succeeded}, {@code failed}), starting with the current one. The
+     * stream ends once the job has finished.
+     *
+     * Each stream writes from its own virtual thread, in order, so the job's worker never waits
+     * on a slow client's socket.
+     */
+    @GetMapping(value = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamJob(@PathVariable String id) {
+        BackgroundRemovalJob job = jobService.get(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        SseEmitter emitter = new SseEmitter(eventTimeoutMillis);
+        ExecutorService sender = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("job-events").factory());
+        Runnable unsubscribe = job.subscribe(snapshot -> {
+            try {
+                sender.execute(() -> send(emitter, snapshot));
+            } catch (RejectedExecutionException e) {
+                // The stream has already ended
+            }
+        });
+        Runnable close = () -> {
+            unsubscribe.run();
+            sender.shutdown();
+        };
+        emitter.onCompletion(close);
+        emitter.onTimeout(close);
+        emitter.onError(e -> close.run());
+
+        return ResponseEntity.ok(emitter);
+    }
+
+    private static void send(SseEmitter emitter, BackgroundRemovalJob.Snapshot snapshot) {
+        try {
+            emitter.send(SseEmitter.event()
+                .name(snapshot.status().name().toLowerCase(Locale.ROOT))
+                .data(snapshot, MediaType.APPLICATION_JSON));
+            if (snapshot.status().isTerminal()) {
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            // The client has gone away
+            emitter.completeWithError(e);
+        }
+    }
+
+    private ResponseEntity<?> submit(BackgroundRemovalJobRequest request) {
+        try {
+            BackgroundRemovalJob job = jobService.submit(request);
+            String location = "/api/background-removal/jobs/" + job.getId();
+
+            return ResponseEntity.accepted().body(Map.of(
+                "jobId", job.getId(),
+                "status", job.snapshot().status(),
+                "statusUrl", location,
+                "eventsUrl", location + "/events"
+            ));
+        } catch (RejectedExecutionException e) {
+            // The job never ran, so nothing else will release its copies
+            request.encodedImage().release();
+            if (request.encodedBackground() != null) {
+                request.encodedBackground().release();
+            }
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(Map.of("error", "Too many background removals queued, try again later"));
+        }
+    }
+
+    private Mat read(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return imageDecoder.read(in, file.getSize());
+        }
+    }
+}
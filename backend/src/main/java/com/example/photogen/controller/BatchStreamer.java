@@ -0,0 +1,176 @@
+package com.example.photogen.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.photogen.service.ComputeGate;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs the items of a batch request on the batch pool and streams their results back as NDJSON,
+ * one line per item in request order, each written as soon as it and every item before it are
+ * done. Every line carries the item's {@code index}; an item that fails gets an {@code error}
+ * line instead of failing the batch.
+ *
+ * Items have already been admitted through the batch size limit, so they wait for the compute
+ * gate as long as it takes rather than being turned away.
+ */
+@Component
+public class BatchStreamer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchStreamer.class);
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    /** Processes one item of a batch; whatever it throws becomes the item's error line. */
+    @FunctionalInterface
+    public interface Item {
+        Map<String, Object> process(int index) throws Exception;
+    }
+
+    private final Executor batchExecutor;
+    private final ComputeGate computeGate;
+    private final ObjectMapper objectMapper;
+    private final int maxImages;
+
+    public BatchStreamer(@Qualifier("batchExecutor") Executor batchExecutor, ComputeGate computeGate,
+            ObjectMapper objectMapper, @Value("${photogen.batch.max-images:50}") int maxImages) {
+        this.batchExecutor = batchExecutor;
+        this.computeGate = computeGate;
+        this.objectMapper = objectMapper;
+        this.maxImages = maxImages;
+    }
+
+    /**
+     * Streams the results of {@code task} for items 0 to {@code count - 1}. Exceptions thrown by
+     * the task become that item's error line.
+     *
+     * @throws ResponseStatusException if the batch is empty or larger than {@code photogen.batch.max-images}
+     */
+    public ResponseEntity<StreamingResponseBody> stream(int count, Item task) {
+        return stream(count, task, () -> {
+        });
+    }
+
+    /**
+     * Like {@link #stream(int, Item)}, closing {@code resources} the items share, such as the
+     * arena holding the uploads, once the stream has ended and no item is running any more. They
+     * are closed right away if the batch is rejected.
+     */
+    public ResponseEntity<StreamingResponseBody> stream(int count, Item task, AutoCloseable resources) {
+        if (count == 0 || count > maxImages) {
+            closeQuietly(resources);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "A batch must hold between 1 and " + maxImages + " images");
+        }
+
+        // An item is claimed either by whoever runs it or, once the stream ends, so that it never runs
+        AtomicBoolean[] claimed = new AtomicBoolean[count];
+        CountDownLatch finished = new CountDownLatch(count);
+        List<FutureTask<Map<String, Object>>> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            claimed[i] = new AtomicBoolean();
+            FutureTask<Map<String, Object>> future = new FutureTask<>(() -> {
+                if (!claimed[index].compareAndSet(false, true)) {
+                    throw new CancellationException();
+                }
+                try {
+                    return computeGate.callWhenFree(() -> task.process(index));
+                } finally {
+                    finished.countDown();
+                }
+            });
+            try {
+                batchExecutor.execute(future);
+            } catch (RejectedExecutionException e) {
+                // Pool is saturated; the task is run by the streaming thread below
+            }
+            tasks.add(future);
+        }
+
+        StreamingResponseBody body = out -> {
+            try {
+                for (int i = 0; i < tasks.size(); i++) {
+                    FutureTask<Map<String, Object>> future = tasks.get(i);
+                    // A no-op if a pool thread has already picked the task up
+                    future.run();
+                    writeLine(out, i, join(future));
+                }
+            } finally {
+                // Stop work nobody will read if the client went away
+                tasks.forEach(future -> future.cancel(false));
+                for (AtomicBoolean item : claimed) {
+                    if (item.compareAndSet(false, true)) {
+                        finished.countDown();
+                    }
+                }
+                awaitQuietly(finished);
+                closeQuietly(resources);
+            }
+        };
+
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    private Map<String, Object> join(FutureTask<Map<String, Object>> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            logger.warn("Batch item failed", e.getCause());
+            String message = e.getCause().getMessage();
+            return Map.of("error", message != null ? message : e.getCause().getClass().getSimpleName());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for batch item", e);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch finished) {
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable resources) {
+        try {
+            resources.close();
+        } catch (Exception e) {
+            logger.warn("Could not close batch resources", e);
+        }
+    }
+
+    private void writeLine(OutputStream out, int index, Map<String, Object> result) throws IOException {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("index", index);
+        line.putAll(result);
+
+        out.write(objectMapper.writeValueAsBytes(line));
+        out.write('\n');
+        out.flush();
+    }
+}
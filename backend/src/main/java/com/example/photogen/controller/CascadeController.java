@@ -0,0 +1,43 @@
+package com.example.photogen.controller;
+
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.photogen.service.CascadeClassifierRegistry;
+
+/**
+ * Reloads the Haar cascades, for instance after replacing the files in
+ * {@code photogen.cascades.directory}.
+ *
+ * The endpoint is not authenticated, and every reload parses the cascades again, so it must only
+ * be reachable from the operators' network and never exposed publicly.
+ */
+@RestController
+@RequestMapping("/api/cascades")
+public class CascadeController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CascadeController.class);
+
+    private final CascadeClassifierRegistry cascadeClassifierRegistry;
+
+    public CascadeController(CascadeClassifierRegistry cascadeClassifierRegistry) {
+        this.cascadeClassifierRegistry = cascadeClassifierRegistry;
+    }
+
+    @PostMapping("/reload")
+    public ResponseEntity<?> reload() {
+        try {
+            cascadeClassifierRegistry.reload();
+            return ResponseEntity.ok(Map.of("message", "Cascade classifiers reloaded"));
+        } catch (Exception e) {
+            logger.error("Error reloading cascade classifiers: ", e);
+            return ResponseEntity.internalServerError().body(Map.of("error", "Reload failed: " + e.getMessage()));
+        }
+    }
+}
@@ -1,22 +1,40 @@
 package com.example.photogen.controller;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.core.MatOfRect;
 import org.opencv.core.Rect;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.objdetect.CascadeClassifier;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.photogen.config.ComplianceProperties;
+import com.example.photogen.service.ComplianceMetrics;
+import com.example.photogen.service.ComplianceMetricsService;
+import com.example.photogen.service.ComputeGate;
+import com.example.photogen.service.ContentHash;
+import com.example.photogen.service.FaceAnalysis;
+import com.example.photogen.service.FaceAnalysisService;
+import com.example.photogen.service.ImageDecoder;
+import com.example.photogen.service.ImagePayload;
+import com.example.photogen.service.ImagePayloadReader;
+import com.example.photogen.service.MatArena;
+import com.example.photogen.service.MatArenas;
+import com.example.photogen.service.PipelineMetrics;
+import com.example.photogen.service.ResultCache;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 @RestController
 @RequestMapping("/api/compliance-checker")
@@ -26,34 +44,151 @@ public class ComplianceCheckerController {
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
     }
 
-    private boolean isInFaceRegion(int x, int y, Rect faceRect) {
-        return x >= faceRect.x && x <= faceRect.x + faceRect.width &&
-               y >= faceRect.y && y <= faceRect.y + faceRect.height;
+    private static final String OPERATION = "compliance-check";
+    private static final TypeReference<Map<String, Object>> REPORT = new TypeReference<>() {};
+
+    private final FaceAnalysisService faceAnalysisService;
+    private final ComplianceMetricsService complianceMetricsService;
+    private final ComplianceProperties properties;
+    private final ImageDecoder imageDecoder;
+    private final ImagePayloadReader imagePayloadReader;
+    private final BatchStreamer batchStreamer;
+    private final MatArenas matArenas;
+    private final ResultCache resultCache;
+    private final PipelineMetrics pipelineMetrics;
+    private final ComputeGate computeGate;
+
+    public ComplianceCheckerController(FaceAnalysisService faceAnalysisService,
+            ComplianceMetricsService complianceMetricsService, ComplianceProperties properties,
+            ImageDecoder imageDecoder, ImagePayloadReader imagePayloadReader, BatchStreamer batchStreamer,
+            MatArenas matArenas, ResultCache resultCache, PipelineMetrics pipelineMetrics, ComputeGate computeGate) {
+        this.faceAnalysisService = faceAnalysisService;
+        this.complianceMetricsService = complianceMetricsService;
+        this.properties = properties;
+        this.imageDecoder = imageDecoder;
+        this.imagePayloadReader = imagePayloadReader;
+        this.batchStreamer = batchStreamer;
+        this.matArenas = matArenas;
+        this.resultCache = resultCache;
+        this.pipelineMetrics = pipelineMetrics;
+        this.computeGate = computeGate;
     }
 
-    @PostMapping("/checks")
-    public ResponseEntity<?> isIdPhotoCompliant(@RequestBody Map<String, String> payload) {
+    @PostMapping(value = "/checks", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> isIdPhotoCompliantJson(HttpServletRequest request) {
+        return UploadResponses.respond(() -> {
+            try (MatArena arena = matArenas.open(); PipelineMetrics.Run run = pipelineMetrics.start(OPERATION)) {
+                run.stage("read");
+                ImagePayload payload = imagePayloadReader.read(request.getInputStream(), request.getContentLengthLong(), arena);
+                return checkCompliance(run, arena, payload.image("image"));
+            }
+        });
+    }
+
+    @PostMapping(value = "/checks", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> isIdPhotoCompliant(@RequestPart("image") MultipartFile imageFile) {
+        return UploadResponses.respond(() -> {
+            try (InputStream in = imageFile.getInputStream(); MatArena arena = matArenas.open();
+                 PipelineMetrics.Run run = pipelineMetrics.start(OPERATION)) {
+                run.stage("read");
+                return checkCompliance(run, arena, arena.track(imageDecoder.read(in, imageFile.getSize())));
+            }
+        });
+    }
+
+    @PostMapping(value = "/checks", consumes = "image/*")
+    public ResponseEntity<?> isIdPhotoCompliant(HttpServletRequest request) {
+        return UploadResponses.respond(() -> {
+            try (MatArena arena = matArenas.open(); PipelineMetrics.Run run = pipelineMetrics.start(OPERATION)) {
+                run.stage("read");
+                return checkCompliance(run, arena,
+                    arena.track(imageDecoder.read(request.getInputStream(), request.getContentLengthLong())));
+            }
+        });
+    }
+
+    /**
+     * Checks every image of {@code images}, streaming one NDJSON line per image in order.
+     */
+    @PostMapping(value = "/checks/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> areIdPhotosCompliant(HttpServletRequest request) throws IOException {
+        // Holds the uploads until the last line is written
+        MatArena uploads = matArenas.open();
+        ImagePayload payload;
+        try {
+            payload = imagePayloadReader.read(request.getInputStream(), request.getContentLengthLong(), uploads);
+        } catch (IllegalArgumentException | IOException e) {
+            uploads.close();
+            throw e;
+        }
+
+        return batchStreamer.stream(payload.imageCount("images"), i -> {
+            try (MatArena arena = matArenas.open(); PipelineMetrics.Run run = pipelineMetrics.start(OPERATION)) {
+                run.stage("read");
+                Mat encoded = payload.image("images", i);
+                run.stage("cache-lookup");
+                Map<String, Object> report = complianceReport(run, ContentHash.of(encoded),
+                    () -> arena.track(imageDecoder.decode(encoded)));
+                run.succeed();
+                return report;
+            }
+        }, uploads);
+    }
+
+    private ResponseEntity<?> checkCompliance(PipelineMetrics.Run run, MatArena arena, Mat encoded) throws Exception {
+        run.stage("cache-lookup");
+        Map<String, Object> report = complianceReport(run, ContentHash.of(encoded), () -> arena.track(imageDecoder.decode(encoded)));
+        run.succeed();
+        return ResponseEntity.ok(report);
+    }
+
+    /**
+     * The report for the image whose bytes hash to {@code imageHash}, decoding it with
+     * {@code decoder} only if the report isn't cached. The thresholds are part of the key.
+     */
+    private Map<String, Object> complianceReport(PipelineMetrics.Run run, String imageHash, Callable<Mat> decoder)
+            throws Exception {
+        return resultCache.get(ResultCache.key(OPERATION, imageHash, properties), REPORT, () -> {
+            run.stage("admission");
+            return computeGate.call(() -> {
+                run.stage("decode");
+                Mat image = decoder.call();
+                run.image(image);
+                return complianceReport(run, image);
+            });
+        });
+    }
 
+    private Map<String, Object> complianceReport(PipelineMetrics.Run run, Mat matImage) {
         ArrayList<String> errors = new ArrayList<>();
 
-        String imageData = payload.get("image").split(",")[1];
-        byte[] inputImageBytes = java.util.Base64.getDecoder().decode(imageData);
-        Mat matImage = Imgcodecs.imdecode(new MatOfByte(inputImageBytes), Imgcodecs.IMREAD_COLOR);
+        run.stage("detect");
+        FaceAnalysis analysis = faceAnalysisService.analyze(matImage);
+        run.stage("measure");
+        ComplianceMetrics metrics = complianceMetricsService.measure(matImage, analysis);
 
-        if (!isBackgroundWhite(matImage)) {
+        if (!isBackgroundWhite(metrics)) {
             errors.add("Background colour is not white.");
         }
-        if (!isFaceCentered(matImage)) {
+        // Measured for every image, but only verdicts once a deployment has tuned and enabled them
+        if (properties.checkUniformity() && !isBackgroundUniform(metrics)) {
+            errors.add("Background is not evenly coloured.");
+        }
+        if (properties.checkExposure() && !isWellExposed(metrics)) {
+            errors.add("Face is over- or underexposed.");
+        }
+        if (!isFaceCentered(matImage, analysis)) {
             errors.add("Face is not centered in the image.");
         }        
         if (!isSizeCompliant(matImage)) {
             errors.add("Image size is not a typical ID/passport photo size.");
         }
 
-        return ResponseEntity.ok(Map.of(
+        return Map.of(
             "compliant", errors.isEmpty(),
-            "errors", errors
-        ));
+            "errors", errors,
+            "metrics", metrics
+        );
     }
 
     public boolean isSizeCompliant(Mat image) {
@@ -63,22 +198,12 @@ public class ComplianceCheckerController {
         return height / width >= 1.0 && height / width <= 1.45;
     }
 
-    public boolean isFaceCentered(Mat image) {
-        CascadeClassifier faceDetector = new CascadeClassifier(getClass().getResource("/haarcascade_frontalface_default.xml").getPath().substring(1));
-
-        MatOfRect faceDetections = new MatOfRect();
-        faceDetector.detectMultiScale(image, faceDetections);
-
-        if (faceDetections.toArray().length == 0) {
+    public boolean isFaceCentered(Mat image, FaceAnalysis analysis) {
+        if (!analysis.hasFace()) {
             return false;
         }
 
-        Rect faceRect = faceDetections.toArray()[0];
-        for (Rect rect : faceDetections.toArray()) {
-            if (rect.area() > faceRect.area()) {
-                faceRect = rect;
-            }
-        }
+        Rect faceRect = analysis.largestFace();
 
         int imageCenterX = image.width() / 2;
         int faceCenterX = faceRect.x + faceRect.width / 2;
@@ -87,60 +212,17 @@ public class ComplianceCheckerController {
         return Math.abs(imageCenterX - faceCenterX) <= tolerance;
     }
 
-    public boolean isBackgroundWhite(Mat image){
-        CascadeClassifier faceDetector = new CascadeClassifier(getClass().getResource("/haarcascade_frontalface_default.xml").getPath().substring(1));
-        int width = image.width();
-        int height = image.height();
-
-        // 1. Detect Face
-        MatOfRect faceDetections = new MatOfRect();
-        faceDetector.detectMultiScale(image, faceDetections);
-        Rect faceRect = null;
-        if (faceDetections.toArray().length > 0) {
-            faceRect = faceDetections.toArray()[0];
-        }
-
-        int sampleRate = 2;
-        int totalBackgroundPixels = 0;
-        int nonWhiteBackgroundPixels = 0;
-
-        BufferedImage bufferedImage = matToBufferedImage(image);
-
-        // 3. Refined ROI and Sampling
-        for (int y = 0; y < height; y += sampleRate) {
-            for (int x = 0; x < width; x += sampleRate) {
-                if (faceRect == null || !isInFaceRegion(x, y, faceRect)) {
-                    byte[] pixelData = ((DataBufferByte) bufferedImage.getRaster().getDataBuffer()).getData();
-                    int index = (y * width + x) * 3;
-                    int blue = pixelData[index] & 0xFF;
-                    int green = pixelData[index + 1] & 0xFF;
-                    int red = pixelData[index + 2] & 0xFF;
-    
-                    totalBackgroundPixels++;
-    
-                    if (!(red >= 230 && red <= 255 && green >= 230 && green <= 255 && blue >= 230 && blue <= 255)) {
-                        nonWhiteBackgroundPixels++;
-                    }
-                }
-            }
-        }
-
-        double nonWhitePercentage = (double) nonWhiteBackgroundPixels / totalBackgroundPixels * 100;
-        double maxNonWhitePercentage = 50;
+    public boolean isBackgroundWhite(ComplianceMetrics metrics) {
+        return metrics.backgroundNonWhiteFraction() <= properties.maxNonWhiteFraction();
+    }
 
-        return nonWhitePercentage <= maxNonWhitePercentage;
+    public boolean isBackgroundUniform(ComplianceMetrics metrics) {
+        return metrics.backgroundDeviation() <= properties.maxBackgroundDeviation();
     }
 
-    private BufferedImage matToBufferedImage(Mat mat) {
-        int type = BufferedImage.TYPE_3BYTE_BGR;
-        if (mat.channels() == 1) {
-            type = BufferedImage.TYPE_BYTE_GRAY;
-        }
-        BufferedImage image = new BufferedImage(mat.width(), mat.height(), type);
-        byte[] data = new byte[mat.width() * mat.height() * (int) mat.elemSize()];
-        mat.get(0, 0, data);
-        image.getRaster().setDataElements(0, 0, mat.width(), mat.height(), data);
-        return image;
+    public boolean isWellExposed(ComplianceMetrics metrics) {
+        return metrics.shadowFraction() <= properties.maxClippedFraction()
+            && metrics.highlightFraction() <= properties.maxClippedFraction();
     }
 
 }
@@ -0,0 +1,31 @@
+package com.example.photogen.controller;
+
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import com.example.photogen.service.ComputeBusyException;
+
+/**
+ * Answers requests turned away by the compute gate with a 429 and a {@code Retry-After}.
+ */
+@RestControllerAdvice
+public class ComputeBusyAdvice {
+
+    @ExceptionHandler(ComputeBusyException.class)
+    public ResponseEntity<?> computeBusy(ComputeBusyException e) {
+        return tooManyRequests(e);
+    }
+
+    /** For handlers that map their own exceptions and would otherwise report this as a failure. */
+    static ResponseEntity<?> tooManyRequests(ComputeBusyException e) {
+        long seconds = Math.max(1, (e.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, Long.toString(seconds))
+            .body(Map.of("error", e.getMessage()));
+    }
+}
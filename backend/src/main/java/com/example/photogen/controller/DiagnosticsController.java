@@ -0,0 +1,48 @@
+package com.example.photogen.controller;
+
+import java.util.Map;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.photogen.service.MatArenas;
+import com.example.photogen.service.ResultCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+@RestController
+@RequestMapping("/api/diagnostics")
+public class DiagnosticsController {
+
+    private final MatArenas matArenas;
+    private final ResultCache resultCache;
+
+    public DiagnosticsController(MatArenas matArenas, ResultCache resultCache) {
+        this.matArenas = matArenas;
+        this.resultCache = resultCache;
+    }
+
+    @GetMapping("/native-memory")
+    public ResponseEntity<?> nativeMemory() {
+        return ResponseEntity.ok(Map.of(
+            "liveBytes", matArenas.getLiveBytes(),
+            "openArenas", matArenas.getOpenArenas(),
+            "pooledBytes", matArenas.getPooledBytes(),
+            "leakedArenas", matArenas.getLeakedArenas()
+        ));
+    }
+
+    @GetMapping("/result-cache")
+    public ResponseEntity<?> resultCache() {
+        CacheStats stats = resultCache.getStats();
+        return ResponseEntity.ok(Map.of(
+            "hits", stats.hitCount(),
+            "misses", stats.missCount(),
+            "diskHits", resultCache.getDiskHits(),
+            "evictions", stats.evictionCount(),
+            "evictedBytes", stats.evictionWeight(),
+            "weightedBytes", resultCache.getWeightedSize()
+        ));
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.photogen.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.example.photogen.config.ProcessedImageStoreProperties;
+import com.example.photogen.service.ProcessedImageStore;
+import com.example.photogen.service.ProcessedImageStore.StoredImage;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the images kept by {@link ProcessedImageStore}, by the file name the removal responses
+ * link to. A file's name is the hash of its content, so the hash is a strong ETag and the image
+ * never changes under its URL.
+ *
+ * Files go out through Tomcat's sendfile support when the connector has it, so the kernel copies
+ * them straight to the socket, and through {@link FileChannel#transferTo} otherwise. A single
+ * byte range is honoured; a request for several ranges gets the whole image.
+ */
+@RestController
+@RequestMapping("/api/results")
+public class ResultController {
+
+    // Request attributes of Tomcat's sendfile support; other containers don't set the first one
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final ProcessedImageStore processedImageStore;
+    private final CacheControl cacheControl;
+
+    public ResultController(ProcessedImageStore processedImageStore, ProcessedImageStoreProperties properties) {
+        this.processedImageStore = processedImageStore;
+        this.cacheControl = CacheControl.maxAge(properties.cacheMaxAge()).cachePublic().immutable();
+    }
+
+    /**
+     * Writes the image {@code id} to the response itself, and returns null once it has; only
+     * the error responses are returned as entities.
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getResult(@PathVariable String id, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        StoredImage image = processedImageStore.find(id);
+        if (image == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Result not found"));
+        }
+
+        String etag = "\"" + image.hash() + "\"";
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            // Spring has set 304 and the ETag
+            return null;
+        }
+
+        long start = 0;
+        long end = image.size() - 1;
+        HttpRange range = range(request, etag);
+        if (range != null) {
+            start = range.getRangeStart(image.size());
+            end = range.getRangeEnd(image.size());
+            if (start >= image.size()) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + image.size())
+                    .build();
+            }
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + image.size());
+        }
+
+        long length = end - start + 1;
+        response.setContentType(MediaTypeFactory.getMediaType(id).orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+        response.setContentLengthLong(length);
+        if ("HEAD".equals(request.getMethod())) {
+            return null;
+        }
+
+        if (image.pending() != null) {
+            response.getOutputStream().write(image.pending(), (int) start, (int) length);
+        } else if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, image.path().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+        } else {
+            transfer(image, start, length, response.getOutputStream());
+        }
+        return null;
+    }
+
+    /** The single range requested, or null to send the whole image. */
+    private static HttpRange range(HttpServletRequest request, String etag) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null) {
+            return null;
+        }
+        // A range is only valid against the version of the image the client already has
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            // Malformed ranges are ignored, as RFC 9110 allows
+            return null;
+        }
+    }
+
+    private static void transfer(StoredImage image, long start, long length, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(image.path())) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, target);
+                if (sent <= 0) {
+                    // The file was evicted and truncated underneath us
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+}
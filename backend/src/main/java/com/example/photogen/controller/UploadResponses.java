@@ -0,0 +1,41 @@
+package com.example.photogen.controller;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+
+import com.example.photogen.service.ComputeBusyException;
+
+/**
+ * The error mapping shared by the single-image endpoints, whether the image is a data URL, a
+ * multipart part or the raw body: an unreadable or invalid upload is a 400, a busy compute gate a
+ * 429 and anything else a 500.
+ */
+final class UploadResponses {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadResponses.class);
+
+    @FunctionalInterface
+    interface Handler {
+        ResponseEntity<?> handle() throws Exception;
+    }
+
+    private UploadResponses() {
+    }
+
+    static ResponseEntity<?> respond(Handler handler) {
+        try {
+            return handler.handle();
+        } catch (IllegalArgumentException | IOException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (ComputeBusyException e) {
+            return ComputeBusyAdvice.tooManyRequests(e);
+        } catch (Exception e) {
+            logger.error("Processing failed: ", e);
+            return ResponseEntity.internalServerError().body(Map.of("error", "Processing failed: " + e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.photogen.service;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A decoded background kept by {@link BackgroundAssets}, either as registered or resized to an
+ * output size. Eviction may release it while a request is reading it, so every read checks first.
+ */
+final class BackgroundAsset {
+
+    private final Mat image;
+    private boolean released;
+
+    BackgroundAsset(Mat image) {
+        this.image = image;
+    }
+
+    /**
+     * The background resized to {@code size} the way a background uploaded with the request is,
+     * or null if it was evicted in the meantime.
+     */
+    synchronized BackgroundAsset resize(Size size) {
+        Mat resized = new Mat();
+        if (!resizeTo(size, resized)) {
+            resized.release();
+            return null;
+        }
+        return new BackgroundAsset(resized);
+    }
+
+    /**
+     * Resizes the background to {@code size} into {@code target}. Returns false if it was evicted
+     * in the meantime.
+     */
+    synchronized boolean resizeTo(Size size, Mat target) {
+        if (released) {
+            return false;
+        }
+        Imgproc.resize(image, target, size, 0, 0, Imgproc.INTER_CUBIC);
+        return true;
+    }
+
+    /** Copies the background into {@code target}. Returns false if it was evicted in the meantime. */
+    synchronized boolean copyTo(Mat target) {
+        if (released) {
+            return false;
+        }
+        image.copyTo(target);
+        return true;
+    }
+
+    long bytes() {
+        return MatArenas.bytes(image);
+    }
+
+    synchronized void release() {
+        released = true;
+        image.release();
+    }
+}
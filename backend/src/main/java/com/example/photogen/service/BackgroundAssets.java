@@ -0,0 +1,104 @@
+package com.example.photogen.service;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.springframework.stereotype.Component;
+
+import com.example.photogen.config.BackgroundAssetProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+/**
+ * Custom backgrounds uploaded once and then referenced by id, so a kiosk cycling through the same
+ * few backdrops doesn't send and decode them with every removal. Each background is also kept
+ * resized to every output size it was used at, in a size-keyed LRU, so repeat removals copy the
+ * rendering instead of resizing again.
+ *
+ * The id is the hash of the uploaded bytes, which is what a request uploading the same background
+ * is cached under, so both ways of sending it share results. Both tiers are bounded by native
+ * size, {@code photogen.backgrounds.max-size} and {@code photogen.backgrounds.rendering-max-size}.
+ */
+@Component
+public class BackgroundAssets {
+
+    private record RenderKey(String id, int width, int height) {
+    }
+
+    private final ImageDecoder imageDecoder;
+    private final Cache<String, BackgroundAsset> backgrounds;
+    private final Cache<RenderKey, BackgroundAsset> renderings;
+
+    public BackgroundAssets(BackgroundAssetProperties properties, ImageDecoder imageDecoder) {
+        this.imageDecoder = imageDecoder;
+        this.backgrounds = Caffeine.newBuilder()
+            .maximumWeight(properties.maxSize().toBytes())
+            .weigher((String id, BackgroundAsset background) -> (int) Math.min(Integer.MAX_VALUE, background.bytes()))
+            .removalListener((String id, BackgroundAsset background, RemovalCause cause) -> {
+                if (background != null) {
+                    background.release();
+                }
+            })
+            .build();
+        this.renderings = Caffeine.newBuilder()
+            .maximumWeight(properties.renderingMaxSize().toBytes())
+            .weigher((RenderKey key, BackgroundAsset rendering) -> (int) Math.min(Integer.MAX_VALUE, rendering.bytes()))
+            .removalListener((RenderKey key, BackgroundAsset rendering, RemovalCause cause) -> {
+                if (rendering != null) {
+                    rendering.release();
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Decodes and keeps the background in {@code encoded}, as read by {@link ImageDecoder#read},
+     * and returns its id. Registering the same bytes again returns the same id without decoding.
+     *
+     * @throws IllegalArgumentException if the bytes aren't a readable image
+     */
+    public String register(Mat encoded) {
+        String id = ContentHash.of(encoded);
+        backgrounds.get(id, k -> new BackgroundAsset(imageDecoder.decode(encoded)));
+        return id;
+    }
+
+    public boolean contains(String id) {
+        return id != null && backgrounds.asMap().containsKey(id);
+    }
+
+    /** Drops the background and its renderings. Returns false if there was no such background. */
+    public boolean remove(String id) {
+        renderings.asMap().keySet().removeIf(key -> key.id().equals(id));
+        return backgrounds.asMap().remove(id) != null;
+    }
+
+    /**
+     * Copies the background {@code id} resized to {@code size} into {@code target}, resizing it
+     * only if that size isn't cached. Returns false if there is no such background.
+     */
+    public boolean copyTo(String id, Size size, Mat target) {
+        RenderKey key = new RenderKey(id, (int) size.width, (int) size.height);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            BackgroundAsset rendering = renderings.get(key, k -> render(id, size));
+            if (rendering == null) {
+                return false;
+            }
+            if (rendering.copyTo(target)) {
+                return true;
+            }
+            // Evicted between the lookup and the copy
+            renderings.asMap().remove(key, rendering);
+        }
+
+        // A rendering heavier than the whole tier, or one under constant pressure, is evicted as
+        // soon as it is cached, so it is resized straight into the target instead
+        BackgroundAsset background = backgrounds.getIfPresent(id);
+        return background != null && background.resizeTo(size, target);
+    }
+
+    private BackgroundAsset render(String id, Size size) {
+        BackgroundAsset background = backgrounds.getIfPresent(id);
+        return background != null ? background.resize(size) : null;
+    }
+}
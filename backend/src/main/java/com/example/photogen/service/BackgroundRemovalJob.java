@@ -0,0 +1,143 @@
+package com.example.photogen.service;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * A background removal running on the job executor. Its state only moves forward, from
+ * {@link Status#QUEUED} through {@link Status#RUNNING} to {@link Status#SUCCEEDED} or
+ * {@link Status#FAILED}, and every change is pushed to the current subscribers.
+ */
+public class BackgroundRemovalJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED;
+
+        public boolean isTerminal() {
+            return this == SUCCEEDED || this == FAILED;
+        }
+    }
+
+    /** Point-in-time view of a job; the result fields are only set once it has finished. */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Snapshot(
+            String jobId,
+            Status status,
+            BackgroundRemovalStage stage,
+            String processedImageDataUrl,
+            String processedImageUrl,
+            Integer grabCutIterations,
+            String sessionToken,
+            String error) {
+    }
+
+    /**
+     * A subscriber and the version of the last state it was given. States are sent outside the
+     * job's lock, so a late delivery of an older state is dropped rather than sent out of order.
+     */
+    private static final class Subscriber {
+
+        private final Consumer<Snapshot> consumer;
+        private long delivered = -1;
+
+        Subscriber(Consumer<Snapshot> consumer) {
+            this.consumer = consumer;
+        }
+
+        synchronized void deliver(long version, Snapshot snapshot) {
+            if (version <= delivered) {
+                return;
+            }
+            delivered = version;
+            consumer.accept(snapshot);
+        }
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    private Snapshot snapshot = new Snapshot(id, Status.QUEUED, null, null, null, null, null, null);
+    private long version;
+
+    public String getId() {
+        return id;
+    }
+
+    public synchronized Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Sends the current state to {@code subscriber} and then every later change, until the job
+     * finishes or the returned handle is run. Subscribers are called without the job's lock held,
+     * but from the thread that changed the state, so they should hand slow work elsewhere.
+     */
+    public Runnable subscribe(Consumer<Snapshot> consumer) {
+        Subscriber subscriber = new Subscriber(consumer);
+        Snapshot current;
+        long currentVersion;
+        synchronized (this) {
+            current = snapshot;
+            currentVersion = version;
+            if (!current.status().isTerminal()) {
+                subscribers.add(subscriber);
+            }
+        }
+        subscriber.deliver(currentVersion, current);
+        return () -> subscribers.remove(subscriber);
+    }
+
+    void advance(BackgroundRemovalStage stage) {
+        update(current -> new Snapshot(id, Status.RUNNING, stage, null, null, null, null, null));
+    }
+
+    /**
+     * Finishes with {@code result}. A stored image is only linked, so a finished job doesn't hold
+     * the image while it waits to be fetched; the data URL is kept only if it couldn't be stored.
+     */
+    void succeed(BackgroundRemovalResult result) {
+        String url = result.resultId() != null ? ProcessedImageStore.url(result.resultId()) : null;
+        String dataUrl = url == null ? result.dataUrl() : null;
+        update(current -> new Snapshot(id, Status.SUCCEEDED, current.stage(), dataUrl, url, result.grabCutIterations(),
+            result.sessionToken(), null));
+    }
+
+    /** Rough heap size of the current state, dominated by an inline data URL if there is one. */
+    synchronized int weight() {
+        return 1024 + (snapshot.processedImageDataUrl() != null ? snapshot.processedImageDataUrl().length() : 0);
+    }
+
+    void fail(String error) {
+        update(current -> new Snapshot(id, Status.FAILED, current.stage(), null, null, null, null, error));
+    }
+
+    /** Moves to the next state under the lock, then tells the subscribers after releasing it. */
+    private void update(UnaryOperator<Snapshot> transition) {
+        Snapshot next;
+        long nextVersion;
+        List<Subscriber> recipients;
+        synchronized (this) {
+            if (snapshot.status().isTerminal()) {
+                return;
+            }
+            snapshot = transition.apply(snapshot);
+            next = snapshot;
+            nextVersion = ++version;
+            recipients = List.copyOf(subscribers);
+            if (next.status().isTerminal()) {
+                subscribers.clear();
+            }
+        }
+        for (Subscriber subscriber : recipients) {
+            subscriber.deliver(nextVersion, next);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.photogen.service;
+
+import org.opencv.core.Mat;
+
+/**
+ * Input of a background removal job. The images are still encoded, as read by
+ * {@link ImageDecoder#read}, so that decoding happens on the job's worker. A registered
+ * background is given by {@code backgroundId} instead of {@code encodedBackground}.
+ */
+public record BackgroundRemovalJobRequest(
+        Mat encodedImage,
+        Mat encodedBackground,
+        String backgroundId,
+        String backgroundColour,
+        boolean isFormalClothesEnabled,
+        String clothingTemplate,
+        OutputFormat format) {
+}
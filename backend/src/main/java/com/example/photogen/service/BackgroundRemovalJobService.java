@@ -0,0 +1,120 @@
+package com.example.photogen.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import com.example.photogen.config.BackgroundRemovalJobProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Runs background removals on a dedicated bounded executor, through the compute gate, and keeps
+ * each job retrievable for {@code photogen.jobs.ttl} after its last update, as long as the jobs
+ * kept fit in {@code photogen.jobs.max-size}.
+ */
+@Service
+public class BackgroundRemovalJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundRemovalJobService.class);
+
+    private static final String OPERATION = "background-removal-job";
+
+    private final BackgroundRemovalService backgroundRemovalService;
+    private final ImageDecoder imageDecoder;
+    private final ExecutorService executor;
+    private final MatArenas matArenas;
+    private final PipelineMetrics pipelineMetrics;
+    private final ComputeGate computeGate;
+    private final Cache<String, BackgroundRemovalJob> jobs;
+
+    public BackgroundRemovalJobService(BackgroundRemovalService backgroundRemovalService, ImageDecoder imageDecoder,
+            @Qualifier("backgroundRemovalJobExecutor") ExecutorService executor, BackgroundRemovalJobProperties properties,
+            MatArenas matArenas, PipelineMetrics pipelineMetrics, ComputeGate computeGate) {
+        this.backgroundRemovalService = backgroundRemovalService;
+        this.imageDecoder = imageDecoder;
+        this.executor = executor;
+        this.matArenas = matArenas;
+        this.pipelineMetrics = pipelineMetrics;
+        this.computeGate = computeGate;
+        this.jobs = Caffeine.newBuilder()
+            .expireAfterWrite(properties.ttl())
+            .maximumWeight(properties.maxSize().toBytes())
+            .weigher((String id, BackgroundRemovalJob job) -> job.weight())
+            .build();
+    }
+
+    /**
+     * Queues a background removal.
+     *
+     * @throws RejectedExecutionException if the job queue is full
+     */
+    public BackgroundRemovalJob submit(BackgroundRemovalJobRequest request) {
+        BackgroundRemovalJob job = new BackgroundRemovalJob();
+        jobs.put(job.getId(), job);
+        PipelineMetrics.Run run = pipelineMetrics.start(request.isFormalClothesEnabled() ? OPERATION + "-formal" : OPERATION);
+        run.stage("queued");
+        try {
+            executor.execute(() -> run(job, request, run));
+        } catch (RejectedExecutionException e) {
+            jobs.invalidate(job.getId());
+            run.close();
+            throw e;
+        }
+        return job;
+    }
+
+    /** Returns the job, or null if there is no such job or it has expired. */
+    public BackgroundRemovalJob get(String id) {
+        return jobs.getIfPresent(id);
+    }
+
+    private void run(BackgroundRemovalJob job, BackgroundRemovalJobRequest request, PipelineMetrics.Run run) {
+        try (run; MatArena arena = matArenas.open()) {
+            // The job has already waited in the job queue, so it isn't turned away here
+            run.stage("admission");
+            BackgroundRemovalResult result = computeGate.callWhenFree(() -> {
+                advance(job, run, BackgroundRemovalStage.DECODE);
+                Mat image = arena.track(imageDecoder.decode(request.encodedImage()));
+                Mat background = request.encodedBackground() != null
+                    ? arena.track(imageDecoder.decode(request.encodedBackground()))
+                    : null;
+                run.image(image);
+
+                return backgroundRemovalService.process(image, background, request.backgroundId(),
+                    request.backgroundColour(), request.isFormalClothesEnabled(), request.clothingTemplate(),
+                    request.format(), stage -> advance(job, run, stage));
+            });
+
+            job.succeed(result);
+            run.succeed();
+        } catch (UnknownBackgroundException e) {
+            job.fail(e.getMessage());
+        } catch (FaceDetectionException e) {
+            job.fail("Face detection failed: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            job.fail(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Background removal job {} failed", job.getId(), e);
+            job.fail("Processing failed: " + e.getMessage());
+        } finally {
+            request.encodedImage().release();
+            if (request.encodedBackground() != null) {
+                request.encodedBackground().release();
+            }
+            // Restart the TTL from the final state
+            jobs.put(job.getId(), job);
+        }
+    }
+
+    private void advance(BackgroundRemovalJob job, PipelineMetrics.Run run, BackgroundRemovalStage stage) {
+        run.stage(stage);
+        job.advance(stage);
+        jobs.put(job.getId(), job);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.photogen.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Output of {@link BackgroundRemovalService}: the encoded image and its media type, the name it
+ * was saved under in the {@link ProcessedImageStore} or null if it wasn't, the total number of
+ * GrabCut iterations spent on it, and the token of its {@link SegmentationSession}, or null if
+ * sessions are disabled.
+ */
+public record BackgroundRemovalResult(byte[] image, String mediaType, String resultId, int grabCutIterations,
+        String sessionToken) {
+
+    /** The same result, saved under {@code resultId} and recolored with {@code sessionToken}. */
+    public BackgroundRemovalResult withIds(String resultId, String sessionToken) {
+        return new BackgroundRemovalResult(image, mediaType, resultId, grabCutIterations, sessionToken);
+    }
+
+    /** The image as a base64 data URL, for the JSON responses. */
+    public String dataUrl() {
+        // Prefix and base64 are written into one buffer sized up front; the characters are all ASCII
+        byte[] prefix = ("data:" + mediaType + ";base64,").getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream dataUrl = new ByteArrayOutputStream(prefix.length + 4 * ((image.length + 2) / 3));
+        dataUrl.writeBytes(prefix);
+        try (OutputStream base64 = Base64.getEncoder().wrap(dataUrl)) {
+            base64.write(image);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return dataUrl.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    // Records compare arrays by identity; results are equal when their bytes are
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof BackgroundRemovalResult that
+            && Arrays.equals(image, that.image)
+            && Objects.equals(mediaType, that.mediaType)
+            && Objects.equals(resultId, that.resultId)
+            && grabCutIterations == that.grabCutIterations
+            && Objects.equals(sessionToken, that.sessionToken);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(Arrays.hashCode(image), mediaType, resultId, grabCutIterations, sessionToken);
+    }
+
+    @Override
+    public String toString() {
+        return "BackgroundRemovalResult[" + mediaType + ", " + image.length + " bytes, resultId=" + resultId
+            + ", grabCutIterations=" + grabCutIterations + ", sessionToken=" + sessionToken + "]";
+    }
+}
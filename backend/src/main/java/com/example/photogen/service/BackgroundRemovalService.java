@@ -0,0 +1,355 @@
+package com.example.photogen.service;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * The background removal pipeline: finds the face, segments the person (optionally swapping in
+ * formal clothes), composites them over the new background and encodes the result. Shared by the
+ * synchronous endpoints and the job API.
+ *
+ * The result has the size of the image passed in. Uploads are decoded to at most
+ * {@code photogen.decode.working-megapixels}, so larger uploads come back scaled down to it.
+ */
+@Service
+public class BackgroundRemovalService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundRemovalService.class);
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    private final FaceAnalysisService faceAnalysisService;
+    private final GrabCutSegmenter grabCutSegmenter;
+    private final ClothingTemplateCache clothingTemplateCache;
+    private final MatArenas matArenas;
+    private final ProcessedImageStore processedImageStore;
+    private final SegmentationSessions segmentationSessions;
+    private final BackgroundAssets backgroundAssets;
+
+    public BackgroundRemovalService(FaceAnalysisService faceAnalysisService, GrabCutSegmenter grabCutSegmenter,
+            ClothingTemplateCache clothingTemplateCache, MatArenas matArenas, ProcessedImageStore processedImageStore,
+            SegmentationSessions segmentationSessions, BackgroundAssets backgroundAssets) {
+        this.faceAnalysisService = faceAnalysisService;
+        this.grabCutSegmenter = grabCutSegmenter;
+        this.clothingTemplateCache = clothingTemplateCache;
+        this.matArenas = matArenas;
+        this.processedImageStore = processedImageStore;
+        this.segmentationSessions = segmentationSessions;
+        this.backgroundAssets = backgroundAssets;
+    }
+
+    public BackgroundRemovalResult process(Mat drawnImage, Mat customBackground, String backgroundColour,
+            boolean isFormalClothesEnabled, String clothingTemplate) {
+        return process(drawnImage, customBackground, null, backgroundColour, isFormalClothesEnabled, clothingTemplate,
+            OutputFormat.DEFAULT, stage -> {
+            });
+    }
+
+    /**
+     * Replaces the background of {@code drawnImage} and encodes the result as {@code format},
+     * reporting each stage to {@code progress} as it starts. The new background is
+     * {@code customBackground}, the registered background {@code backgroundId}, or when both are
+     * null a plain {@code backgroundColour}.
+     *
+     * @throws IllegalArgumentException if the input is unusable or no face is found
+     * @throws UnknownBackgroundException if {@code backgroundId} isn't registered
+     */
+    public BackgroundRemovalResult process(Mat drawnImage, Mat customBackground, String backgroundId,
+            String backgroundColour, boolean isFormalClothesEnabled, String clothingTemplate, OutputFormat format,
+            Consumer<BackgroundRemovalStage> progress) {
+        // Every buffer of the pipeline is released as soon as the result is encoded
+        try (MatArena arena = matArenas.open()) {
+            return process(arena, drawnImage, customBackground, backgroundId, backgroundColour, isFormalClothesEnabled,
+                clothingTemplate, format, progress);
+        }
+    }
+
+    private BackgroundRemovalResult process(MatArena arena, Mat drawnImage, Mat customBackground, String backgroundId,
+            String backgroundColour, boolean isFormalClothesEnabled, String clothingTemplate, OutputFormat format,
+            Consumer<BackgroundRemovalStage> progress) {
+        if (drawnImage.empty()) {
+            throw new IllegalArgumentException("Empty image");
+        }
+
+        // Validate the background before the expensive part
+        Mat result = background(arena, drawnImage.size(), drawnImage.type(), customBackground, backgroundId,
+            backgroundColour);
+
+        progress.accept(BackgroundRemovalStage.DETECT);
+        FaceAnalysis analysis = faceAnalysisService.analyze(drawnImage);
+        if (!analysis.hasFace()) {
+            throw new FaceDetectionException("No faces detected");
+        }
+
+        Rect faceRect = analysis.largestFace();
+
+        // Everything that goes in front of the background is gathered here first, so it can be
+        // kept for recoloring and composited in one copy
+        Mat foreground = arena.allocate(drawnImage.size(), drawnImage.type(), new Scalar(0, 0, 0));
+        Mat foregroundMask = arena.allocate(drawnImage.size(), CvType.CV_8UC1, new Scalar(0));
+
+        int grabCutIterations = 0;
+        progress.accept(BackgroundRemovalStage.SEGMENT);
+
+        // GrabCutSegmenter only reads its input, so every pass works on drawnImage directly
+        if (faceRect.height < 0.6 * drawnImage.height()) {
+            Rect expandedFaceRect = expandFaceRegion(faceRect, drawnImage.size(), 2.4, 1.3);
+
+            if (isFormalClothesEnabled) {
+                GrabCutResult faceSegmentation = grabCutSegmenter.segment(arena, drawnImage, expandedFaceRect);
+                Mat faceForegroundMask = faceSegmentation.foregroundMask();
+                grabCutIterations += faceSegmentation.iterations();
+
+                progress.accept(BackgroundRemovalStage.COMPOSITE);
+                addLayer(drawnImage, faceForegroundMask, foreground, foregroundMask);
+
+                // The template comes pre-segmented, pre-sized and pre-profiled from the cache
+                try (ClothingTemplate formalClothes = clothingTemplateCache.get(clothingTemplate, drawnImage.size())) {
+                    if (formalClothes == null) {
+                        throw new IllegalArgumentException("Formal image not found");
+                    }
+
+                    MaskProfile faceProfile = MaskProfile.of(faceForegroundMask, 255);
+                    int shiftY = (int) Math.round(findLargestGap(faceProfile, formalClothes.foregroundProfile()) * 0.6);
+                    pasteShiftedDown(formalClothes.image(), formalClothes.foregroundMask(), foreground, shiftY);
+                    pasteShiftedDown(formalClothes.foregroundMask(), formalClothes.foregroundMask(), foregroundMask, shiftY);
+                }
+            } 
+            else {
+                // Face and clothes are independent GrabCut problems, so they are segmented concurrently
+                Rect clothesRect = clothesRegion(faceRect, drawnImage.size());
+                List<GrabCutResult> segmentations = grabCutSegmenter.segmentAll(arena, drawnImage, List.of(expandedFaceRect, clothesRect));
+
+                progress.accept(BackgroundRemovalStage.COMPOSITE);
+                for (GrabCutResult segmentation : segmentations) {
+                    grabCutIterations += segmentation.iterations();
+                    addLayer(drawnImage, segmentation.foregroundMask(), foreground, foregroundMask);
+                }
+            }
+        } 
+        else {
+            Rect expandedFaceRect = expandFaceRegion(faceRect, drawnImage.size(), 1.7, 1.2);
+            GrabCutResult faceSegmentation = grabCutSegmenter.segment(arena, drawnImage, expandedFaceRect);
+            grabCutIterations += faceSegmentation.iterations();
+
+            progress.accept(BackgroundRemovalStage.COMPOSITE);
+            addLayer(drawnImage, faceSegmentation.foregroundMask(), foreground, foregroundMask);
+        }
+
+        // The transparent and mask-only formats leave compositing to the client
+        if (!format.needsMask()) {
+            foreground.copyTo(result, foregroundMask);
+        }
+
+        progress.accept(BackgroundRemovalStage.ENCODE);
+        byte[] encoded = encode(arena, result, foreground, foregroundMask, format);
+        logger.info("Background removed using {} GrabCut iterations", grabCutIterations);
+
+        // The arena reuses its buffers, so the session gets copies of its own
+        String sessionToken = segmentationSessions.open(foreground.clone(), foregroundMask.clone());
+        return store(encoded, format, grabCutIterations, sessionToken);
+    }
+
+    /**
+     * Composites the foreground kept by the session {@code sessionToken} over a new background,
+     * without segmenting again. Returns null if the session is unknown or has expired.
+     *
+     * @throws IllegalArgumentException if the new background is unusable
+     * @throws UnknownBackgroundException if a registered background isn't registered any more
+     */
+    public BackgroundRemovalResult recolor(String sessionToken, Mat customBackground, String backgroundColour) {
+        return recolor(sessionToken, customBackground, null, backgroundColour, OutputFormat.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #recolor(String, Mat, String)}, also accepting a registered background
+     * {@code backgroundId} and encoding the result as {@code format}. The transparent and
+     * mask-only formats don't depend on the background, so they return the session's foreground
+     * or mask as is.
+     */
+    public BackgroundRemovalResult recolor(String sessionToken, Mat customBackground, String backgroundId,
+            String backgroundColour, OutputFormat format) {
+        SegmentationSession session = segmentationSessions.get(sessionToken);
+        if (session == null) {
+            return null;
+        }
+
+        try (MatArena arena = matArenas.open()) {
+            if (format.needsMask()) {
+                Mat foreground = arena.allocate(session.size(), session.type());
+                Mat foregroundMask = arena.allocate(session.size(), CvType.CV_8UC1);
+                if (!session.copyTo(foreground, foregroundMask)) {
+                    return null;
+                }
+                return store(encode(arena, null, foreground, foregroundMask, format), format, 0, sessionToken);
+            }
+
+            Mat result = background(arena, session.size(), session.type(), customBackground, backgroundId,
+                backgroundColour);
+            if (!session.compositeOnto(result)) {
+                return null;
+            }
+            return store(encode(arena, result, null, null, format), format, 0, sessionToken);
+        }
+    }
+
+    private Mat background(MatArena arena, Size size, int type, Mat customBackground, String backgroundId,
+            String backgroundColour) {
+        if (customBackground != null && backgroundId != null) {
+            throw new IllegalArgumentException("Give either a custom background or a background id, not both");
+        }
+
+        if (backgroundId != null) {
+            // The cached rendering is already at the output size; it only has to be copied
+            Mat registeredBackground = arena.allocate(size, type);
+            if (!backgroundAssets.copyTo(backgroundId, size, registeredBackground)) {
+                throw new UnknownBackgroundException(backgroundId);
+            }
+            return registeredBackground;
+        }
+
+        if (customBackground == null) {
+            return arena.allocate(size, type, parseColor(backgroundColour));
+        }
+
+        if (customBackground.empty()) {
+            throw new IllegalArgumentException("Empty custom background image");
+        }
+
+        Mat resizedBackground = resizeImage(arena, customBackground, (int) size.width, (int) size.height);
+        if (resizedBackground.width() != (int) size.width || resizedBackground.height() != (int) size.height) {
+            throw new IllegalArgumentException("Custom background image size does not match original image size");
+        }
+        return resizedBackground;
+    }
+
+    /**
+     * Encodes the composited {@code result}, or for the transparent and mask-only formats the
+     * foreground and its mask.
+     */
+    private byte[] encode(MatArena arena, Mat result, Mat foreground, Mat foregroundMask, OutputFormat format) {
+        Mat image = switch (format.type()) {
+            case JPEG, WEBP -> result;
+            case PNG -> {
+                // The mask becomes the alpha channel; the foreground is black behind it, which compresses well
+                Mat bgra = arena.allocate(foreground.size(), CvType.CV_8UC4);
+                Imgproc.cvtColor(foreground, bgra, Imgproc.COLOR_BGR2BGRA);
+                Core.insertChannel(foregroundMask, bgra, 3);
+                yield bgra;
+            }
+            case MASK -> foregroundMask;
+        };
+
+        MatOfByte matOfByte = arena.track(new MatOfByte());
+        Imgcodecs.imencode(format.type().extension(), image, matOfByte, arena.track(format.encoderParameters()));
+        return matOfByte.toArray();
+    }
+
+    private BackgroundRemovalResult store(byte[] encoded, OutputFormat format, int grabCutIterations, String sessionToken) {
+        // Encoded once; the same bytes are stored and returned
+        String resultId = processedImageStore.save(encoded, format.type().extension());
+        return new BackgroundRemovalResult(encoded, format.type().mediaType(), resultId, grabCutIterations, sessionToken);
+    }
+
+    private void addLayer(Mat source, Mat layerMask, Mat foreground, Mat foregroundMask) {
+        source.copyTo(foreground, layerMask);
+        Core.bitwise_or(foregroundMask, layerMask, foregroundMask);
+    }
+
+    private Rect expandFaceRegion(Rect faceRect, Size imageSize, double verticalExpansion, double horizontalExpansion) {
+        // Expand both horizontally and vertically
+        int newWidth = (int) (faceRect.width * horizontalExpansion);
+        int newX = Math.max(0, faceRect.x - (newWidth - faceRect.width) / 2) + 5;
+        newWidth = Math.min(newWidth, (int) (imageSize.width - newX)) - 10;
+
+        int newHeight = (int) (faceRect.height * verticalExpansion);
+        int newY = Math.max(0, faceRect.y + faceRect.height / 2 - newHeight / 2) + 5;
+        newHeight = Math.min(newHeight, (int) (imageSize.height - newY)) - 10;
+
+        return new Rect(newX, newY, newWidth, newHeight);
+    }
+
+    private Rect clothesRegion(Rect faceRect, Size imageSize) {
+        // Expand both horizontally and vertically
+        double horizontalExpansion = 2.7;
+
+        int newWidth = (int) (faceRect.width * horizontalExpansion);
+        int newX = Math.max(0, faceRect.x - (newWidth - faceRect.width) / 2);
+        newWidth = Math.min(newWidth, (int) (imageSize.width - newX));
+        newWidth = Math.max(newWidth, 0);
+    
+        int newY = faceRect.y + faceRect.height - 10;
+        int newHeight = (int) (imageSize.height - newY);
+        newHeight = Math.max(newHeight, 0);
+
+        return new Rect(newX, newY, newWidth, newHeight);
+    }
+
+    private Scalar parseColor(String colorString) {
+        if (colorString.startsWith("#")) {
+            // Handle hex color code
+            String hex = colorString.substring(1); // Remove the #
+            int r = Integer.parseInt(hex.substring(0, 2), 16);
+            int g = Integer.parseInt(hex.substring(2, 4), 16);
+            int b = Integer.parseInt(hex.substring(4, 6), 16);
+            return new Scalar(b, g, r); // OpenCV uses BGR order
+        } else {
+            // Handle comma-separated format
+            String[] rgb = colorString.split(",");
+            return new Scalar(Double.parseDouble(rgb[2]), Double.parseDouble(rgb[1]), Double.parseDouble(rgb[0]));
+        }
+    }
+
+    private void pasteShiftedDown(Mat image, Mat mask, Mat target, int shiftY) {
+        // Moving the clothes down by whole rows is a plain copy between row ranges
+        int rows = image.rows() - shiftY;
+        if (rows <= 0) {
+            return;
+        }
+        image.rowRange(0, rows).copyTo(target.rowRange(shiftY, shiftY + rows), mask.rowRange(0, rows));
+    }
+
+    private Mat resizeImage(MatArena arena, Mat image, int width, int height) {
+        Mat resizedImage = arena.allocate(height, width, image.type());
+        Imgproc.resize(image, resizedImage, new Size(width, height), 0, 0, Imgproc.INTER_CUBIC);
+        return resizedImage;
+    }
+
+    private int findLargestGap(MaskProfile faceProfile, MaskProfile clothesProfile) {
+        int largestGap = 0;
+
+        for (int x = 0; x < faceProfile.width(); x++) {
+            int highest = clothesProfile.topmost(x);
+            int lowest = faceProfile.bottommost(x);
+
+            if (highest == MaskProfile.NONE) {
+                highest = Integer.MAX_VALUE;
+            }
+            if (highest == 0 || lowest == 0) {
+                continue;
+            }
+
+            int gap = lowest - highest;
+            if (gap > largestGap) {
+                largestGap = gap;
+            }
+        }
+
+        return largestGap;
+    }
+}
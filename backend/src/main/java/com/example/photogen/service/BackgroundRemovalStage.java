@@ -0,0 +1,12 @@
+package com.example.photogen.service;
+
+/**
+ * Stages of a background removal, in the order they run.
+ */
+public enum BackgroundRemovalStage {
+    DECODE,
+    DETECT,
+    SEGMENT,
+    COMPOSITE,
+    ENCODE
+}
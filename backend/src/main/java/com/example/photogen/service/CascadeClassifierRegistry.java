@@ -0,0 +1,208 @@
+package com.example.photogen.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.opencv.core.Core;
+import org.opencv.objdetect.CascadeClassifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Loads every Haar cascade once and hands out classifier instances to request threads.
+ *
+ * OpenCV classifiers are not safe to share between threads, so each borrower gets exclusive
+ * use of an instance until it closes its {@link Lease}. Idle instances are kept for reuse, so
+ * the XML is only parsed again when concurrency grows past what the pool already holds. Every
+ * parse is timed under {@code photogen.cascade.loads}.
+ *
+ * Cascades read from the classpath of a packaged jar are extracted to a temporary file once,
+ * and every later pool, including those of a reload, loads from that file.
+ */
+@Component
+public class CascadeClassifierRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CascadeClassifierRegistry.class);
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public enum Cascade {
+        FRONTAL_FACE_ALT("haarcascade_frontalface_alt.xml"),
+        FRONTAL_FACE_DEFAULT("haarcascade_frontalface_default.xml"),
+        EYE_TREE_EYEGLASSES("haarcascade_eye_tree_eyeglasses.xml"),
+        MCS_NOSE("haarcascade_mcs_nose.xml");
+
+        private final String fileName;
+
+        Cascade(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+    }
+
+    private final String directory;
+    private final int maxIdle;
+    private final MeterRegistry meterRegistry;
+    private final Map<Cascade, AtomicReference<Pool>> pools = new EnumMap<>(Cascade.class);
+    // Guarded by this; the jar can't change while the application runs
+    private final Map<Cascade, Path> extracted = new EnumMap<>(Cascade.class);
+
+    public CascadeClassifierRegistry(
+            @Value("${photogen.cascades.directory:}") String directory,
+            @Value("${photogen.cascades.max-idle:0}") int maxIdle,
+            MeterRegistry meterRegistry) {
+        this.directory = directory;
+        this.maxIdle = maxIdle > 0 ? maxIdle : Runtime.getRuntime().availableProcessors();
+        this.meterRegistry = meterRegistry;
+
+        for (Cascade cascade : Cascade.values()) {
+            pools.put(cascade, new AtomicReference<>(createPool(cascade, 1)));
+        }
+    }
+
+    /**
+     * Borrows a classifier for exclusive use by the calling thread. Close the lease to give it back.
+     */
+    public Lease borrow(Cascade cascade) {
+        Pool pool = pools.get(cascade).get();
+        CascadeClassifier classifier = pool.idle.pollFirst();
+        if (classifier == null) {
+            classifier = pool.newClassifier();
+        }
+        return new Lease(pool, classifier);
+    }
+
+    /**
+     * Reloads every cascade from its source. Leases already handed out keep working on the old
+     * instances, which are dropped instead of returned to the pool once they are closed.
+     */
+    public synchronized void reload() {
+        Map<Cascade, Pool> reloaded = new EnumMap<>(Cascade.class);
+        for (Cascade cascade : Cascade.values()) {
+            reloaded.put(cascade, createPool(cascade, pools.get(cascade).get().generation + 1));
+        }
+        reloaded.forEach((cascade, pool) -> pools.get(cascade).set(pool));
+        logger.info("Reloaded {} cascade classifiers", reloaded.size());
+    }
+
+    public int getGeneration(Cascade cascade) {
+        return pools.get(cascade).get().generation;
+    }
+
+    private synchronized Pool createPool(Cascade cascade, int generation) {
+        String path = resolvePath(cascade);
+        Pool pool = new Pool(cascade, path, generation);
+
+        // Load one instance eagerly so a broken cascade fails at startup rather than on the first request
+        pool.idle.offerFirst(pool.newClassifier());
+        return pool;
+    }
+
+    private String resolvePath(Cascade cascade) {
+        Resource resource = directory.isBlank()
+            ? new ClassPathResource("/" + cascade.getFileName())
+            : new FileSystemResource(Path.of(directory, cascade.getFileName()));
+
+        try {
+            if (resource.isFile()) {
+                return resource.getFile().getAbsolutePath();
+            }
+
+            // Inside a packaged jar the XML is not a file, and OpenCV can only load from a path
+            Path file = extracted.get(cascade);
+            if (file == null || !Files.isRegularFile(file)) {
+                file = Files.createTempFile("photogen-" + cascade.name().toLowerCase(Locale.ROOT) + "-", ".xml");
+                file.toFile().deleteOnExit();
+                try (InputStream in = resource.getInputStream()) {
+                    Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                extracted.put(cascade, file);
+            }
+            return file.toAbsolutePath().toString();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read cascade " + cascade.getFileName(), e);
+        }
+    }
+
+    private final class Pool {
+        private final Cascade cascade;
+        private final String path;
+        private final int generation;
+        private final Timer loads;
+        private final ConcurrentLinkedDeque<CascadeClassifier> idle = new ConcurrentLinkedDeque<>();
+
+        private Pool(Cascade cascade, String path, int generation) {
+            this.cascade = cascade;
+            this.path = path;
+            this.generation = generation;
+            this.loads = Timer.builder("photogen.cascade.loads")
+                .tag("cascade", cascade.name().toLowerCase(Locale.ROOT))
+                .register(meterRegistry);
+        }
+
+        private CascadeClassifier newClassifier() {
+            return loads.record(() -> {
+                CascadeClassifier classifier = new CascadeClassifier();
+                if (!new File(path).isFile() || !classifier.load(path) || classifier.empty()) {
+                    throw new IllegalStateException("Error loading cascade classifier " + cascade.getFileName());
+                }
+                return classifier;
+            });
+        }
+
+        private void release(CascadeClassifier classifier) {
+            // Instances from a pool that has since been reloaded are simply dropped
+            if (pools.get(cascade).get() != this || idle.size() >= maxIdle) {
+                return;
+            }
+            idle.offerFirst(classifier);
+        }
+    }
+
+    public final class Lease implements AutoCloseable {
+        private final Pool pool;
+        private CascadeClassifier classifier;
+
+        private Lease(Pool pool, CascadeClassifier classifier) {
+            this.pool = pool;
+            this.classifier = classifier;
+        }
+
+        public CascadeClassifier classifier() {
+            if (classifier == null) {
+                throw new IllegalStateException("Lease already closed");
+            }
+            return classifier;
+        }
+
+        @Override
+        public void close() {
+            if (classifier != null) {
+                pool.release(classifier);
+                classifier = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.photogen.service;
+
+import org.opencv.core.Mat;
+
+/**
+ * A clothing template rendered for one output size: the clothes image, its foreground mask and
+ * the mask's occupancy profile. Instances are shared through the template cache, so callers must
+ * not modify either Mat, and must close the template once done with it.
+ *
+ * The cache and every caller each hold a reference, and the Mats are released with the last
+ * one, so a rendering evicted while a request is still pasting it stays valid until that request
+ * closes it.
+ */
+public final class ClothingTemplate implements AutoCloseable {
+
+    private final Mat image;
+    private final Mat foregroundMask;
+    private final MaskProfile foregroundProfile;
+    private int references = 1;
+    private boolean released;
+
+    ClothingTemplate(Mat image, Mat foregroundMask, MaskProfile foregroundProfile) {
+        this.image = image;
+        this.foregroundMask = foregroundMask;
+        this.foregroundProfile = foregroundProfile;
+    }
+
+    public Mat image() {
+        return image;
+    }
+
+    public Mat foregroundMask() {
+        return foregroundMask;
+    }
+
+    public MaskProfile foregroundProfile() {
+        return foregroundProfile;
+    }
+
+    /** Adds a reference for another holder, unless the Mats have been released already. */
+    synchronized boolean retain() {
+        if (released) {
+            return false;
+        }
+        references++;
+        return true;
+    }
+
+    long bytes() {
+        return MatArenas.bytes(image) + MatArenas.bytes(foregroundMask);
+    }
+
+    /** Drops the caller's reference, and releases the Mats with the last one. */
+    @Override
+    public synchronized void close() {
+        if (released || --references > 0) {
+            return;
+        }
+        released = true;
+        image.release();
+        foregroundMask.release();
+    }
+}
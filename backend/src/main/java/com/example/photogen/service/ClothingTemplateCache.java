@@ -0,0 +1,147 @@
+package com.example.photogen.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import com.example.photogen.config.ClothingTemplateProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+/**
+ * Loads the clothing templates once at startup, segments each one, and keeps the renderings for
+ * each output size in a cache bounded by their native size. None of this depends on the user's
+ * photo, so the formal clothes path only has to segment the user. An evicted rendering is
+ * released once the requests still using it have closed it.
+ *
+ * Every image matching {@code photogen.clothing.location} becomes a template named after its
+ * file, so templates can be added by dropping in a new image.
+ */
+@Component
+public class ClothingTemplateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClothingTemplateCache.class);
+
+    private record SourceTemplate(Mat image, Mat foregroundMask) {
+    }
+
+    private record RenderKey(String template, int width, int height) {
+    }
+
+    private final ClothingTemplateProperties properties;
+    private final MatArenas matArenas;
+    private final Map<String, SourceTemplate> templates = new TreeMap<>();
+    private final Cache<RenderKey, ClothingTemplate> renderings;
+
+    public ClothingTemplateCache(ClothingTemplateProperties properties, GrabCutSegmenter grabCutSegmenter,
+            ResourcePatternResolver resourcePatternResolver, MatArenas matArenas) throws IOException {
+        this.properties = properties;
+        this.matArenas = matArenas;
+        this.renderings = Caffeine.newBuilder()
+            .maximumWeight(properties.maxSize().toBytes())
+            .weigher((RenderKey key, ClothingTemplate rendering) -> (int) Math.min(Integer.MAX_VALUE, rendering.bytes()))
+            .removalListener((RenderKey key, ClothingTemplate rendering, RemovalCause cause) -> {
+                if (rendering != null) {
+                    rendering.close();
+                }
+            })
+            .build();
+
+        for (Resource resource : resourcePatternResolver.getResources(properties.location())) {
+            String fileName = resource.getFilename();
+            if (fileName == null) {
+                continue;
+            }
+
+            Mat image = readImage(resource);
+            if (image.empty()) {
+                logger.warn("Skipping clothing template {}: not a readable image", fileName);
+                continue;
+            }
+
+            // The clothes sit in the bottom half of every template
+            Rect clothesRect = new Rect(0, image.height() / 2, image.width(), image.height() / 2);
+            Mat foregroundMask = grabCutSegmenter.segment(image, clothesRect).foregroundMask();
+
+            String name = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+            templates.put(name, new SourceTemplate(image, foregroundMask));
+        }
+
+        logger.info("Loaded clothing templates {}", templates.keySet());
+    }
+
+    public Set<String> getTemplateNames() {
+        return templates.keySet();
+    }
+
+    /**
+     * Returns the named template (or the default one when {@code name} is null) rendered at the
+     * given size, or null if there is no such template. Close the template once done with it.
+     */
+    public ClothingTemplate get(String name, Size outputSize) {
+        String template = name != null ? name : properties.defaultTemplate();
+        if (!templates.containsKey(template)) {
+            return null;
+        }
+
+        RenderKey key = new RenderKey(template, (int) outputSize.width, (int) outputSize.height);
+        while (true) {
+            ClothingTemplate rendering = renderings.get(key, k -> render(templates.get(template), outputSize));
+            if (rendering.retain()) {
+                return rendering;
+            }
+            // Evicted and released since the lookup, so the next one renders it again
+        }
+    }
+
+    private ClothingTemplate render(SourceTemplate template, Size outputSize) {
+        // Only the final crops are kept by the cache; the intermediate sizes are released here
+        try (MatArena scratch = matArenas.open()) {
+            Mat resizedImage = scratch.mat();
+            Mat resizedMask = scratch.mat();
+            Imgproc.resize(template.image(), resizedImage, outputSize, 0, 0, Imgproc.INTER_CUBIC);
+            Imgproc.resize(template.foregroundMask(), resizedMask, outputSize, 0, 0, Imgproc.INTER_NEAREST);
+
+            return stretchAndCropHorizontally(scratch, resizedImage, resizedMask, properties.horizontalStretch());
+        }
+    }
+
+    private ClothingTemplate stretchAndCropHorizontally(MatArena scratch, Mat image, Mat mask, double horizontalScale) {
+        int newWidth = (int) (image.cols() * horizontalScale);
+        Size newSize = new Size(newWidth, image.rows());
+
+        Mat resizedImage = scratch.mat();
+        Mat resizedMask = scratch.mat();
+        Imgproc.resize(image, resizedImage, newSize);
+        Imgproc.resize(mask, resizedMask, newSize);
+
+        int offsetX = (newWidth - image.cols()) / 2;
+
+        Rect cropRect = new Rect(offsetX, 0, image.cols(), image.rows());
+        Mat croppedImage = scratch.track(resizedImage.submat(cropRect)).clone();
+        Mat croppedMask = scratch.track(resizedMask.submat(cropRect)).clone();
+
+        return new ClothingTemplate(croppedImage, croppedMask, MaskProfile.of(croppedMask, 255));
+    }
+
+    private Mat readImage(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            return Imgcodecs.imdecode(new MatOfByte(in.readAllBytes()), Imgcodecs.IMREAD_COLOR);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.photogen.service;
+
+/**
+ * Pixel statistics behind the compliance checks. The background is everything outside the
+ * largest face; exposure is measured on the face, or on the whole image when there is none.
+ *
+ * @param backgroundNonWhiteFraction fraction of background pixels with a channel below the white threshold, 1 when there is no background
+ * @param backgroundDeviation        largest per-channel standard deviation of the background in the side margins beside the head
+ * @param meanLuminance              mean luminance of the exposure region (the middle of the face), 0 to 255
+ * @param shadowFraction             fraction of the exposure region at or below the shadow threshold
+ * @param highlightFraction          fraction of the exposure region at or above the highlight threshold
+ */
+public record ComplianceMetrics(
+        double backgroundNonWhiteFraction,
+        double backgroundDeviation,
+        double meanLuminance,
+        double shadowFraction,
+        double highlightFraction) {
+}
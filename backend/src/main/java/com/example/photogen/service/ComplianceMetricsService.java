@@ -0,0 +1,163 @@
+package com.example.photogen.service;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.stereotype.Service;
+
+import com.example.photogen.config.ComplianceProperties;
+
+/**
+ * Computes {@link ComplianceMetrics} with whole-image OpenCV operations instead of a per-pixel
+ * loop in Java: a face-exclusion mask restricts {@code inRange} and {@code countNonZero} to the
+ * background, {@code meanStdDev} measures the margins beside the head, and a luminance histogram
+ * of the face gives the exposure.
+ *
+ * The intermediate Mats are pooled and reused, so a check on an image of a size seen before
+ * allocates no pixel buffers beyond its result. The submatrix headers of each check are released
+ * with an arena when it returns.
+ *
+ * A photo whose face covers it entirely has no background to measure, and counts as having no
+ * white background at all.
+ */
+@Service
+public class ComplianceMetricsService {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    private static final MatOfInt CHANNELS = new MatOfInt(0);
+    private static final MatOfInt HIST_SIZE = new MatOfInt(256);
+    private static final MatOfFloat RANGES = new MatOfFloat(0f, 256f);
+    private static final Scalar WHITE_UPPER = new Scalar(255, 255, 255);
+    private static final Scalar ZERO = Scalar.all(0);
+    private static final Scalar FULL = Scalar.all(255);
+    private static final Mat NO_MASK = new Mat();
+    private static final double MARGIN_FRACTION = 0.1;
+    private static final double FACE_INSET_FRACTION = 0.2;
+
+    private static final class Scratch {
+        final Mat backgroundMask = new Mat();
+        final Mat marginMask = new Mat();
+        final Mat white = new Mat();
+        final Mat gray = new Mat();
+        final Mat histogram = new Mat();
+        final MatOfDouble mean = new MatOfDouble();
+        final MatOfDouble stdDev = new MatOfDouble();
+        final float[] bins = new float[256];
+    }
+
+    private final ComplianceProperties properties;
+    private final MatArenas matArenas;
+    private final Scalar whiteLower;
+    private final ConcurrentLinkedQueue<Scratch> scratchPool = new ConcurrentLinkedQueue<>();
+
+    public ComplianceMetricsService(ComplianceProperties properties, MatArenas matArenas) {
+        this.properties = properties;
+        this.matArenas = matArenas;
+        this.whiteLower = Scalar.all(properties.whiteThreshold());
+    }
+
+    public ComplianceMetrics measure(Mat image, FaceAnalysis analysis) {
+        Scratch scratch = scratchPool.poll();
+        if (scratch == null) {
+            scratch = new Scratch();
+        }
+        try (MatArena arena = matArenas.open()) {
+            return measure(arena, image, analysis.hasFace() ? clip(analysis.largestFace(), image) : null, scratch);
+        } finally {
+            scratchPool.offer(scratch);
+        }
+    }
+
+    private ComplianceMetrics measure(MatArena arena, Mat image, Rect face, Scratch scratch) {
+        // Background: everything but the face
+        scratch.backgroundMask.create(image.rows(), image.cols(), CvType.CV_8UC1);
+        scratch.backgroundMask.setTo(FULL);
+        if (face != null) {
+            arena.track(scratch.backgroundMask.submat(face)).setTo(ZERO);
+        }
+        int backgroundPixels = Core.countNonZero(scratch.backgroundMask);
+
+        // No background means no white background either, rather than a perfectly white one
+        double nonWhiteFraction = 1;
+        double deviation = 0;
+        if (backgroundPixels > 0) {
+            // inRange marks pixels whose every channel is white enough; keep only those in the background
+            Core.inRange(image, whiteLower, WHITE_UPPER, scratch.white);
+            Core.bitwise_and(scratch.white, scratch.backgroundMask, scratch.white);
+            nonWhiteFraction = 1.0 - (double) Core.countNonZero(scratch.white) / backgroundPixels;
+        }
+
+        // Uniformity is sampled from the side margins beside the head, where neither hair nor
+        // shoulders usually reach
+        int marginWidth = (int) (image.cols() * MARGIN_FRACTION);
+        int marginHeight = face != null ? face.y + face.height : image.rows() / 2;
+        if (marginWidth > 0 && marginHeight > 0) {
+            scratch.marginMask.create(image.rows(), image.cols(), CvType.CV_8UC1);
+            scratch.marginMask.setTo(ZERO);
+            arena.track(scratch.marginMask.submat(0, marginHeight, 0, marginWidth)).setTo(FULL);
+            arena.track(scratch.marginMask.submat(0, marginHeight, image.cols() - marginWidth, image.cols())).setTo(FULL);
+            Core.bitwise_and(scratch.marginMask, scratch.backgroundMask, scratch.marginMask);
+
+            Core.meanStdDev(image, scratch.mean, scratch.stdDev, scratch.marginMask);
+            for (int channel = 0; channel < scratch.stdDev.rows(); channel++) {
+                deviation = Math.max(deviation, scratch.stdDev.get(channel, 0)[0]);
+            }
+        }
+
+        // Exposure: luminance histogram of the middle of the face, away from the hairline and the
+        // background in the corners of the detection, or of the whole image when there is no face
+        Mat exposureRegion = face != null ? arena.track(image.submat(inset(face))) : image;
+        Imgproc.cvtColor(exposureRegion, scratch.gray, Imgproc.COLOR_BGR2GRAY);
+        Imgproc.calcHist(List.of(scratch.gray), CHANNELS, NO_MASK, scratch.histogram, HIST_SIZE, RANGES);
+        scratch.histogram.get(0, 0, scratch.bins);
+
+        double total = 0;
+        double luminanceSum = 0;
+        double shadows = 0;
+        double highlights = 0;
+        for (int value = 0; value < scratch.bins.length; value++) {
+            double count = scratch.bins[value];
+            total += count;
+            luminanceSum += count * value;
+            if (value <= properties.shadowThreshold()) {
+                shadows += count;
+            }
+            if (value >= properties.highlightThreshold()) {
+                highlights += count;
+            }
+        }
+
+        return new ComplianceMetrics(
+            nonWhiteFraction,
+            deviation,
+            total > 0 ? luminanceSum / total : 0,
+            total > 0 ? shadows / total : 0,
+            total > 0 ? highlights / total : 0);
+    }
+
+    private Rect inset(Rect face) {
+        int dx = (int) (face.width * FACE_INSET_FRACTION);
+        int dy = (int) (face.height * FACE_INSET_FRACTION);
+        return new Rect(face.x + dx, face.y + dy, Math.max(1, face.width - 2 * dx), Math.max(1, face.height - 2 * dy));
+    }
+
+    private Rect clip(Rect rect, Mat image) {
+        int left = Math.max(0, rect.x);
+        int top = Math.max(0, rect.y);
+        int right = Math.min(image.cols(), rect.x + rect.width);
+        int bottom = Math.min(image.rows(), rect.y + rect.height);
+        return right > left && bottom > top ? new Rect(left, top, right - left, bottom - top) : null;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.photogen.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown when an image can't be admitted to the CPU-heavy stages because too many are already
+ * waiting, or because it waited too long.
+ */
+public class ComputeBusyException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public ComputeBusyException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /** How long the client should wait before trying again. */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.photogen.service;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opencv.core.Core;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import com.example.photogen.config.ComputeGateProperties;
+
+/**
+ * Admits CPU-heavy OpenCV work a few images at a time, so a burst of requests queues up instead
+ * of oversubscribing the cores and slowing every image down.
+ *
+ * Permits are handed out in arrival order. Requests wait for one in a bounded queue and are
+ * turned away with a {@link ComputeBusyException} when it is full or the wait runs past
+ * {@code photogen.compute.max-wait}; batch items and jobs, which are already queued, wait as long
+ * as it takes. Admitted work from a virtual thread runs on the compute pool, so native calls
+ * never pin a carrier. Work that is already admitted runs nested calls directly.
+ *
+ * Also applies {@code photogen.compute.opencv-threads}, which splits the cores between the
+ * images admitted together and OpenCV's threads inside each call.
+ */
+@Component
+public class ComputeGate {
+
+    private static final Logger logger = LoggerFactory.getLogger(ComputeGate.class);
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    private final int permitCount;
+    private final Semaphore permits;
+    private final int queueCapacity;
+    private final Duration maxWait;
+    private final Duration retryAfter;
+    private final ExecutorService computeExecutor;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final ThreadLocal<Boolean> admitted = new ThreadLocal<>();
+
+    public ComputeGate(ComputeGateProperties properties, @Qualifier("computeExecutor") ExecutorService computeExecutor) {
+        this.permitCount = properties.resolvedPermits();
+        this.permits = new Semaphore(permitCount, true);
+        this.queueCapacity = Math.max(0, properties.queueCapacity());
+        this.maxWait = properties.maxWait();
+        this.retryAfter = properties.retryAfter();
+        this.computeExecutor = computeExecutor;
+
+        if (properties.opencvThreads() >= 0) {
+            Core.setNumThreads(properties.opencvThreads());
+        }
+        logger.info("Admitting {} images at a time, with {} OpenCV threads", permitCount, Core.getNumThreads());
+    }
+
+    /**
+     * Runs {@code work} once a permit is free.
+     *
+     * @throws ComputeBusyException if the wait queue is full or no permit frees up within {@code max-wait}
+     */
+    public <T> T call(Callable<T> work) throws Exception {
+        if (Boolean.TRUE.equals(admitted.get())) {
+            return work.call();
+        }
+
+        if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+            if (waiting.incrementAndGet() > queueCapacity) {
+                waiting.decrementAndGet();
+                throw busy("Too many images waiting to be processed");
+            }
+            try {
+                if (!permits.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                    throw busy("Timed out waiting to process the image");
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+        return runAdmitted(work);
+    }
+
+    /**
+     * Runs {@code work} once a permit is free, however long that takes, for work that has already
+     * been through a queue of its own.
+     */
+    public <T> T callWhenFree(Callable<T> work) throws Exception {
+        if (Boolean.TRUE.equals(admitted.get())) {
+            return work.call();
+        }
+
+        waiting.incrementAndGet();
+        try {
+            permits.acquire();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        return runAdmitted(work);
+    }
+
+    /**
+     * Runs {@code work} on this thread if a permit is free right now and nobody is waiting for
+     * one, and tells whether it did. For work split off an admitted request, which the request's
+     * own thread runs under its permit otherwise, so splitting never runs more work at once than
+     * there are permits.
+     */
+    public boolean tryRunHere(Runnable work) {
+        try {
+            // Unlike tryAcquire(), the timed form doesn't barge ahead of queued requests
+            if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            work.run();
+            return true;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /** Permits currently held. */
+    public int getActive() {
+        return permitCount - permits.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private <T> T runAdmitted(Callable<T> work) throws Exception {
+        try {
+            if (!Thread.currentThread().isVirtual()) {
+                return runHere(work);
+            }
+
+            Future<T> future = computeExecutor.submit(() -> runHere(work));
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception exception) {
+                    throw exception;
+                }
+                throw (Error) e.getCause();
+            } catch (InterruptedException e) {
+                // Native code can't be interrupted, and the work uses buffers of the caller's arena,
+                // so the permit and the caller are held until the work has really finished
+                awaitUninterruptibly(future);
+                throw e;
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static void awaitUninterruptibly(Future<?> future) {
+        boolean interrupted = false;
+        while (!future.isDone()) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException | CancellationException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> T runHere(Callable<T> work) throws Exception {
+        admitted.set(Boolean.TRUE);
+        try {
+            return work.call();
+        } finally {
+            admitted.remove();
+        }
+    }
+
+    private ComputeBusyException busy(String message) {
+        rejected.increment();
+        return new ComputeBusyException(message, retryAfter);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.photogen.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.opencv.core.Mat;
+
+/**
+ * Hex SHA-256 digests of uploaded bytes, used wherever content identifies a file or a cache
+ * entry.
+ */
+public final class ContentHash {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private ContentHash() {
+    }
+
+    public static String of(byte[] bytes) {
+        MessageDigest digest = sha256();
+        digest.update(bytes);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Digests the still-encoded bytes of a single-row Mat, as returned by
+     * {@link ImageDecoder#read}, copying them out of native memory a chunk at a time.
+     */
+    public static String of(Mat encoded) {
+        MessageDigest digest = sha256();
+        int length = (int) (encoded.total() * encoded.elemSize());
+        byte[] chunk = new byte[Math.min(CHUNK_SIZE, length)];
+        for (int offset = 0; offset < length; offset += chunk.length) {
+            int read = Math.min(chunk.length, length - offset);
+            encoded.get(0, offset, chunk);
+            digest.update(chunk, 0, read);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Digests {@code parts} joined by NUL characters, for keys made of several values. */
+    public static String of(Object... parts) {
+        MessageDigest digest = sha256();
+        for (Object part : parts) {
+            digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
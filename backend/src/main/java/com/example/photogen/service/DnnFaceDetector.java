@@ -0,0 +1,168 @@
+package com.example.photogen.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.FaceDetectorYN;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+import com.example.photogen.config.FaceAnalysisProperties;
+
+/**
+ * Finds faces with OpenCV's YuNet network, which returns the face box together with its eye and
+ * nose landmarks, so no further cascades run. The network sees a copy bounded to
+ * {@code photogen.face-analysis.max-side} pixels. Each landmark becomes a small rectangle centred
+ * on it, scaled to the face, so callers that take the centre of the eye and nose rectangles work
+ * with both engines.
+ *
+ * Like the cascades, a detector instance is not safe to share between threads. Idle instances
+ * are kept for reuse, up to one per available processor.
+ */
+public class DnnFaceDetector implements FaceDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(DnnFaceDetector.class);
+
+    // Columns of one YuNet detection: the box, five landmarks as (x, y), then the score
+    private static final int COLUMNS = 15;
+    private static final int RIGHT_EYE = 4;
+    private static final int LEFT_EYE = 6;
+    private static final int NOSE_TIP = 8;
+
+    // Landmark rectangles as a fraction of the face width, about what the cascades return
+    private static final double EYE_FRACTION = 0.2;
+    private static final double NOSE_FRACTION = 0.25;
+
+    private final byte[] model;
+    private final FaceAnalysisProperties.Dnn settings;
+    private final MatArenas matArenas;
+    private final int maxSide;
+    private final double minFaceFraction;
+    private final double maxFaceFraction;
+    private final int maxIdle = Runtime.getRuntime().availableProcessors();
+    private final ConcurrentLinkedDeque<FaceDetectorYN> idle = new ConcurrentLinkedDeque<>();
+
+    public DnnFaceDetector(Resource model, MatArenas matArenas, FaceAnalysisProperties properties) {
+        if (!model.exists()) {
+            throw new IllegalStateException("Face detection model not found at " + properties.dnn().model()
+                + "; the build packages face_detection_yunet_2023mar.onnx at classpath:models/");
+        }
+        try (InputStream in = model.getInputStream()) {
+            this.model = in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read face detection model " + properties.dnn().model(), e);
+        }
+        this.settings = properties.dnn();
+        this.matArenas = matArenas;
+        this.maxSide = properties.maxSide();
+        this.minFaceFraction = properties.minFaceFraction();
+        this.maxFaceFraction = properties.maxFaceFraction();
+
+        // Load one instance eagerly so a broken model fails at startup rather than on the first request
+        idle.offerFirst(newDetector());
+        logger.info("Detecting faces with {} ({} bytes)", properties.dnn().model(), this.model.length);
+    }
+
+    @Override
+    public FaceAnalysis detect(Mat image) {
+        FaceDetectorYN detector = idle.pollFirst();
+        if (detector == null) {
+            detector = newDetector();
+        }
+
+        try (MatArena scratch = matArenas.open()) {
+            int longSide = Math.max(image.cols(), image.rows());
+            int shortSide = Math.min(image.cols(), image.rows());
+            double scale = maxSide > 0 && longSide > maxSide ? (double) maxSide / longSide : 1.0;
+
+            Mat detectionImage = image;
+            if (scale < 1.0) {
+                detectionImage = scratch.mat();
+                Imgproc.resize(image, detectionImage, new Size(), scale, scale, Imgproc.INTER_AREA);
+            }
+
+            Mat detections = scratch.mat();
+            detector.setInputSize(detectionImage.size());
+            detector.detect(detectionImage, detections);
+
+            double minFace = shortSide * minFaceFraction;
+            double maxFace = shortSide * maxFaceFraction;
+            List<Rect> faces = new ArrayList<>();
+            float[] largestRow = null;
+            Rect largestFace = null;
+            float[] row = new float[COLUMNS];
+            for (int i = 0; i < detections.rows(); i++) {
+                detections.get(i, 0, row);
+                Rect face = clamp(row[0] / scale, row[1] / scale, row[2] / scale, row[3] / scale, image);
+                // Same bounds the cascades search within, so both engines agree on what counts as a face
+                if (face == null || face.width < minFace || face.width > maxFace) {
+                    continue;
+                }
+                faces.add(face);
+                if (largestFace == null || face.area() > largestFace.area()) {
+                    largestFace = face;
+                    largestRow = row.clone();
+                }
+            }
+
+            if (largestFace == null) {
+                return FaceAnalysis.noFace();
+            }
+
+            List<Rect> eyes = new ArrayList<>();
+            for (int eye : new int[] {RIGHT_EYE, LEFT_EYE}) {
+                Rect rect = landmark(largestRow, eye, scale, largestFace.width * EYE_FRACTION, image);
+                if (rect != null) {
+                    eyes.add(rect);
+                }
+            }
+            Rect nose = landmark(largestRow, NOSE_TIP, scale, largestFace.width * NOSE_FRACTION, image);
+
+            return new FaceAnalysis(List.copyOf(faces), largestFace, List.copyOf(eyes), nose);
+        } finally {
+            if (idle.size() < maxIdle) {
+                idle.offerFirst(detector);
+            }
+        }
+    }
+
+    private FaceDetectorYN newDetector() {
+        MatOfByte buffer = new MatOfByte(model);
+        MatOfByte config = new MatOfByte();
+        try {
+            // The input size is set again for every image
+            return FaceDetectorYN.create("onnx", buffer, config, new Size(320, 320),
+                settings.scoreThreshold(), settings.nmsThreshold(), settings.topK());
+        } finally {
+            buffer.release();
+            config.release();
+        }
+    }
+
+    private static Rect landmark(float[] row, int column, double scale, double side, Mat image) {
+        double x = row[column] / scale;
+        double y = row[column + 1] / scale;
+        return clamp(x - side / 2, y - side / 2, side, side, image);
+    }
+
+    /** The box rounded to whole pixels and cut to the image, or null if nothing of it is left. */
+    private static Rect clamp(double x, double y, double width, double height, Mat image) {
+        int left = (int) Math.max(0, Math.round(x));
+        int top = (int) Math.max(0, Math.round(y));
+        int right = (int) Math.min(image.cols(), Math.round(x + width));
+        int bottom = (int) Math.min(image.rows(), Math.round(y + height));
+        if (right <= left || bottom <= top) {
+            return null;
+        }
+        return new Rect(left, top, right - left, bottom - top);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.photogen.service;
+
+import java.util.List;
+
+import org.opencv.core.Rect;
+
+/**
+ * Result of one face detection pass over an image. All rectangles are in the coordinates of the
+ * analysed image; eyes and nose are only searched for inside the largest face. Instances are
+ * shared through the analysis cache, so callers must treat the rectangles as read-only.
+ */
+public record FaceAnalysis(List<Rect> faces, Rect largestFace, List<Rect> eyes, Rect nose) {
+
+    public static FaceAnalysis noFace() {
+        return new FaceAnalysis(List.of(), null, List.of(), null);
+    }
+
+    public boolean hasFace() {
+        return largestFace != null;
+    }
+
+    public boolean hasNose() {
+        return nose != null;
+    }
+}
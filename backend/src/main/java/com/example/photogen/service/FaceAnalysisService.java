@@ -0,0 +1,92 @@
+package com.example.photogen.service;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.example.photogen.config.FaceAnalysisProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Runs face, eye and nose detection once per image and caches the result, keyed by a hash of
+ * the decoded pixels, so auto-crop, background removal and the compliance checks can all reuse
+ * the same pass. The detection itself is left to the {@link FaceDetector} engine the deployment
+ * selected.
+ */
+@Service
+public class FaceAnalysisService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FaceAnalysisService.class);
+
+    private final FaceDetector faceDetector;
+    private final Cache<String, FaceAnalysis> cache;
+    private final Counter facesFound;
+    private final Counter imagesWithFace;
+    private final Counter imagesWithoutFace;
+
+    public FaceAnalysisService(FaceDetector faceDetector, FaceAnalysisProperties properties, MeterRegistry meterRegistry) {
+        this.faceDetector = faceDetector;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(properties.cacheSize())
+            .recordStats()
+            .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "face-analysis");
+        this.facesFound = meterRegistry.counter("photogen.faces.found");
+        this.imagesWithFace = meterRegistry.counter("photogen.face.analyses", "outcome", "face");
+        this.imagesWithoutFace = meterRegistry.counter("photogen.face.analyses", "outcome", "no-face");
+    }
+
+    public FaceAnalysis analyze(Mat image) {
+        return cache.get(pixelHash(image), key -> detect(image));
+    }
+
+    /**
+     * Runs the detection without consulting or filling the cache.
+     */
+    public FaceAnalysis detect(Mat image) {
+        FaceAnalysis analysis = faceDetector.detect(image);
+        if (!analysis.hasFace()) {
+            logger.info("No faces detected");
+            imagesWithoutFace.increment();
+            return analysis;
+        }
+        imagesWithFace.increment();
+        facesFound.increment(analysis.faces().size());
+        return analysis;
+    }
+
+    /**
+     * SHA-256 of the size, type and pixels of {@code image}. The pixels are digested a row at a
+     * time through one row-sized buffer, so a large image is never copied whole onto the heap.
+     */
+    private String pixelHash(Mat image) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(12)
+                .putInt(image.rows())
+                .putInt(image.cols())
+                .putInt(image.type())
+                .array());
+            byte[] row = new byte[(int) (image.cols() * image.elemSize())];
+            for (int y = 0; y < image.rows(); y++) {
+                image.get(y, 0, row);
+                digest.update(row);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.photogen.service;
+
+/**
+ * Thrown when no face is found in a photo that needs one, so handlers can tell the client its
+ * photo is the problem rather than its request.
+ */
+public class FaceDetectionException extends IllegalArgumentException {
+
+    public FaceDetectionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.photogen.service;
+
+import org.opencv.core.Mat;
+
+/**
+ * One engine for finding faces. The deployment picks it with {@code photogen.face-analysis.engine}.
+ * {@link FaceAnalysisService} caches and counts its results.
+ *
+ * Implementations must be safe to call from several threads at once.
+ */
+public interface FaceDetector {
+
+    /**
+     * Finds the faces in a BGR image, plus the eyes and nose of the largest one, all in the
+     * image's coordinates.
+     */
+    FaceAnalysis detect(Mat image);
+}
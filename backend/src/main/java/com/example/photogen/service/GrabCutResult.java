@@ -0,0 +1,9 @@
+package com.example.photogen.service;
+
+import org.opencv.core.Mat;
+
+/**
+ * A 0/255 foreground mask the size of the segmented image, and the GrabCut iterations it took.
+ */
+public record GrabCutResult(Mat foregroundMask, int iterations) {
+}
@@ -0,0 +1,266 @@
+package com.example.photogen.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import com.example.photogen.config.GrabCutProperties;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Separates the foreground inside a rectangle from the rest of the image with GrabCut and
+ * returns a 0/255 mask the size of the image.
+ *
+ * Everything outside the rectangle starts as definite background, so GrabCut only needs to see a
+ * padded crop around it: the padding gives the background model enough nearby pixels to learn
+ * from, and the crop's mask is pasted back into an all-background mask afterwards.
+ *
+ * In coarse-to-fine mode the crop is first segmented at a bounded resolution. The upsampled
+ * result then seeds a short full resolution pass in which only a band around the boundary is
+ * left undecided. Every pass runs one iteration at a time and stops early once the mask settles.
+ */
+@Component
+public class GrabCutSegmenter {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    // Closing kernels grow by 2 px per pass from 5 px, so the padding must leave room for the largest
+    private static final int MORPHOLOGY_PASSES = 2;
+    private static final int MORPHOLOGY_KERNEL_SIZE = 5;
+    private static final int MIN_PADDING = MORPHOLOGY_KERNEL_SIZE + 2 * MORPHOLOGY_PASSES;
+
+    private final GrabCutProperties properties;
+    private final Executor segmentationExecutor;
+    private final ComputeGate computeGate;
+    private final MatArenas matArenas;
+    private final DistributionSummary segmentIterations;
+
+    // Maps GrabCut labels to 1 for GC_FGD and GC_PR_FGD and 0 for everything else
+    private final Mat foregroundLookup;
+
+    public GrabCutSegmenter(GrabCutProperties properties, @Qualifier("segmentationExecutor") Executor segmentationExecutor,
+            ComputeGate computeGate, MatArenas matArenas, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.segmentationExecutor = segmentationExecutor;
+        this.computeGate = computeGate;
+        this.matArenas = matArenas;
+        this.segmentIterations = DistributionSummary.builder("photogen.grabcut.iterations")
+            .description("GrabCut iterations run per segmented region, both passes together")
+            .register(meterRegistry);
+
+        this.foregroundLookup = new Mat(1, 256, CvType.CV_8UC1, new Scalar(0));
+        foregroundLookup.put(0, Imgproc.GC_FGD, 1);
+        foregroundLookup.put(0, Imgproc.GC_PR_FGD, 1);
+    }
+
+    /**
+     * Segments {@code rect} of {@code image}. The returned mask belongs to the caller; every
+     * intermediate buffer is released before this returns.
+     */
+    public GrabCutResult segment(Mat image, Rect rect) {
+        try (MatArena scratch = matArenas.open()) {
+            Rect roi = properties.roiEnabled() ? paddedRegion(rect, image.size()) : new Rect(0, 0, image.cols(), image.rows());
+            Rect localRect = new Rect(rect.x - roi.x, rect.y - roi.y, rect.width, rect.height);
+            Mat roiImage = scratch.track(image.submat(roi));
+
+            Mat mask = scratch.allocate(roiImage.size(), CvType.CV_8UC1, new Scalar(Imgproc.GC_BGD));
+            Imgproc.rectangle(mask, localRect.tl(), localRect.br(), new Scalar(Imgproc.GC_PR_FGD), -1);
+
+            double coarseScale = (double) properties.coarseMaxSide() / Math.max(roi.width, roi.height);
+            int iterations = properties.coarseToFine() && coarseScale < 1.0
+                ? segmentCoarseToFine(scratch, roiImage, mask, coarseScale)
+                : iterate(scratch, roiImage, mask, properties.maxIterations());
+            segmentIterations.record(iterations);
+
+            if (roi.width == image.cols() && roi.height == image.rows()) {
+                Mat foregroundMask = new Mat();
+                foregroundMask(scratch, mask, foregroundMask);
+                return new GrabCutResult(foregroundMask, iterations);
+            }
+
+            Mat roiMask = scratch.allocateMask(mask);
+            foregroundMask(scratch, mask, roiMask);
+
+            Mat foregroundMask = new Mat(image.size(), CvType.CV_8UC1, new Scalar(0));
+            roiMask.copyTo(scratch.track(foregroundMask.submat(roi)));
+            return new GrabCutResult(foregroundMask, iterations);
+        }
+    }
+
+    /**
+     * Like {@link #segment(Mat, Rect)}, with the mask owned by {@code arena}.
+     */
+    public GrabCutResult segment(MatArena arena, Mat image, Rect rect) {
+        GrabCutResult result = segment(image, rect);
+        arena.track(result.foregroundMask());
+        return result;
+    }
+
+    /**
+     * Segments several independent rectangles of the same image in parallel, returning the
+     * results in the order of the rectangles. The calling thread takes the first rectangle and
+     * any the segmentation pool hasn't started by the time it's done. A pool thread only starts a
+     * rectangle while it holds a compute permit of its own, so the split never runs more GrabCuts
+     * at once than the gate admits. The masks are owned by {@code arena}.
+     */
+    public List<GrabCutResult> segmentAll(MatArena arena, Mat image, List<Rect> rects) {
+        if (rects.isEmpty()) {
+            return List.of();
+        }
+
+        List<FutureTask<GrabCutResult>> tasks = new ArrayList<>();
+        for (Rect rect : rects.subList(1, rects.size())) {
+            FutureTask<GrabCutResult> task = new FutureTask<>(() -> segment(arena, image, rect));
+            try {
+                // Without a free permit the pool thread leaves the task to this thread
+                segmentationExecutor.execute(() -> computeGate.tryRunHere(task));
+            } catch (RejectedExecutionException e) {
+                // Pool is saturated; the task is run on this thread below
+            }
+            tasks.add(task);
+        }
+
+        List<GrabCutResult> results = new ArrayList<>();
+        results.add(segment(arena, image, rects.get(0)));
+
+        for (FutureTask<GrabCutResult> task : tasks) {
+            // A no-op if a pool thread has already picked the task up
+            task.run();
+            results.add(join(task));
+        }
+
+        return results;
+    }
+
+    private GrabCutResult join(FutureTask<GrabCutResult> task) {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Segmentation failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for segmentation", e);
+        }
+    }
+
+    private Rect paddedRegion(Rect rect, Size imageSize) {
+        int padX = Math.max(MIN_PADDING, (int) (rect.width * properties.roiPadding()));
+        int padY = Math.max(MIN_PADDING, (int) (rect.height * properties.roiPadding()));
+
+        int left = Math.max(0, rect.x - padX);
+        int top = Math.max(0, rect.y - padY);
+        int right = Math.min((int) imageSize.width, rect.x + rect.width + padX);
+        int bottom = Math.min((int) imageSize.height, rect.y + rect.height + padY);
+
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    private int segmentCoarseToFine(MatArena scratch, Mat image, Mat mask, double scale) {
+        Mat coarseImage = scratch.mat();
+        Imgproc.resize(image, coarseImage, new Size(), scale, scale, Imgproc.INTER_AREA);
+        Mat coarseMask = scratch.allocateMask(coarseImage);
+        Imgproc.resize(mask, coarseMask, coarseImage.size(), 0, 0, Imgproc.INTER_NEAREST);
+
+        int coarseIterations = iterate(scratch, coarseImage, coarseMask, properties.maxIterations());
+
+        // Upsample the coarse foreground and smooth its staircase edge back to a threshold
+        Mat coarseForeground = foregroundBit(scratch, coarseMask);
+        Mat foreground = scratch.allocateMask(image);
+        Imgproc.resize(coarseForeground, foreground, image.size(), 0, 0, Imgproc.INTER_LINEAR);
+        Imgproc.threshold(foreground, foreground, 0.5, 1, Imgproc.THRESH_BINARY);
+
+        if (Core.countNonZero(foreground) == 0) {
+            mask.setTo(new Scalar(Imgproc.GC_BGD));
+            return coarseIterations;
+        }
+
+        // Only pixels within a coarse pixel or so of the boundary are left for the full resolution pass
+        int bandSize = 2 * (int) Math.ceil(1.0 / scale) + 1;
+        Mat kernel = scratch.track(Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(bandSize, bandSize)));
+        Mat dilated = scratch.allocateMask(image);
+        Mat eroded = scratch.allocateMask(image);
+        Imgproc.dilate(foreground, dilated, kernel);
+        Imgproc.erode(foreground, eroded, kernel);
+        Mat band = scratch.allocateMask(image);
+        Core.subtract(dilated, eroded, band);
+
+        Mat definiteBackground = scratch.allocateMask(image);
+        Core.compare(mask, new Scalar(Imgproc.GC_BGD), definiteBackground, Core.CMP_EQ);
+
+        // GC_FGD is 1 and GC_BGD is 0, so the binary foreground is already the definite labels;
+        // adding 2 inside the band turns them into GC_PR_FGD and GC_PR_BGD
+        foreground.copyTo(mask);
+        Core.add(mask, new Scalar(2), mask, band);
+        mask.setTo(new Scalar(Imgproc.GC_BGD), definiteBackground);
+
+        return coarseIterations + iterate(scratch, image, mask, properties.refineIterations());
+    }
+
+    private int iterate(MatArena scratch, Mat image, Mat mask, int budget) {
+        Mat bgdModel = scratch.mat();
+        Mat fgdModel = scratch.mat();
+
+        // Only the undecided pixels (GC_PR_BGD, GC_PR_FGD) can change
+        Mat undecided = scratch.allocateMask(mask);
+        Core.compare(mask, new Scalar(Imgproc.GC_PR_BGD), undecided, Core.CMP_GE);
+        double maxChanged = Core.countNonZero(undecided) * properties.tolerance();
+
+        // Two foreground buffers, swapped every iteration instead of allocating a new one
+        Mat previous = foregroundBit(scratch, mask);
+        Mat current = scratch.allocateMask(mask);
+        Mat changed = undecided;
+        int mode = Imgproc.GC_INIT_WITH_MASK;
+
+        for (int i = 1; i <= budget; i++) {
+            Imgproc.grabCut(image, mask, new Rect(), bgdModel, fgdModel, 1, mode);
+            mode = Imgproc.GC_EVAL;
+
+            Core.LUT(mask, foregroundLookup, current);
+            Core.compare(previous, current, changed, Core.CMP_NE);
+            if (Core.countNonZero(changed) <= maxChanged) {
+                return i;
+            }
+            Mat swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        return budget;
+    }
+
+    private Mat foregroundBit(MatArena scratch, Mat mask) {
+        Mat foreground = scratch.allocateMask(mask);
+        Core.LUT(mask, foregroundLookup, foreground);
+        return foreground;
+    }
+
+    private void foregroundMask(MatArena scratch, Mat mask, Mat foregroundMask) {
+        Core.compare(foregroundBit(scratch, mask), new Scalar(1), foregroundMask, Core.CMP_EQ);
+
+        for (int i = 0; i < MORPHOLOGY_PASSES; i++) {
+            int size = MORPHOLOGY_KERNEL_SIZE + i * 2;
+            Mat kernel = scratch.track(Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(size, size)));
+            Imgproc.morphologyEx(foregroundMask, foregroundMask, Imgproc.MORPH_CLOSE, kernel);
+        }
+    }
+}
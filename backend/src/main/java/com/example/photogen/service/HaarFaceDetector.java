@@ -0,0 +1,155 @@
+package com.example.photogen.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import com.example.photogen.config.FaceAnalysisProperties;
+import com.example.photogen.service.CascadeClassifierRegistry.Cascade;
+
+/**
+ * Finds faces with Haar cascades: the face cascade runs on a copy bounded to
+ * {@code photogen.face-analysis.max-side} pixels and only searches the face sizes a passport
+ * framing allows. The rectangles are then mapped back to full resolution, where the eye and nose
+ * cascades run on the face region alone.
+ */
+public class HaarFaceDetector implements FaceDetector {
+
+    // The frontal face cascades are trained on a 20x20 window, so nothing smaller can be found
+    private static final int MIN_DETECTABLE_FACE = 20;
+
+    private final CascadeClassifierRegistry cascadeClassifierRegistry;
+    private final MatArenas matArenas;
+    private final int maxSide;
+    private final double minFaceFraction;
+    private final double maxFaceFraction;
+
+    public HaarFaceDetector(CascadeClassifierRegistry cascadeClassifierRegistry, MatArenas matArenas,
+            FaceAnalysisProperties properties) {
+        this.cascadeClassifierRegistry = cascadeClassifierRegistry;
+        this.matArenas = matArenas;
+        this.maxSide = properties.maxSide();
+        this.minFaceFraction = properties.minFaceFraction();
+        this.maxFaceFraction = properties.maxFaceFraction();
+    }
+
+    @Override
+    public FaceAnalysis detect(Mat image) {
+        try (MatArena scratch = matArenas.open();
+             CascadeClassifierRegistry.Lease faceCascade = cascadeClassifierRegistry.borrow(Cascade.FRONTAL_FACE_ALT);
+             CascadeClassifierRegistry.Lease eyesCascade = cascadeClassifierRegistry.borrow(Cascade.EYE_TREE_EYEGLASSES);
+             CascadeClassifierRegistry.Lease noseCascade = cascadeClassifierRegistry.borrow(Cascade.MCS_NOSE)) {
+
+            Mat frameGray = scratch.allocateMask(image);
+            Imgproc.cvtColor(image, frameGray, Imgproc.COLOR_BGR2GRAY);
+            Imgproc.equalizeHist(frameGray, frameGray);
+
+            List<Rect> listOfFaces = detectFaces(scratch, faceCascade.classifier(), frameGray);
+            if (listOfFaces.isEmpty()) {
+                return FaceAnalysis.noFace();
+            }
+
+            // Find the largest face
+            Rect largestFace = listOfFaces.get(0);
+            for (Rect face : listOfFaces) {
+                if (face.area() > largestFace.area()) {
+                    largestFace = face;
+                }
+            }
+
+            // For the largest face, detect eyes on the full resolution face region only
+            Mat faceROI = scratch.track(frameGray.submat(largestFace));
+            int minEyeSize = Math.max(MIN_DETECTABLE_FACE, largestFace.width / 12);
+            MatOfRect eyes = scratch.track(new MatOfRect());
+            eyesCascade.classifier().detectMultiScale(
+                faceROI,
+                eyes,
+                1.1,  // Scale factor
+                3,    // Min neighbors
+                0,    // Flags
+                new Size(minEyeSize, minEyeSize),
+                new Size(faceROI.width() / 2, faceROI.height() / 2)
+            );
+
+            List<Rect> listOfEyes = new ArrayList<>();
+            for (Rect eye : eyes.toList()) {
+                listOfEyes.add(new Rect(largestFace.x + eye.x, largestFace.y + eye.y, eye.width, eye.height));
+            }
+
+            // For the largest face, detect nose with a smaller min size and a max size relative to the face
+            MatOfRect noses = scratch.track(new MatOfRect());
+            noseCascade.classifier().detectMultiScale(
+                faceROI,
+                noses,
+                1.1,  // Scale factor
+                3,    // Min neighbors
+                0,    // Flags
+                new Size(10, 10),
+                new Size(faceROI.width() / 2, faceROI.height() / 2)
+            );
+
+            // The largest nose candidate is most likely the actual nose
+            Rect largestNose = null;
+            for (Rect nose : noses.toList()) {
+                if (largestNose == null || nose.area() > largestNose.area()) {
+                    largestNose = nose;
+                }
+            }
+            if (largestNose != null) {
+                largestNose = new Rect(largestFace.x + largestNose.x, largestFace.y + largestNose.y,
+                    largestNose.width, largestNose.height);
+            }
+
+            return new FaceAnalysis(List.copyOf(listOfFaces), largestFace, List.copyOf(listOfEyes), largestNose);
+        }
+    }
+
+    private List<Rect> detectFaces(MatArena scratch, CascadeClassifier faceCascade, Mat frameGray) {
+        int longSide = Math.max(frameGray.cols(), frameGray.rows());
+        int shortSide = Math.min(frameGray.cols(), frameGray.rows());
+        double scale = maxSide > 0 && longSide > maxSide ? (double) maxSide / longSide : 1.0;
+
+        Mat detectionImage = frameGray;
+        if (scale < 1.0) {
+            detectionImage = scratch.mat();
+            Imgproc.resize(frameGray, detectionImage, new Size(), scale, scale, Imgproc.INTER_AREA);
+        }
+
+        // A face that fills less than minFaceFraction of the short side can't yield a usable passport crop
+        int scaledShortSide = (int) Math.round(shortSide * scale);
+        int minFace = Math.max(MIN_DETECTABLE_FACE, (int) (scaledShortSide * minFaceFraction));
+        int maxFace = Math.max(minFace, (int) (scaledShortSide * maxFaceFraction));
+
+        MatOfRect faces = scratch.track(new MatOfRect());
+        faceCascade.detectMultiScale(
+            detectionImage,
+            faces,
+            1.1,  // Scale factor
+            3,    // Min neighbors
+            0,    // Flags
+            new Size(minFace, minFace),
+            new Size(maxFace, maxFace)
+        );
+
+        if (scale == 1.0) {
+            return faces.toList();
+        }
+
+        // Map the rectangles back to full resolution coordinates
+        List<Rect> mapped = new ArrayList<>();
+        for (Rect face : faces.toList()) {
+            int x = (int) Math.round(face.x / scale);
+            int y = (int) Math.round(face.y / scale);
+            int width = Math.min((int) Math.round(face.width / scale), frameGray.cols() - x);
+            int height = Math.min((int) Math.round(face.height / scale), frameGray.rows() - y);
+            mapped.add(new Rect(x, y, width, height));
+        }
+        return mapped;
+    }
+}
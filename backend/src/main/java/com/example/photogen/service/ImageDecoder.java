@@ -0,0 +1,194 @@
+package com.example.photogen.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.ImageDecodeProperties;
+
+/**
+ * Decodes uploaded image bytes straight from the request stream. When the length is known the
+ * bytes are streamed in small chunks into a single native buffer that {@code imdecode} reads, so
+ * the upload never exists as a whole on the Java heap.
+ *
+ * Images are decoded to a working resolution of at most {@code photogen.decode.working-megapixels}.
+ * The size is read from the JPEG, PNG or WebP header first, and uploads declaring more than
+ * {@code photogen.decode.max-megapixels} are rejected before decoding. The largest power-of-two
+ * reduction that still covers the budget is then requested from {@code imdecode}: a JPEG is
+ * decoded directly at that scale, which is far cheaper in time and memory than decoding it whole,
+ * while PNG and WebP are decoded whole and reduced by OpenCV. Formats whose header isn't read are
+ * decoded whole and checked against the limit afterwards. Every image is then scaled down the
+ * rest of the way to the budget.
+ */
+@Component
+public class ImageDecoder {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // Reductions imdecode can apply while decoding, largest first
+    private static final int[] REDUCTIONS = {8, 4, 2};
+    private static final int[] REDUCED_FLAGS = {
+        Imgcodecs.IMREAD_REDUCED_COLOR_8, Imgcodecs.IMREAD_REDUCED_COLOR_4, Imgcodecs.IMREAD_REDUCED_COLOR_2
+    };
+
+    private final long maxBytes;
+    private final double workingPixels;
+    private final double maxPixels;
+
+    public ImageDecoder(@Value("${spring.servlet.multipart.max-file-size:20MB}") DataSize maxUploadSize,
+            ImageDecodeProperties properties) {
+        this.maxBytes = maxUploadSize.toBytes();
+        this.workingPixels = properties.workingMegapixels() * 1_000_000;
+        this.maxPixels = properties.maxMegapixels() * 1_000_000;
+    }
+
+    /**
+     * Decodes a colour image from {@code in}, which holds {@code length} bytes, or an unknown
+     * number of bytes when {@code length} is negative.
+     *
+     * @throws IllegalArgumentException if the upload is too large or isn't a readable image
+     */
+    public Mat decode(InputStream in, long length) throws IOException {
+        Mat encoded = read(in, length);
+        Mat image = decode(encoded);
+        encoded.release();
+        return image;
+    }
+
+    /**
+     * Reads the still-encoded bytes of {@code in} into native memory, for decoding later with
+     * {@link #decode(Mat)}.
+     *
+     * @throws IllegalArgumentException if the upload is too large
+     */
+    public Mat read(InputStream in, long length) throws IOException {
+        return length >= 0 ? readKnownLength(in, length) : readUnknownLength(in);
+    }
+
+    /**
+     * Decodes a colour image at the working resolution from bytes returned by
+     * {@link #read(InputStream, long)}.
+     *
+     * @throws IllegalArgumentException if the bytes aren't a readable image or have too many pixels
+     */
+    public Mat decode(Mat encoded) {
+        return decodeWorking(encoded).image();
+    }
+
+    /**
+     * Same as {@link #decode(Mat)}, also returning how much smaller the working image is than the
+     * upload, for callers that report coordinates in the upload's own pixels.
+     *
+     * @throws IllegalArgumentException if the bytes aren't a readable image or have too many pixels
+     */
+    public WorkingImage decodeWorking(Mat encoded) {
+        Size stored = encoded.empty() ? null : ImageDimensions.of(encoded);
+        if (stored != null && stored.area() > maxPixels) {
+            throw tooLarge();
+        }
+
+        Mat image = encoded.empty() ? new Mat() : Imgcodecs.imdecode(encoded, stored != null ? flags(stored) : Imgcodecs.IMREAD_COLOR);
+        if (image.empty()) {
+            throw new IllegalArgumentException("Could not read image");
+        }
+        if (stored == null && image.total() > maxPixels) {
+            image.release();
+            throw tooLarge();
+        }
+
+        // The header size is before any EXIF rotation, so the longer sides are compared. Without
+        // one the image was decoded whole, so its own size is the upload's
+        double fullSide = stored != null ? Math.max(stored.width, stored.height) : Math.max(image.cols(), image.rows());
+        Mat fitted = fit(image);
+        return new WorkingImage(fitted, fullSide / Math.max(fitted.cols(), fitted.rows()));
+    }
+
+    /**
+     * Decodes a colour image from encoded bytes already on the heap.
+     *
+     * @throws IllegalArgumentException if the bytes aren't a readable image
+     */
+    public Mat decode(byte[] bytes) {
+        MatOfByte encoded = new MatOfByte(bytes);
+        Mat image = decode(encoded);
+        encoded.release();
+        return image;
+    }
+
+    /** The largest reduction that still leaves at least the working resolution. */
+    private int flags(Size stored) {
+        for (int i = 0; i < REDUCTIONS.length; i++) {
+            double reduced = stored.area() / (REDUCTIONS[i] * REDUCTIONS[i]);
+            if (reduced >= workingPixels) {
+                return REDUCED_FLAGS[i];
+            }
+        }
+        return Imgcodecs.IMREAD_COLOR;
+    }
+
+    private IllegalArgumentException tooLarge() {
+        return new IllegalArgumentException("Image is larger than " + Math.round(maxPixels / 1_000_000) + " megapixels");
+    }
+
+    private Mat fit(Mat image) {
+        double pixels = (double) image.cols() * image.rows();
+        if (pixels <= workingPixels) {
+            return image;
+        }
+        double scale = Math.sqrt(workingPixels / pixels);
+        Mat fitted = new Mat();
+        Imgproc.resize(image, fitted, new Size(), scale, scale, Imgproc.INTER_AREA);
+        image.release();
+        return fitted;
+    }
+
+    private Mat readKnownLength(InputStream in, long length) throws IOException {
+        if (length > maxBytes) {
+            throw new IllegalArgumentException("Image is larger than " + maxBytes + " bytes");
+        }
+        if (length == 0) {
+            return new Mat();
+        }
+
+        Mat encoded = new Mat(1, (int) length, CvType.CV_8UC1);
+        byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, length)];
+        int filled = 0;
+        while (filled < length) {
+            int read = in.read(chunk, 0, (int) Math.min(chunk.length, length - filled));
+            if (read < 0) {
+                // Shorter than declared; decode what arrived, in a buffer of its own so the caller
+                // releasing it releases everything
+                Mat arrived = encoded.colRange(0, filled);
+                Mat copy = arrived.clone();
+                arrived.release();
+                encoded.release();
+                return copy;
+            }
+            encoded.put(0, filled, chunk, 0, read);
+            filled += read;
+        }
+        return encoded;
+    }
+
+    private Mat readUnknownLength(InputStream in) throws IOException {
+        byte[] bytes = in.readNBytes((int) Math.min(Integer.MAX_VALUE - 8, maxBytes + 1));
+        if (bytes.length > maxBytes) {
+            throw new IllegalArgumentException("Image is larger than " + maxBytes + " bytes");
+        }
+        return new MatOfByte(bytes);
+    }
+}
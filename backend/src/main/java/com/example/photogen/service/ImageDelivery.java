@@ -0,0 +1,29 @@
+package com.example.photogen.service;
+
+import java.util.Locale;
+
+/** How a JSON response carries the processed image, chosen with the {@code delivery} option. */
+public enum ImageDelivery {
+
+    /** As a base64 data URL, along with the link if the image was stored. */
+    INLINE,
+
+    /** As a link to the stored image alone, or as a data URL if it couldn't be stored. */
+    URL;
+
+    /**
+     * Parses the {@code delivery} request option, which may be null.
+     *
+     * @throws IllegalArgumentException if the value is unknown
+     */
+    public static ImageDelivery of(String delivery) {
+        if (delivery == null) {
+            return INLINE;
+        }
+        try {
+            return valueOf(delivery.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidOptionException("Unknown delivery " + delivery + "; use inline or url");
+        }
+    }
+}
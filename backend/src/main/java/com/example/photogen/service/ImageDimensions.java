@@ -0,0 +1,119 @@
+package com.example.photogen.service;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * Reads the width and height of an encoded JPEG, PNG or WebP image from its header, without
+ * decoding it. JPEG dimensions are those stored in the frame header, before any EXIF rotation.
+ */
+final class ImageDimensions {
+
+    private ImageDimensions() {
+    }
+
+    /** The stored size of the image in {@code encoded}, or null if the format isn't recognised. */
+    static Size of(Mat encoded) {
+        long total = encoded.total();
+        if (total < 30) {
+            return null;
+        }
+        // A view of the bytes as one row, whatever shape they were read into
+        Mat bytes = encoded.reshape(1, 1);
+        try {
+            byte[] head = read(bytes, 0, 30);
+            if (u8(head, 0) == 0xFF && u8(head, 1) == 0xD8) {
+                return jpeg(bytes, total);
+            }
+            if (u8(head, 0) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G') {
+                return new Size(u32be(head, 16), u32be(head, 20));
+            }
+            if (ascii(head, 0, "RIFF") && ascii(head, 8, "WEBP")) {
+                return webp(head);
+            }
+            return null;
+        } finally {
+            bytes.release();
+        }
+    }
+
+    /** Walks the JPEG segments up to the first start-of-frame marker. */
+    private static Size jpeg(Mat bytes, long total) {
+        long offset = 2;
+        while (offset + 9 <= total) {
+            byte[] segment = read(bytes, offset, 9);
+            if (u8(segment, 0) != 0xFF) {
+                return null;
+            }
+            int marker = u8(segment, 1);
+            if (marker == 0xFF) {
+                // Fill byte before a marker
+                offset++;
+                continue;
+            }
+            // SOF0 to SOF15, except DHT, JPG and DAC which share the range
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                return new Size(u16be(segment, 7), u16be(segment, 5));
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // End of image or start of scan before any frame header
+                return null;
+            }
+            offset += 2 + u16be(segment, 2);
+        }
+        return null;
+    }
+
+    private static Size webp(byte[] head) {
+        if (ascii(head, 12, "VP8 ")) {
+            return new Size(u16le(head, 26) & 0x3FFF, u16le(head, 28) & 0x3FFF);
+        }
+        if (ascii(head, 12, "VP8L")) {
+            long bits = u32le(head, 21);
+            return new Size((bits & 0x3FFF) + 1, ((bits >> 14) & 0x3FFF) + 1);
+        }
+        if (ascii(head, 12, "VP8X")) {
+            return new Size(u24le(head, 24) + 1, u24le(head, 27) + 1);
+        }
+        return null;
+    }
+
+    private static byte[] read(Mat bytes, long offset, int length) {
+        byte[] buffer = new byte[length];
+        bytes.get(0, (int) offset, buffer);
+        return buffer;
+    }
+
+    private static int u8(byte[] bytes, int offset) {
+        return bytes[offset] & 0xFF;
+    }
+
+    private static int u16be(byte[] bytes, int offset) {
+        return u8(bytes, offset) << 8 | u8(bytes, offset + 1);
+    }
+
+    private static int u16le(byte[] bytes, int offset) {
+        return u8(bytes, offset) | u8(bytes, offset + 1) << 8;
+    }
+
+    private static int u24le(byte[] bytes, int offset) {
+        return u16le(bytes, offset) | u8(bytes, offset + 2) << 16;
+    }
+
+    private static long u32be(byte[] bytes, int offset) {
+        return (long) u16be(bytes, offset) << 16 | u16be(bytes, offset + 2);
+    }
+
+    private static long u32le(byte[] bytes, int offset) {
+        return u16le(bytes, offset) | (long) u16le(bytes, offset + 2) << 16;
+    }
+
+    private static boolean ascii(byte[] bytes, int offset, String expected) {
+        for (int i = 0; i < expected.length(); i++) {
+            if (bytes[offset + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
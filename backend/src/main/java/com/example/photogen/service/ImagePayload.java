@@ -0,0 +1,69 @@
+package com.example.photogen.service;
+
+import java.util.List;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+
+/**
+ * A JSON request body read by {@link ImagePayloadReader}: the small fields as text, and the
+ * images still encoded, in native memory owned by the arena the body was read into.
+ */
+public final class ImagePayload {
+
+    private final Map<String, String> fields;
+    private final Map<String, Mat> images;
+    private final Map<String, List<Element>> imageLists;
+
+    /** One element of an image array: the encoded image, or why it could not be read. */
+    record Element(Mat encoded, String error) {
+    }
+
+    ImagePayload(Map<String, String> fields, Map<String, Mat> images, Map<String, List<Element>> imageLists) {
+        this.fields = fields;
+        this.images = images;
+        this.imageLists = imageLists;
+    }
+
+    /** The field as text, with numbers and booleans as written, or null if it is absent or null. */
+    public String get(String name) {
+        return fields.get(name);
+    }
+
+    /**
+     * The encoded image of field {@code name}.
+     *
+     * @throws IllegalArgumentException if the body has no such image
+     */
+    public Mat image(String name) {
+        Mat image = images.get(name);
+        if (image == null) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return image;
+    }
+
+    /** The encoded image of field {@code name}, or null if the body has none. */
+    public Mat optionalImage(String name) {
+        return images.get(name);
+    }
+
+    /** The number of elements of the array field {@code name}, 0 if it is absent. */
+    public int imageCount(String name) {
+        return imageLists.getOrDefault(name, List.of()).size();
+    }
+
+    /**
+     * The encoded image at {@code index} of the array field {@code name}. Elements are read
+     * one by one, so a batch can fail an unreadable one alone.
+     *
+     * @throws IllegalArgumentException if that element isn't valid base64 or is too large
+     */
+    public Mat image(String name, int index) {
+        Element element = imageLists.get(name).get(index);
+        if (element.encoded() == null) {
+            throw new IllegalArgumentException(element.error());
+        }
+        return element.encoded();
+    }
+}
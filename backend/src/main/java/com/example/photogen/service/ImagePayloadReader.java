@@ -0,0 +1,513 @@
+package com.example.photogen.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Reads the JSON body of the image endpoints straight from the request stream. The base64 of
+ * {@code image}, {@code customBackground} and every element of {@code images} is decoded as it
+ * arrives, a chunk at a time, into a native buffer taken from the request's arena, so an upload
+ * never sits on the Java heap as one large String or array. When the body's length is known, an
+ * image field gets a buffer sized from the rest of the body, which its base64 can't exceed.
+ * Otherwise, and for the elements of a list, buffers start small and double as they fill, in
+ * power-of-two sizes the arena pool hands to the next request of a similar size; an outgrown
+ * buffer goes back to the pool as soon as its contents are copied. Each image is bounded by the
+ * upload limit and all images of a body together by the request limit.
+ *
+ * Every other field is small and read as text; nested objects and arrays are skipped, as no
+ * endpoint reads them. Images may be data URLs or bare base64.
+ */
+@Component
+public class ImagePayloadReader {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    private static final Set<String> IMAGE_FIELDS = Set.of("image", "customBackground");
+    private static final Set<String> IMAGE_LIST_FIELDS = Set.of("images");
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MIN_CAPACITY = 64 * 1024;
+    private static final int MAX_FIELD_LENGTH = 16 * 1024;
+    private static final int MAX_PREFIX_LENGTH = 256;
+
+    private static final int[] BASE64 = new int[128];
+
+    static {
+        Arrays.fill(BASE64, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final int maxBytes;
+    private final long maxTotalBytes;
+
+    public ImagePayloadReader(@Value("${spring.servlet.multipart.max-file-size:20MB}") DataSize maxUploadSize,
+            @Value("${spring.servlet.multipart.max-request-size:45MB}") DataSize maxRequestSize) {
+        this.maxBytes = (int) Math.min(Integer.MAX_VALUE - 8, maxUploadSize.toBytes());
+        this.maxTotalBytes = maxRequestSize.toBytes();
+    }
+
+    /**
+     * Reads a JSON object from {@code in}, which holds {@code length} bytes, or an unknown number
+     * when {@code length} is negative. The images are allocated from {@code arena}.
+     *
+     * @throws IllegalArgumentException if the body isn't a JSON object, an image field isn't valid base64 or
+     *                                  decodes to more than the upload limit, or the images together decode to
+     *                                  more than the request limit
+     */
+    public ImagePayload read(InputStream in, long length, MatArena arena) throws IOException {
+        return new Parser(in, length, arena).payload();
+    }
+
+    /** The state of reading one body. */
+    private final class Parser {
+
+        private final InputStream in;
+        private final long length;
+        private final MatArena arena;
+        private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private long filledTotal;
+        private long decoded;
+
+        // Decoded bytes on their way to native memory, shared by every image of the body
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+
+        private Parser(InputStream in, long length, MatArena arena) {
+            this.in = in;
+            this.length = length;
+            this.arena = arena;
+        }
+
+        ImagePayload payload() throws IOException {
+            Map<String, String> fields = new HashMap<>();
+            Map<String, Mat> images = new HashMap<>();
+            Map<String, List<ImagePayload.Element>> imageLists = new HashMap<>();
+
+            expect('{');
+            if (peekToken() == '}') {
+                read();
+                return new ImagePayload(fields, images, imageLists);
+            }
+            do {
+                String name = readString();
+                expect(':');
+                int next = peekToken();
+                if (IMAGE_FIELDS.contains(name) && next == '"') {
+                    Base64Image image = readImage(remainingDecoded());
+                    image.failIfInvalid();
+                    images.put(name, image.encoded());
+                } else if (IMAGE_LIST_FIELDS.contains(name) && next == '[') {
+                    imageLists.put(name, readImageList());
+                } else {
+                    String value = readValue();
+                    if (value != null) {
+                        fields.put(name, value);
+                    } else {
+                        fields.remove(name);
+                    }
+                }
+            } while (more('}'));
+            return new ImagePayload(fields, images, imageLists);
+        }
+
+        private List<ImagePayload.Element> readImageList() throws IOException {
+            List<ImagePayload.Element> list = new ArrayList<>();
+            expect('[');
+            if (peekToken() == ']') {
+                read();
+                return list;
+            }
+            do {
+                if (peekToken() == '"') {
+                    // A list's elements share the rest of the body, so none of them gets it all
+                    Base64Image image = readImage(0);
+                    list.add(image.error == null
+                        ? new ImagePayload.Element(image.encoded(), null)
+                        : new ImagePayload.Element(null, image.error));
+                } else {
+                    readValue();
+                    list.add(new ImagePayload.Element(null, "Not an image"));
+                }
+            } while (more(']'));
+            return list;
+        }
+
+        /** Reads an image into a buffer of {@code expectedSize} bytes to start with, or a small one if that's 0. */
+        private Base64Image readImage(long expectedSize) throws IOException {
+            expect('"');
+            Base64Image image = new Base64Image(expectedSize);
+
+            // Skip a data URL's "data:image/...;base64," prefix
+            StringBuilder head = new StringBuilder(5);
+            int c;
+            while (head.length() < 5 && (c = nextStringChar()) >= 0) {
+                head.append((char) c);
+            }
+            if (head.toString().equals("data:")) {
+                int skipped = 0;
+                while ((c = nextStringChar()) != ',') {
+                    if (c < 0 || ++skipped > MAX_PREFIX_LENGTH) {
+                        image.fail("Invalid data URL");
+                        if (c < 0) {
+                            return image;
+                        }
+                    }
+                }
+            } else {
+                for (int i = 0; i < head.length(); i++) {
+                    image.feed(head.charAt(i));
+                }
+                if (head.length() < 5) {
+                    image.finish();
+                    return image;
+                }
+            }
+
+            while ((c = nextStringChar()) >= 0) {
+                image.feed(c);
+            }
+            image.finish();
+            return image;
+        }
+
+        /** A string, number or literal as text; null for JSON null and for skipped objects and arrays. */
+        private String readValue() throws IOException {
+            int next = peekToken();
+            if (next == '"') {
+                return readString();
+            }
+            if (next == '{' || next == '[') {
+                skipNested();
+                return null;
+            }
+
+            StringBuilder literal = new StringBuilder();
+            while ((next = peek()) >= 0 && (Character.isLetterOrDigit(next) || next == '-' || next == '+' || next == '.')) {
+                literal.append((char) read());
+                if (literal.length() > MAX_FIELD_LENGTH) {
+                    throw malformed("Value is too long");
+                }
+            }
+            if (literal.isEmpty()) {
+                throw malformed("Unexpected " + describe(next));
+            }
+            String value = literal.toString();
+            return value.equals("null") ? null : value;
+        }
+
+        private String readString() throws IOException {
+            expect('"');
+            StringBuilder text = new StringBuilder();
+            ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+            int b;
+            while ((b = read()) != '"') {
+                if (b < 0) {
+                    throw malformed("Unterminated string");
+                }
+                if (b < 0x20) {
+                    throw malformed("Control character in string");
+                }
+                if (b == '\\') {
+                    // Multi-byte UTF-8 never contains a backslash, so the bytes so far form whole characters
+                    text.append(utf8.toString(StandardCharsets.UTF_8));
+                    utf8.reset();
+                    text.append((char) escape());
+                } else {
+                    utf8.write(b);
+                }
+                if (text.length() + utf8.size() > MAX_FIELD_LENGTH) {
+                    throw malformed("Value is too long");
+                }
+            }
+            return text.append(utf8.toString(StandardCharsets.UTF_8)).toString();
+        }
+
+        private void skipNested() throws IOException {
+            int depth = 0;
+            do {
+                int b = peekToken();
+                if (b == '"') {
+                    // Strings are skipped without keeping them, however long they are
+                    read();
+                    while (nextStringChar() >= 0) {
+                    }
+                    continue;
+                }
+                read();
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                } else if (b < 0) {
+                    throw malformed("Unexpected end of input");
+                }
+            } while (depth > 0);
+        }
+
+        /** The next character of a string whose opening quote has been read, or -1 at its closing quote. */
+        private int nextStringChar() throws IOException {
+            int b = read();
+            if (b == '"') {
+                return -1;
+            }
+            if (b < 0) {
+                throw malformed("Unterminated string");
+            }
+            return b == '\\' ? escape() : b;
+        }
+
+        private int escape() throws IOException {
+            int b = read();
+            return switch (b) {
+                case '"', '\\', '/' -> b;
+                case 'b' -> '\b';
+                case 'f' -> '\f';
+                case 'n' -> '\n';
+                case 'r' -> '\r';
+                case 't' -> '\t';
+                case 'u' -> {
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(read(), 16);
+                        if (digit < 0) {
+                            throw malformed("Invalid unicode escape");
+                        }
+                        value = value << 4 | digit;
+                    }
+                    yield value;
+                }
+                default -> throw malformed("Invalid escape");
+            };
+        }
+
+        private void expect(char expected) throws IOException {
+            int b = peekToken();
+            if (b != expected) {
+                throw malformed("Expected '" + expected + "' but found " + describe(b));
+            }
+            read();
+        }
+
+        /** Consumes the separator after a member or element: true for a comma, false for {@code close}. */
+        private boolean more(char close) throws IOException {
+            int b = peekToken();
+            if (b != ',' && b != close) {
+                throw malformed("Expected ',' or '" + close + "' but found " + describe(b));
+            }
+            read();
+            return b == ',';
+        }
+
+        /** The next byte that isn't whitespace, without consuming it. */
+        private int peekToken() throws IOException {
+            int b;
+            while ((b = peek()) == ' ' || b == '\t' || b == '\n' || b == '\r') {
+                read();
+            }
+            return b;
+        }
+
+        /** The most bytes the base64 in the rest of the body can decode to, or 0 when the length is unknown. */
+        private long remainingDecoded() {
+            long consumed = filledTotal - (limit - position);
+            return length < 0 ? 0 : Math.max(0, length - consumed) / 4 * 3;
+        }
+
+        private int peek() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position] & 0xff;
+        }
+
+        private int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        private boolean fill() throws IOException {
+            int read = in.read(buffer);
+            position = 0;
+            limit = Math.max(read, 0);
+            filledTotal += limit;
+            return read > 0;
+        }
+
+        private IllegalArgumentException malformed(String message) {
+            return new IllegalArgumentException("Malformed JSON: " + message);
+        }
+
+        private static String describe(int b) {
+            return b < 0 ? "end of input" : "'" + (char) b + "'";
+        }
+
+        /** One image being decoded into a native buffer that doubles in size when it fills up. */
+        private final class Base64Image {
+
+            private final long expectedSize;
+            private Mat buffer;
+            private int written;
+            private int filled;
+            private int bits;
+            private int count;
+            private int padding;
+            private String error;
+
+            Base64Image(long expectedSize) {
+                this.expectedSize = expectedSize;
+            }
+
+            void feed(int c) {
+                if (error != null || c <= ' ') {
+                    // Ignores the line breaks of MIME-style base64, and everything after an error
+                    return;
+                }
+                if (c == '=') {
+                    padding++;
+                    return;
+                }
+                int value = c < BASE64.length && padding == 0 ? BASE64[c] : -1;
+                if (value < 0) {
+                    fail("Illegal base64 character " + Integer.toHexString(c));
+                    return;
+                }
+                bits = bits << 6 | value;
+                if (++count == 4) {
+                    put(bits >> 16);
+                    put(bits >> 8);
+                    put(bits);
+                    bits = 0;
+                    count = 0;
+                }
+            }
+
+            void finish() {
+                if (error != null) {
+                    return;
+                }
+                switch (count) {
+                    case 0 -> {
+                        if (padding != 0) {
+                            fail("Invalid base64 padding");
+                        }
+                    }
+                    case 2 -> {
+                        if (padding != 0 && padding != 2) {
+                            fail("Invalid base64 padding");
+                        }
+                        put(bits >> 4);
+                    }
+                    case 3 -> {
+                        if (padding > 1) {
+                            fail("Invalid base64 padding");
+                        }
+                        put(bits >> 10);
+                        put(bits >> 2);
+                    }
+                    default -> fail("Truncated base64");
+                }
+                flush();
+            }
+
+            void fail(String message) {
+                if (error == null) {
+                    error = message;
+                }
+                if (buffer != null) {
+                    // Nothing more is written to it, and a failed element of a list is never read
+                    arena.free(buffer);
+                    buffer = null;
+                }
+            }
+
+            void failIfInvalid() {
+                if (error != null) {
+                    throw new IllegalArgumentException(error);
+                }
+            }
+
+            /** The decoded bytes, as a single row tracked by the arena. */
+            Mat encoded() {
+                return buffer == null ? arena.mat() : arena.track(buffer.colRange(0, written));
+            }
+
+            private void put(int b) {
+                if (error != null) {
+                    return;
+                }
+                chunk[filled++] = (byte) b;
+                if (filled == chunk.length) {
+                    flush();
+                }
+            }
+
+            private void flush() {
+                if (filled == 0 || error != null) {
+                    return;
+                }
+                long needed = (long) written + filled;
+                if (needed > maxBytes) {
+                    fail("Image is larger than " + maxBytes + " bytes");
+                    return;
+                }
+                if (decoded + filled > maxTotalBytes) {
+                    // Unlike a single oversized element, this fails the whole body
+                    throw new IllegalArgumentException("Images are larger than " + maxTotalBytes + " bytes in total");
+                }
+                decoded += filled;
+                if (buffer == null || needed > buffer.cols()) {
+                    grow(needed);
+                }
+                buffer.put(0, written, chunk, 0, filled);
+                written += filled;
+                filled = 0;
+            }
+
+            private void grow(long needed) {
+                int capacity;
+                if (buffer == null && expectedSize >= needed) {
+                    capacity = (int) Math.min(maxBytes, expectedSize);
+                } else {
+                    long wanted = buffer == null ? needed : Math.max(needed, 2L * buffer.cols());
+                    capacity = (int) Math.min(maxBytes, Math.max(MIN_CAPACITY, Long.highestOneBit(wanted - 1) << 1));
+                }
+                Mat grown = arena.allocate(1, capacity, CvType.CV_8UC1);
+                if (buffer != null) {
+                    if (written > 0) {
+                        Mat from = buffer.colRange(0, written);
+                        Mat to = grown.colRange(0, written);
+                        from.copyTo(to);
+                        from.release();
+                        to.release();
+                    }
+                    arena.free(buffer);
+                }
+                buffer = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.photogen.service;
+
+/**
+ * Thrown when a request option such as the output format or delivery is invalid, so handlers can
+ * answer with the message alone rather than as a failure to process the image.
+ */
+public class InvalidOptionException extends IllegalArgumentException {
+
+    public InvalidOptionException(String message) {
+        super(message);
+    }
+}
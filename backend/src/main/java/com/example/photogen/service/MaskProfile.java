@@ -0,0 +1,145 @@
+package com.example.photogen.service;
+
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Occupancy profile of a single-channel 8-bit mask: for every column the topmost and bottommost
+ * set pixel, for every row the leftmost and rightmost, plus the bounding box and area.
+ *
+ * The mask is copied out of native memory once and scanned row by row in a single pass, instead
+ * of reading pixels one at a time through {@link Mat#get(int, int)}.
+ */
+public final class MaskProfile {
+
+    public static final int NONE = -1;
+
+    private final int width;
+    private final int height;
+    private final int[] topmost;
+    private final int[] bottommost;
+    private final int[] leftmost;
+    private final int[] rightmost;
+    private final int area;
+
+    private MaskProfile(int width, int height, byte[] pixels, int threshold) {
+        this.width = width;
+        this.height = height;
+        this.topmost = new int[width];
+        this.bottommost = new int[width];
+        this.leftmost = new int[height];
+        this.rightmost = new int[height];
+        Arrays.fill(topmost, NONE);
+        Arrays.fill(bottommost, NONE);
+
+        int count = 0;
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * width;
+            int left = NONE;
+            int right = NONE;
+
+            for (int x = 0; x < width; x++) {
+                if ((pixels[rowStart + x] & 0xFF) < threshold) {
+                    continue;
+                }
+                if (left == NONE) {
+                    left = x;
+                }
+                right = x;
+                if (topmost[x] == NONE) {
+                    topmost[x] = y;
+                }
+                bottommost[x] = y;
+                count++;
+            }
+
+            leftmost[y] = left;
+            rightmost[y] = right;
+        }
+        this.area = count;
+    }
+
+    /**
+     * Profiles the pixels of {@code mask} whose value is at least {@code threshold}.
+     */
+    public static MaskProfile of(Mat mask, int threshold) {
+        if (mask.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("Expected a single-channel 8-bit mask");
+        }
+        Mat continuous = mask.isContinuous() ? mask : mask.clone();
+        byte[] pixels = new byte[continuous.rows() * continuous.cols()];
+        if (pixels.length > 0) {
+            continuous.get(0, 0, pixels);
+        }
+        if (continuous != mask) {
+            continuous.release();
+        }
+        return new MaskProfile(mask.cols(), mask.rows(), pixels, threshold);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** Row of the topmost set pixel in column {@code x}, or {@link #NONE}. */
+    public int topmost(int x) {
+        return topmost[x];
+    }
+
+    /** Row of the bottommost set pixel in column {@code x}, or {@link #NONE}. */
+    public int bottommost(int x) {
+        return bottommost[x];
+    }
+
+    /** Column of the leftmost set pixel in row {@code y}, or {@link #NONE}. */
+    public int leftmost(int y) {
+        return leftmost[y];
+    }
+
+    /** Column of the rightmost set pixel in row {@code y}, or {@link #NONE}. */
+    public int rightmost(int y) {
+        return rightmost[y];
+    }
+
+    public int area() {
+        return area;
+    }
+
+    public boolean isEmpty() {
+        return area == 0;
+    }
+
+    /** Smallest rectangle containing every set pixel, or null for an empty mask. */
+    public Rect boundingBox() {
+        if (isEmpty()) {
+            return null;
+        }
+
+        int minX = width;
+        int maxX = NONE;
+        for (int x = 0; x < width; x++) {
+            if (topmost[x] != NONE) {
+                minX = Math.min(minX, x);
+                maxX = x;
+            }
+        }
+
+        int minY = height;
+        int maxY = NONE;
+        for (int y = 0; y < height; y++) {
+            if (leftmost[y] != NONE) {
+                minY = Math.min(minY, y);
+                maxY = y;
+            }
+        }
+
+        return new Rect(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.photogen.service;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owns the native buffers of a unit of work, such as one request or one GrabCut pass, and
+ * releases them all when closed, instead of leaving them until the garbage collector finalizes
+ * the Java wrappers. Obtained from {@link MatArenas#open()}; use it in a try-with-resources
+ * block and don't let its Mats escape the block.
+ *
+ * Arenas are thread safe, so work fanned out to other threads can allocate from the arena of
+ * the request it belongs to.
+ */
+public final class MatArena implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatArena.class);
+
+    private final State state;
+    private final Cleaner.Cleanable cleanable;
+
+    MatArena(MatArenas arenas, Cleaner cleaner) {
+        this.state = new State(arenas);
+        this.cleanable = cleaner.register(this, state);
+        arenas.opened(state);
+    }
+
+    /** An empty Mat, for OpenCV functions to allocate their output into. */
+    public Mat mat() {
+        return track(new Mat());
+    }
+
+    /**
+     * A buffer of the given shape with undefined contents, reused from an earlier arena when
+     * one of the same shape is idle.
+     */
+    public Mat allocate(int rows, int cols, int type) {
+        MatArenas.Shape shape = new MatArenas.Shape(rows, cols, type);
+        Mat mat = state.arenas.take(shape);
+        if (mat == null) {
+            mat = new Mat(rows, cols, type);
+        }
+        synchronized (state) {
+            state.pooled.add(new Pooled(shape, mat));
+        }
+        return mat;
+    }
+
+    public Mat allocate(Size size, int type) {
+        return allocate((int) size.height, (int) size.width, type);
+    }
+
+    public Mat allocate(Size size, int type, Scalar value) {
+        Mat mat = allocate(size, type);
+        mat.setTo(value);
+        return mat;
+    }
+
+    /**
+     * Hands a buffer obtained from {@link #allocate} back before the arena closes, for buffers
+     * that are replaced partway through the work, such as one outgrown by its contents. It goes
+     * to the pool as it would at close, so don't use it or views of it afterwards.
+     */
+    public void free(Mat mat) {
+        Pooled freed = null;
+        synchronized (state) {
+            for (int i = 0; i < state.pooled.size(); i++) {
+                if (state.pooled.get(i).mat() == mat) {
+                    freed = state.pooled.remove(i);
+                    break;
+                }
+            }
+        }
+        if (freed == null) {
+            throw new IllegalArgumentException("The Mat was not allocated from this arena");
+        }
+        state.arenas.give(freed.shape(), freed.mat());
+    }
+
+    /** A single-channel 8-bit buffer the size of {@code like}. */
+    public Mat allocateMask(Mat like) {
+        return allocate(like.rows(), like.cols(), CvType.CV_8UC1);
+    }
+
+    /** Makes the arena responsible for releasing a Mat created elsewhere, such as a clone or a MatOfRect. */
+    public <T extends Mat> T track(T mat) {
+        synchronized (state) {
+            state.tracked.add(mat);
+        }
+        return mat;
+    }
+
+    @Override
+    public void close() {
+        state.closing = true;
+        cleanable.clean();
+    }
+
+    private record Pooled(MatArenas.Shape shape, Mat mat) {
+    }
+
+    /** Everything the arena owns, kept apart from it so the Cleaner can run after the arena is gone. */
+    static final class State implements Runnable {
+
+        private final MatArenas arenas;
+        private final List<Mat> tracked = new ArrayList<>();
+        private final List<Pooled> pooled = new ArrayList<>();
+        private boolean closed;
+
+        // Set by close(); a Cleaner run without it means the arena was never closed
+        private volatile boolean closing;
+
+        State(MatArenas arenas) {
+            this.arenas = arenas;
+        }
+
+        synchronized long nativeBytes() {
+            long bytes = 0;
+            for (Mat mat : tracked) {
+                if (!mat.isSubmatrix()) {
+                    bytes += MatArenas.bytes(mat);
+                }
+            }
+            for (Pooled buffer : pooled) {
+                bytes += MatArenas.bytes(buffer.mat());
+            }
+            return bytes;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!closing) {
+                logger.warn("A MatArena was garbage collected without being closed");
+            }
+
+            for (int i = tracked.size() - 1; i >= 0; i--) {
+                tracked.get(i).release();
+            }
+            for (Pooled buffer : pooled) {
+                arenas.give(buffer.shape(), buffer.mat());
+            }
+            tracked.clear();
+            pooled.clear();
+
+            arenas.closed(this, !closing);
+        }
+    }
+}
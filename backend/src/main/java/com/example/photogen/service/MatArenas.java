@@ -0,0 +1,114 @@
+package com.example.photogen.service;
+
+import java.lang.ref.Cleaner;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Opens {@link MatArena}s and keeps the native memory accounting for them: the bytes held by
+ * arenas that are still open, the bytes parked in the reuse pool, and the arenas that were
+ * garbage collected without being closed.
+ *
+ * Buffers allocated with {@link MatArena#allocate} go back to a pool keyed by shape when their
+ * arena closes, up to {@code photogen.mat-arena.pool-max-bytes}, so the next request of the
+ * same size skips the native allocation. A pool size of 0 releases everything instead.
+ */
+@Component
+public class MatArenas {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    record Shape(int rows, int cols, int type) {
+    }
+
+    private final Cleaner cleaner = Cleaner.create();
+    private final long maxPooledBytes;
+    private final Map<Shape, ConcurrentLinkedDeque<Mat>> pool = new ConcurrentHashMap<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong leakedArenas = new AtomicLong();
+    private final Set<MatArena.State> openArenas = ConcurrentHashMap.newKeySet();
+
+    public MatArenas(@Value("${photogen.mat-arena.pool-max-bytes:32MB}") DataSize maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes.toBytes();
+    }
+
+    public MatArena open() {
+        return new MatArena(this, cleaner);
+    }
+
+    /** Native bytes currently held by open arenas. */
+    public long getLiveBytes() {
+        long bytes = 0;
+        for (MatArena.State arena : openArenas) {
+            bytes += arena.nativeBytes();
+        }
+        return bytes;
+    }
+
+    public int getOpenArenas() {
+        return openArenas.size();
+    }
+
+    /** Native bytes kept in the pool for reuse. */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /** Arenas that were garbage collected without being closed; each one is a leak to fix. */
+    public long getLeakedArenas() {
+        return leakedArenas.get();
+    }
+
+    void opened(MatArena.State arena) {
+        openArenas.add(arena);
+    }
+
+    void closed(MatArena.State arena, boolean leaked) {
+        openArenas.remove(arena);
+        if (leaked) {
+            leakedArenas.incrementAndGet();
+        }
+    }
+
+    Mat take(Shape shape) {
+        ConcurrentLinkedDeque<Mat> idle = pool.get(shape);
+        Mat mat = idle != null ? idle.pollFirst() : null;
+        if (mat != null) {
+            pooledBytes.addAndGet(-bytes(mat));
+        }
+        return mat;
+    }
+
+    /**
+     * Parks {@code mat} for reuse if it still has {@code shape} and the pool has room, and
+     * releases it otherwise.
+     */
+    void give(Shape shape, Mat mat) {
+        long size = bytes(mat);
+        boolean unchanged = mat.rows() == shape.rows() && mat.cols() == shape.cols() && mat.type() == shape.type();
+
+        if (unchanged && pooledBytes.addAndGet(size) <= maxPooledBytes) {
+            pool.computeIfAbsent(shape, key -> new ConcurrentLinkedDeque<>()).offerFirst(mat);
+            return;
+        }
+        if (unchanged) {
+            pooledBytes.addAndGet(-size);
+        }
+        mat.release();
+    }
+
+    static long bytes(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+}
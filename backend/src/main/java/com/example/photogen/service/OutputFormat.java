@@ -0,0 +1,92 @@
+package com.example.photogen.service;
+
+import java.util.Locale;
+
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * How a background removal result is encoded. {@code quality} applies to JPEG and WebP only.
+ *
+ * <ul>
+ *   <li>{@link Type#JPEG}: the composited image, as before.</li>
+ *   <li>{@link Type#WEBP}: the composited image, lossy WebP.</li>
+ *   <li>{@link Type#PNG}: the person with the foreground mask as alpha, for the client to
+ *       composite itself; the background is transparent.</li>
+ *   <li>{@link Type#MASK}: the foreground mask alone, as a 1-bit PNG.</li>
+ * </ul>
+ */
+public record OutputFormat(Type type, int quality) {
+
+    public enum Type {
+        JPEG(".jpg", "image/jpeg", 95),
+        WEBP(".webp", "image/webp", 90),
+        PNG(".png", "image/png", 0),
+        MASK(".png", "image/png", 0);
+
+        private final String extension;
+        private final String mediaType;
+        private final int defaultQuality;
+
+        Type(String extension, String mediaType, int defaultQuality) {
+            this.extension = extension;
+            this.mediaType = mediaType;
+            this.defaultQuality = defaultQuality;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        public String mediaType() {
+            return mediaType;
+        }
+    }
+
+    /** What every endpoint returned before formats could be chosen: a JPEG at OpenCV's default quality. */
+    public static final OutputFormat DEFAULT = new OutputFormat(Type.JPEG, Type.JPEG.defaultQuality);
+
+    /**
+     * Parses the {@code format} and {@code quality} request options, either of which may be null.
+     *
+     * @throws IllegalArgumentException if the format is unknown or the quality is outside 1-100
+     */
+    public static OutputFormat of(String format, Integer quality) {
+        Type type;
+        try {
+            type = format == null ? Type.JPEG : Type.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidOptionException("Unknown output format " + format + "; use jpeg, webp, png or mask");
+        }
+        if (quality != null && (quality < 1 || quality > 100)) {
+            throw new InvalidOptionException("Quality must be between 1 and 100");
+        }
+        // Lossless formats ignore the quality, so it stays out of their cache keys
+        int effectiveQuality = type.defaultQuality == 0 ? 0 : quality != null ? quality : type.defaultQuality;
+        return new OutputFormat(type, effectiveQuality);
+    }
+
+    /** Same as {@link #of(String, Integer)}, with the quality as it appears in a JSON body. */
+    public static OutputFormat parse(String format, String quality) {
+        try {
+            return of(format, quality != null ? Integer.valueOf(quality) : null);
+        } catch (NumberFormatException e) {
+            throw new InvalidOptionException("Quality must be between 1 and 100");
+        }
+    }
+
+    /** Whether the encoded image needs the foreground mask rather than the composited image alone. */
+    public boolean needsMask() {
+        return type == Type.PNG || type == Type.MASK;
+    }
+
+    MatOfInt encoderParameters() {
+        return switch (type) {
+            case JPEG -> new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+            case WEBP -> new MatOfInt(Imgcodecs.IMWRITE_WEBP_QUALITY, quality);
+            // Compression level 1 favours encode time; the alpha compresses well regardless
+            case PNG -> new MatOfInt(Imgcodecs.IMWRITE_PNG_COMPRESSION, 1);
+            case MASK -> new MatOfInt(Imgcodecs.IMWRITE_PNG_BILEVEL, 1);
+        };
+    }
+}
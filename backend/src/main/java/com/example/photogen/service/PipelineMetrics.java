@@ -0,0 +1,156 @@
+package com.example.photogen.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times the stages of one request to an image endpoint. Every stage is recorded under
+ * {@code photogen.stage} and the whole request under {@code photogen.request}, tagged with the
+ * endpoint, the megapixel bucket of the decoded image and the outcome.
+ *
+ * Durations are only collected while the request runs and recorded when its {@link Run} is
+ * closed, so the outcome tag covers every stage. Timers are registered once per tag combination
+ * and then looked up in a local map, so requests don't go through the registry.
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String STAGE_TIMER = "photogen.stage";
+    public static final String REQUEST_TIMER = "photogen.request";
+
+    private record TimerKey(String name, String endpoint, String megapixels, String outcome, String stage) {
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Map<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+
+    public PipelineMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Starts timing a request to {@code endpoint}. Name the first stage with {@link Run#stage}.
+     */
+    public Run start(String endpoint) {
+        return new Run(endpoint);
+    }
+
+    private Timer timer(TimerKey key) {
+        return timers.computeIfAbsent(key, k -> {
+            Timer.Builder builder = Timer.builder(k.name())
+                .tags(Tags.of("endpoint", k.endpoint(), "megapixels", k.megapixels(), "outcome", k.outcome()));
+            if (k.stage() != null) {
+                builder.tag("stage", k.stage());
+            }
+            return builder.register(meterRegistry);
+        });
+    }
+
+    static String megapixelBucket(long pixels) {
+        if (pixels < 1_000_000) {
+            return "0-1";
+        }
+        if (pixels < 4_000_000) {
+            return "1-4";
+        }
+        if (pixels < 12_000_000) {
+            return "4-12";
+        }
+        return "12+";
+    }
+
+    private record Span(String stage, long nanos) {
+    }
+
+    public final class Run implements AutoCloseable {
+        private String endpoint;
+        private final long startedAt = System.nanoTime();
+        private final List<Span> spans = new ArrayList<>(8);
+        private String stage;
+        private long stageStartedAt;
+        private String megapixels = "unknown";
+        private boolean decoded;
+        private boolean succeeded;
+        private boolean closed;
+
+        private Run(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        /** Replaces the endpoint tag, for requests whose options are only known once the body is read. */
+        public void endpoint(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        /** Ends the current stage, if any, and starts {@code name}. */
+        public void stage(String name) {
+            long now = System.nanoTime();
+            endStage(now);
+            stage = name;
+            stageStartedAt = now;
+        }
+
+        public void stage(BackgroundRemovalStage stage) {
+            stage(stage.name().toLowerCase(Locale.ROOT));
+        }
+
+        /**
+         * Records the size of the decoded upload. A run that never decodes an image was answered
+         * from the result cache.
+         */
+        public void image(Mat image) {
+            megapixels = megapixelBucket(image.total());
+            decoded = true;
+        }
+
+        /**
+         * Records that the run did its work rather than answering from the result cache, for
+         * endpoints such as recolor that have no upload to decode.
+         */
+        public void computed() {
+            decoded = true;
+        }
+
+        public void succeed() {
+            succeeded = true;
+        }
+
+        /** Records every stage; the outcome is {@code error} unless {@link #succeed()} was called. */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            long now = System.nanoTime();
+            endStage(now);
+
+            String outcome = !succeeded ? "error" : decoded ? "success" : "cached";
+            for (Span span : spans) {
+                timer(new TimerKey(STAGE_TIMER, endpoint, megapixels, outcome, span.stage()))
+                    .record(span.nanos(), TimeUnit.NANOSECONDS);
+            }
+            timer(new TimerKey(REQUEST_TIMER, endpoint, megapixels, outcome, null))
+                .record(now - startedAt, TimeUnit.NANOSECONDS);
+        }
+
+        private void endStage(long now) {
+            if (stage != null) {
+                spans.add(new Span(stage, now - stageStartedAt));
+                stage = null;
+            }
+        }
+    }
+}
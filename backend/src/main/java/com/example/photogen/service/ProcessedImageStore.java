@@ -0,0 +1,232 @@
+package com.example.photogen.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import com.example.photogen.config.ProcessedImageStoreProperties;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps a copy of every processed image on disk, under {@code photogen.storage.directory}.
+ *
+ * Images are handed over already encoded and written behind the request by a single writer
+ * thread, through a bounded queue: when the disk falls behind, images are dropped rather than
+ * slowing requests down. Files are named after the SHA-256 of their content, so the same result
+ * is only ever stored once, and each write goes to a temporary file that is moved into place, so
+ * readers never see a partial image.
+ *
+ * A background task evicts images older than {@code max-age}, then the oldest images until the
+ * directory fits in {@code max-size}.
+ *
+ * Stored images are served under {@link #url}. An image still waiting for the writer is served
+ * from memory, so its URL works as soon as {@link #save} returns.
+ *
+ * Writes are timed under {@code photogen.storage.writes}, tagged {@code stored}, {@code duplicate}
+ * or {@code failed}; images dropped because the queue was full are counted separately.
+ */
+@Component
+public class ProcessedImageStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessedImageStore.class);
+
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final String WRITE_TIMER = "photogen.storage.writes";
+    private static final String URL_PREFIX = "/api/results/";
+    private static final Pattern FILE_NAME = Pattern.compile("[0-9a-f]{64}\\.(jpg|webp|png)");
+
+    private record StoredFile(Path path, long size, FileTime lastModified) {
+    }
+
+    /**
+     * A stored image: the file on disk, or the encoded bytes while the write is still queued.
+     * The part of the file name before the extension is the SHA-256 of its content.
+     */
+    public record StoredImage(String fileName, Path path, byte[] pending, long size) {
+
+        public String hash() {
+            return fileName.substring(0, fileName.indexOf('.'));
+        }
+    }
+
+    private final ProcessedImageStoreProperties properties;
+    private final Executor writer;
+    private final MeterRegistry meterRegistry;
+    private final Counter dropped;
+    private final Map<String, byte[]> pending = new ConcurrentHashMap<>();
+
+    public ProcessedImageStore(ProcessedImageStoreProperties properties,
+            @Qualifier("processedImageWriter") Executor writer,
+            @Qualifier("processedImageEvictor") ScheduledExecutorService evictor,
+            MeterRegistry meterRegistry) throws IOException {
+        this.properties = properties;
+        this.writer = writer;
+        this.meterRegistry = meterRegistry;
+        this.dropped = meterRegistry.counter("photogen.storage.dropped");
+
+        if (properties.enabled()) {
+            Files.createDirectories(properties.directory());
+            long interval = properties.evictionInterval().toMillis();
+            evictor.scheduleWithFixedDelay(this::evictQuietly, interval, interval, TimeUnit.MILLISECONDS);
+            logger.info("Storing processed images in {}", properties.directory().toAbsolutePath());
+        }
+    }
+
+    /**
+     * Queues {@code encoded} to be written as {@code <sha-256><extension>} and returns that file
+     * name, or null if storage is disabled or the write queue is full.
+     */
+    public String save(byte[] encoded, String extension) {
+        if (!properties.enabled()) {
+            return null;
+        }
+
+        String fileName = ContentHash.of(encoded) + extension;
+        pending.put(fileName, encoded);
+        try {
+            writer.execute(() -> {
+                try {
+                    write(fileName, encoded);
+                } finally {
+                    pending.remove(fileName, encoded);
+                }
+            });
+            return fileName;
+        } catch (RejectedExecutionException e) {
+            pending.remove(fileName, encoded);
+            logger.warn("Write queue full, not storing {}", fileName);
+            dropped.increment();
+            return null;
+        }
+    }
+
+    /** The path {@code fileName} is served under. */
+    public static String url(String fileName) {
+        return URL_PREFIX + fileName;
+    }
+
+    /**
+     * The image saved as {@code fileName}, or null if there is none, it has been evicted or the
+     * name isn't one {@link #save} hands out.
+     */
+    public StoredImage find(String fileName) {
+        if (!properties.enabled() || !FILE_NAME.matcher(fileName).matches()) {
+            return null;
+        }
+
+        byte[] queued = pending.get(fileName);
+        if (queued != null) {
+            return new StoredImage(fileName, null, queued, queued.length);
+        }
+
+        Path path = properties.directory().resolve(fileName);
+        try {
+            return new StoredImage(fileName, path, null, Files.size(path));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not read {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private void write(String fileName, byte[] encoded) {
+        Path target = properties.directory().resolve(fileName);
+        long startedAt = System.nanoTime();
+        String outcome = "stored";
+        try {
+            if (Files.exists(target)) {
+                // Same content as an earlier result; keep it around as if it had just been written
+                Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+                outcome = "duplicate";
+                return;
+            }
+
+            Path partial = target.resolveSibling(fileName + PARTIAL_SUFFIX);
+            try (FileChannel channel = FileChannel.open(partial,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(encoded);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            logger.debug("Stored {}", target);
+        } catch (IOException e) {
+            outcome = "failed";
+            logger.warn("Could not store {}: {}", target, e.getMessage());
+        } finally {
+            meterRegistry.timer(WRITE_TIMER, "outcome", outcome).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Deletes images past their age, then the oldest images until the directory is within its
+     * size limit.
+     */
+    void evict() throws IOException {
+        List<StoredFile> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(properties.directory())) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isRegularFile() && !path.getFileName().toString().endsWith(PARTIAL_SUFFIX)) {
+                    files.add(new StoredFile(path, attributes.size(), attributes.lastModifiedTime()));
+                }
+            }
+        }
+        files.sort(Comparator.comparing(StoredFile::lastModified));
+
+        FileTime cutoff = FileTime.from(Instant.now().minus(properties.maxAge()));
+        long totalSize = files.stream().mapToLong(StoredFile::size).sum();
+        int evicted = 0;
+
+        for (StoredFile file : files) {
+            if (file.lastModified().compareTo(cutoff) >= 0 && totalSize <= properties.maxSize().toBytes()) {
+                break;
+            }
+            if (Files.deleteIfExists(file.path())) {
+                evicted++;
+            }
+            totalSize -= file.size();
+        }
+
+        if (evicted > 0) {
+            logger.info("Evicted {} processed images, {} bytes remain", evicted, totalSize);
+        }
+    }
+
+    private void evictQuietly() {
+        try {
+            evict();
+        } catch (IOException | RuntimeException e) {
+            // Thrown out of a scheduled task, this would cancel every later run
+            logger.warn("Processed image eviction failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.photogen.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.photogen.config.ClothingTemplateProperties;
+import com.example.photogen.config.FaceAnalysisProperties;
+import com.example.photogen.config.GrabCutProperties;
+import com.example.photogen.config.ImageDecodeProperties;
+import com.example.photogen.config.ResultCacheProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Remembers the results of the image endpoints, so resubmitting the same photo with the same
+ * options skips decoding, detection and GrabCut entirely.
+ *
+ * Keys are built with {@link #key} from the SHA-256 of the uploaded bytes and every parameter
+ * that affects the result. Results are kept serialized as JSON, in a W-TinyLFU cache weighed by
+ * their size, and optionally in a directory that outlives the process. Only successful results
+ * are cached; a computation that throws fails the requests waiting on it and is retried on the
+ * next one. Concurrent requests for the same key share a single computation.
+ *
+ * Every key is scoped by a hash of the settings that change results, such as the face detector
+ * and the working resolution, so a disk tier written under other settings is never read back.
+ * A background task evicts results on disk older than {@code disk-max-age}, then the oldest
+ * results until the directory fits in {@code disk-max-size}.
+ */
+@Component
+public class ResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+
+    private static final String SUFFIX = ".json";
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private record CachedFile(Path path, long size, FileTime lastModified) {
+    }
+
+    private final ResultCacheProperties properties;
+    private final String settingsHash;
+    private final ObjectMapper objectMapper;
+    private final Cache<String, byte[]> memory;
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder diskHits = new LongAdder();
+    /** Lookups that missed in memory but were answered without computing. */
+    private final LongAdder lateHits = new LongAdder();
+
+    @Autowired
+    public ResultCache(ResultCacheProperties properties, ObjectMapper objectMapper,
+            @Qualifier("resultCacheEvictor") ScheduledExecutorService evictor, FaceAnalysisProperties faceAnalysis,
+            @Value("${photogen.cascades.directory:}") String cascadeDirectory, ImageDecodeProperties decode,
+            GrabCutProperties grabCut, ClothingTemplateProperties clothing) throws IOException {
+        this(properties, objectMapper, evictor, ContentHash.of(faceAnalysis, cascadeDirectory, decode, grabCut, clothing));
+    }
+
+    /** A cache whose keys are scoped by {@code settingsHash}, the hash of every setting results depend on. */
+    ResultCache(ResultCacheProperties properties, ObjectMapper objectMapper, ScheduledExecutorService evictor,
+            String settingsHash) throws IOException {
+        this.properties = properties;
+        this.settingsHash = settingsHash;
+        this.objectMapper = objectMapper;
+        this.memory = Caffeine.newBuilder()
+            .maximumWeight(properties.maxSize().toBytes())
+            .weigher((String key, byte[] value) -> value.length)
+            .recordStats()
+            .build();
+
+        if (properties.enabled() && properties.diskEnabled()) {
+            Files.createDirectories(properties.diskDirectory());
+            evict();
+            long interval = properties.diskEvictionInterval().toMillis();
+            evictor.scheduleWithFixedDelay(this::evictQuietly, interval, interval, TimeUnit.MILLISECONDS);
+            logger.info("Result cache on disk in {}", properties.diskDirectory().toAbsolutePath());
+        }
+    }
+
+    /**
+     * Key for {@code operation} on the image whose bytes hash to {@code imageHash}; pass every
+     * parameter the result depends on, including the hashes of any other uploads.
+     */
+    public static String key(String operation, String imageHash, Object... parameters) {
+        Object[] parts = new Object[parameters.length + 2];
+        parts[0] = operation;
+        parts[1] = imageHash;
+        System.arraycopy(parameters, 0, parts, 2, parameters.length);
+        return ContentHash.of(parts);
+    }
+
+    public <T> T get(String key, Class<T> type, Callable<T> computation) throws Exception {
+        return get(key, objectMapper.constructType(type), computation);
+    }
+
+    public <T> T get(String key, TypeReference<T> type, Callable<T> computation) throws Exception {
+        return get(key, objectMapper.constructType(type), computation);
+    }
+
+    private <T> T get(String unscopedKey, JavaType type, Callable<T> computation) throws Exception {
+        if (!properties.enabled()) {
+            return computation.call();
+        }
+        String key = scoped(unscopedKey);
+
+        byte[] cached = memory.getIfPresent(key);
+        if (cached != null) {
+            return objectMapper.readValue(cached, type);
+        }
+
+        // Identical uploads arriving together wait for the first one's result instead of computing it again
+        CompletableFuture<byte[]> computing = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, computing);
+        if (running != null) {
+            byte[] shared = await(running);
+            lateHits.increment();
+            return objectMapper.readValue(shared, type);
+        }
+
+        try {
+            cached = memory.policy().getIfPresentQuietly(key);
+            if (cached == null) {
+                cached = readFromDisk(key);
+            }
+            if (cached != null) {
+                lateHits.increment();
+                computing.complete(cached);
+                return objectMapper.readValue(cached, type);
+            }
+
+            T result = computation.call();
+            byte[] serialized = objectMapper.writeValueAsBytes(result);
+            memory.put(key, serialized);
+            writeToDisk(key, serialized);
+            computing.complete(serialized);
+            return result;
+        } catch (Throwable t) {
+            computing.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, computing);
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> running) throws Exception {
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw (Error) e.getCause();
+        }
+    }
+
+    /** Forgets the result for {@code key}, in memory and on disk. */
+    public void invalidate(String unscopedKey) {
+        String key = scoped(unscopedKey);
+        memory.invalidate(key);
+        if (properties.diskEnabled()) {
+            try {
+                Files.deleteIfExists(properties.diskDirectory().resolve(key + SUFFIX));
+            } catch (IOException e) {
+                logger.warn("Could not delete cached result {}: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Statistics of the memory tier, except that lookups answered from disk or by a concurrent
+     * identical request count as hits rather than misses.
+     */
+    public CacheStats getStats() {
+        CacheStats stats = memory.stats();
+        long late = lateHits.sum();
+        return CacheStats.of(stats.hitCount() + late, stats.missCount() - late, stats.loadSuccessCount(),
+            stats.loadFailureCount(), stats.totalLoadTime(), stats.evictionCount(), stats.evictionWeight());
+    }
+
+    /** Total serialized size of the results held in memory. */
+    public long getWeightedSize() {
+        return memory.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+
+    public long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    private String scoped(String key) {
+        return ContentHash.of(settingsHash, key);
+    }
+
+    private byte[] readFromDisk(String key) {
+        if (!properties.diskEnabled()) {
+            return null;
+        }
+
+        Path path = properties.diskDirectory().resolve(key + SUFFIX);
+        try {
+            if (isExpired(Files.getLastModifiedTime(path))) {
+                Files.deleteIfExists(path);
+                return null;
+            }
+            byte[] serialized = Files.readAllBytes(path);
+            diskHits.increment();
+            memory.put(key, serialized);
+            return serialized;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not read cached result {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, byte[] serialized) {
+        if (!properties.diskEnabled()) {
+            return;
+        }
+
+        Path path = properties.diskDirectory().resolve(key + SUFFIX);
+        Path partial = path.resolveSibling(key + SUFFIX + PARTIAL_SUFFIX);
+        try {
+            Files.write(partial, serialized);
+            Files.move(partial, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Could not write cached result {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes results on disk past their age, then the oldest results until the directory is
+     * within its size limit.
+     */
+    void evict() throws IOException {
+        List<CachedFile> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(properties.diskDirectory())) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isRegularFile() && !path.getFileName().toString().endsWith(PARTIAL_SUFFIX)) {
+                    files.add(new CachedFile(path, attributes.size(), attributes.lastModifiedTime()));
+                }
+            }
+        }
+        files.sort(Comparator.comparing(CachedFile::lastModified));
+
+        long totalSize = files.stream().mapToLong(CachedFile::size).sum();
+        int evicted = 0;
+
+        for (CachedFile file : files) {
+            if (!isExpired(file.lastModified()) && totalSize <= properties.diskMaxSize().toBytes()) {
+                break;
+            }
+            if (Files.deleteIfExists(file.path())) {
+                evicted++;
+            }
+            totalSize -= file.size();
+        }
+
+        if (evicted > 0) {
+            logger.info("Evicted {} cached results from disk, {} bytes remain", evicted, totalSize);
+        }
+    }
+
+    private void evictQuietly() {
+        try {
+            evict();
+        } catch (IOException | RuntimeException e) {
+            // Thrown out of a scheduled task, this would cancel every later run
+            logger.warn("Result cache eviction failed: {}", e.getMessage());
+        }
+    }
+
+    private boolean isExpired(FileTime lastModified) {
+        return lastModified.toInstant().isBefore(Instant.now().minus(properties.diskMaxAge()));
+    }
+}
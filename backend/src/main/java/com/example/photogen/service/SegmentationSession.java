@@ -0,0 +1,82 @@
+package com.example.photogen.service;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * What a background removal put in front of its background: the foreground pixels, including any
+ * formal clothes, and the mask they are copied through. Compositing them over another background
+ * gives the same image the full pipeline would, without segmenting again.
+ */
+public final class SegmentationSession {
+
+    private final Mat foreground;
+    private final Mat mask;
+    private final Size size;
+    private final int type;
+    private int references = 1;
+    private boolean released;
+
+    SegmentationSession(Mat foreground, Mat mask) {
+        this.foreground = foreground;
+        this.mask = mask;
+        this.size = foreground.size();
+        this.type = foreground.type();
+    }
+
+    public Size size() {
+        return size;
+    }
+
+    public int type() {
+        return type;
+    }
+
+    /**
+     * Copies the foreground onto {@code background}, which must have the session's size and type.
+     * Returns false if the session was evicted in the meantime.
+     */
+    public synchronized boolean compositeOnto(Mat background) {
+        if (released) {
+            return false;
+        }
+        foreground.copyTo(background, mask);
+        return true;
+    }
+
+    /**
+     * Copies the foreground and its mask into {@code foreground} and {@code mask}. Returns false if
+     * the session was evicted in the meantime.
+     */
+    public synchronized boolean copyTo(Mat foreground, Mat mask) {
+        if (released) {
+            return false;
+        }
+        this.foreground.copyTo(foreground);
+        this.mask.copyTo(mask);
+        return true;
+    }
+
+    /** Adds a reference for another token, unless the session has been released already. */
+    synchronized boolean retain() {
+        if (released) {
+            return false;
+        }
+        references++;
+        return true;
+    }
+
+    long bytes() {
+        return MatArenas.bytes(foreground) + MatArenas.bytes(mask);
+    }
+
+    /** Drops a reference, and releases the buffers with the last one. */
+    synchronized void release() {
+        if (released || --references > 0) {
+            return;
+        }
+        released = true;
+        foreground.release();
+        mask.release();
+    }
+}
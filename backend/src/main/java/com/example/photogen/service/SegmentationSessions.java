@@ -0,0 +1,86 @@
+package com.example.photogen.service;
+
+import java.util.UUID;
+
+import org.opencv.core.Mat;
+import org.springframework.stereotype.Component;
+
+import com.example.photogen.config.SegmentationSessionProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+
+/**
+ * Keeps the segmentation of recent background removals behind an opaque token, so trying another
+ * colour or background only has to composite. Sessions are dropped, and their native buffers
+ * released, once idle for {@code photogen.sessions.idle-timeout} or when the total exceeds
+ * {@code photogen.sessions.max-size}.
+ *
+ * A session can be {@linkplain #share shared} under several tokens, so clients that got the
+ * same cached result each recolor with a token of their own. Its buffers are released once every
+ * token has been dropped; each token weighs the full session, so sharing only makes eviction
+ * come sooner.
+ */
+@Component
+public class SegmentationSessions {
+
+    private final SegmentationSessionProperties properties;
+    private final Cache<String, SegmentationSession> sessions;
+
+    public SegmentationSessions(SegmentationSessionProperties properties) {
+        this.properties = properties;
+        this.sessions = Caffeine.newBuilder()
+            .expireAfterAccess(properties.idleTimeout())
+            .maximumWeight(properties.maxSize().toBytes())
+            .weigher((String token, SegmentationSession session) -> (int) Math.min(Integer.MAX_VALUE, session.bytes()))
+            // Expired sessions hold native memory, so they are removed on time rather than on the next access
+            .scheduler(Scheduler.systemScheduler())
+            .removalListener((String token, SegmentationSession session, RemovalCause cause) -> {
+                if (session != null) {
+                    session.release();
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Takes ownership of {@code foreground} and {@code mask} and returns the token to recolor
+     * with, or null, releasing both, if sessions are disabled.
+     */
+    public String open(Mat foreground, Mat mask) {
+        SegmentationSession session = new SegmentationSession(foreground, mask);
+        if (!properties.enabled()) {
+            session.release();
+            return null;
+        }
+
+        String token = UUID.randomUUID().toString();
+        sessions.put(token, session);
+        return token;
+    }
+
+    /**
+     * A new token for the session of {@code token}, or null if it is unknown or has expired. The
+     * session's buffers are shared, not copied.
+     */
+    public String share(String token) {
+        SegmentationSession session = get(token);
+        if (session == null || !session.retain()) {
+            return null;
+        }
+
+        String shared = UUID.randomUUID().toString();
+        sessions.put(shared, session);
+        return shared;
+    }
+
+    /** The session for {@code token}, or null if it is unknown or has expired. */
+    public SegmentationSession get(String token) {
+        return token != null ? sessions.getIfPresent(token) : null;
+    }
+
+    public boolean contains(String token) {
+        return token != null && sessions.asMap().containsKey(token);
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.photogen.service;
+
+/**
+ * Thrown when a request names a registered background that was never registered or has since
+ * been evicted, so the client knows to register it again rather than fix its photo.
+ */
+public class UnknownBackgroundException extends RuntimeException {
+
+    public UnknownBackgroundException(String backgroundId) {
+        super("Unknown or expired background " + backgroundId + ", register it again at /api/backgrounds");
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.photogen.service;
+
+import org.opencv.core.Mat;
+
+/**
+ * An upload decoded by {@link ImageDecoder} at the working resolution, and the factor that maps
+ * its coordinates back to the upload's own pixels, 1 when it wasn't scaled down.
+ */
+public record WorkingImage(Mat image, double scale) {
+}
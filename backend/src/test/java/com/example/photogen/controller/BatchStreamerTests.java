@@ -0,0 +1,56 @@
+package com.example.photogen.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.photogen.config.ComputeGateProperties;
+import com.example.photogen.service.ComputeGate;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class BatchStreamerTests {
+
+	@Test
+	void streamsResultsInOrderAndIsolatesFailures() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		BatchStreamer batchStreamer = new BatchStreamer(executor, computeGate(), new ObjectMapper(), 10);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		batchStreamer.stream(4, i -> {
+			if (i == 1) {
+				throw new IllegalArgumentException("No faces detected");
+			}
+			// Later items finish first
+			sleep((4 - i) * 20L);
+			return Map.of("value", i * 10);
+		}).getBody().writeTo(out);
+		executor.shutdown();
+
+		assertEquals("""
+			{"index":0,"value":0}
+			{"index":1,"error":"No faces detected"}
+			{"index":2,"value":20}
+			{"index":3,"value":30}
+			""", out.toString(StandardCharsets.UTF_8));
+	}
+
+	private static ComputeGate computeGate() {
+		return new ComputeGate(new ComputeGateProperties(3, 16, Duration.ofSeconds(10), Duration.ofSeconds(1), -1),
+			Executors.newFixedThreadPool(3));
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
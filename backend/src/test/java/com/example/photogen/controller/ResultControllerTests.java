@@ -0,0 +1,141 @@
+package com.example.photogen.controller;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.ProcessedImageStoreProperties;
+import com.example.photogen.service.ProcessedImageStore;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ResultControllerTests {
+
+	private static final byte[] IMAGE = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+	private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor();
+
+	@TempDir
+	Path directory;
+
+	@AfterEach
+	void shutDown() {
+		evictor.shutdownNow();
+	}
+
+	private record Stored(MockMvc mockMvc, String url, String etag) {
+	}
+
+	/** Serves {@link #IMAGE} from disk, or still queued in memory when {@code writer} never runs. */
+	private Stored store(Executor writer) throws Exception {
+		ProcessedImageStoreProperties properties = new ProcessedImageStoreProperties(true, directory, 4,
+			DataSize.ofMegabytes(1), Duration.ofDays(1), Duration.ofHours(1), Duration.ofDays(365));
+		ProcessedImageStore store = new ProcessedImageStore(properties, writer, evictor, new SimpleMeterRegistry());
+		String fileName = store.save(IMAGE, ".jpg");
+		MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new ResultController(store, properties)).build();
+		return new Stored(mockMvc, ProcessedImageStore.url(fileName), "\"" + store.find(fileName).hash() + "\"");
+	}
+
+	@Test
+	void servesTheWholeImageWithItsValidators() throws Exception {
+		Stored stored = store(Runnable::run);
+
+		stored.mockMvc().perform(get(stored.url()))
+			.andExpect(status().isOk())
+			.andExpect(header().string(HttpHeaders.ETAG, stored.etag()))
+			.andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+			.andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/jpeg"))
+			.andExpect(content().bytes(IMAGE));
+	}
+
+	@Test
+	void answersAMatchingEtagWithNotModified() throws Exception {
+		Stored stored = store(Runnable::run);
+
+		stored.mockMvc().perform(get(stored.url()).header(HttpHeaders.IF_NONE_MATCH, stored.etag()))
+			.andExpect(status().isNotModified())
+			.andExpect(content().bytes(new byte[0]));
+	}
+
+	@Test
+	void servesASingleRange() throws Exception {
+		Stored stored = store(Runnable::run);
+
+		stored.mockMvc().perform(get(stored.url()).header(HttpHeaders.RANGE, "bytes=2-5"))
+			.andExpect(status().isPartialContent())
+			.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+			.andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4))
+			.andExpect(content().bytes(new byte[] {2, 3, 4, 5}));
+	}
+
+	@Test
+	void rejectsARangePastTheEnd() throws Exception {
+		Stored stored = store(Runnable::run);
+
+		stored.mockMvc().perform(get(stored.url()).header(HttpHeaders.RANGE, "bytes=20-"))
+			.andExpect(status().isRequestedRangeNotSatisfiable())
+			.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */10"));
+	}
+
+	@Test
+	void sendsTheWholeImageForAStaleIfRangeOrSeveralRanges() throws Exception {
+		Stored stored = store(Runnable::run);
+
+		stored.mockMvc().perform(get(stored.url())
+				.header(HttpHeaders.RANGE, "bytes=2-5")
+				.header(HttpHeaders.IF_RANGE, "\"something-else\""))
+			.andExpect(status().isOk())
+			.andExpect(content().bytes(IMAGE));
+		stored.mockMvc().perform(get(stored.url()).header(HttpHeaders.RANGE, "bytes=0-1,4-5"))
+			.andExpect(status().isOk())
+			.andExpect(content().bytes(IMAGE));
+	}
+
+	@Test
+	void answersHeadWithoutABody() throws Exception {
+		Stored stored = store(Runnable::run);
+
+		stored.mockMvc().perform(head(stored.url()))
+			.andExpect(status().isOk())
+			.andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, IMAGE.length))
+			.andExpect(content().bytes(new byte[0]));
+	}
+
+	@Test
+	void servesImagesWhoseWriteIsStillQueued() throws Exception {
+		Stored stored = store(runnable -> {
+		});
+
+		stored.mockMvc().perform(get(stored.url()))
+			.andExpect(status().isOk())
+			.andExpect(content().bytes(IMAGE));
+		stored.mockMvc().perform(get(stored.url()).header(HttpHeaders.RANGE, "bytes=7-"))
+			.andExpect(status().isPartialContent())
+			.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 7-9/10"))
+			.andExpect(content().bytes(new byte[] {7, 8, 9}));
+	}
+
+	@Test
+	void answersUnknownImagesWithNotFound() throws Exception {
+		Stored stored = store(Runnable::run);
+
+		stored.mockMvc().perform(get(stored.url().replace(".jpg", ".png")))
+			.andExpect(status().isNotFound());
+	}
+}
@@ -0,0 +1,45 @@
+package com.example.photogen.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import com.example.photogen.service.ComputeBusyException;
+
+class UploadResponsesTests {
+
+	@Test
+	void mapsInvalidUploadsToBadRequest() {
+		ResponseEntity<?> invalid = UploadResponses.respond(() -> {
+			throw new IllegalArgumentException("No faces detected");
+		});
+		ResponseEntity<?> unreadable = UploadResponses.respond(() -> {
+			throw new IOException("Stream closed");
+		});
+
+		assertEquals(400, invalid.getStatusCode().value());
+		assertEquals(Map.of("error", "No faces detected"), invalid.getBody());
+		assertEquals(400, unreadable.getStatusCode().value());
+	}
+
+	@Test
+	void mapsABusyGateToTooManyRequestsAndFailuresToServerErrors() {
+		ResponseEntity<?> busy = UploadResponses.respond(() -> {
+			throw new ComputeBusyException("Busy", Duration.ofMillis(1500));
+		});
+		ResponseEntity<?> failed = UploadResponses.respond(() -> {
+			throw new IllegalStateException("Cascade not loaded");
+		});
+
+		assertEquals(429, busy.getStatusCode().value());
+		assertEquals("2", busy.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+		assertEquals(500, failed.getStatusCode().value());
+		assertEquals(Map.of("error", "Processing failed: Cascade not loaded"), failed.getBody());
+	}
+}
@@ -0,0 +1,93 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.BackgroundAssetProperties;
+import com.example.photogen.config.ImageDecodeProperties;
+
+class BackgroundAssetsTests {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	private final BackgroundAssets backgroundAssets = new BackgroundAssets(
+		new BackgroundAssetProperties(DataSize.ofMegabytes(1), DataSize.ofMegabytes(1)),
+		new ImageDecoder(DataSize.ofMegabytes(1), new ImageDecodeProperties(12, 100)));
+
+	private static MatOfByte encodedBackground() {
+		Mat background = new Mat(40, 60, CvType.CV_8UC3, new Scalar(200, 120, 40));
+		Imgproc.rectangle(background, new Point(10, 10), new Point(30, 25), new Scalar(0, 0, 255), -1);
+		MatOfByte encoded = new MatOfByte();
+		Imgcodecs.imencode(".png", background, encoded);
+		return encoded;
+	}
+
+	@Test
+	void copiesTheBackgroundResizedAsAnUploadedOneWouldBe() {
+		MatOfByte encoded = encodedBackground();
+		String id = backgroundAssets.register(encoded);
+		Size size = new Size(90, 70);
+
+		Mat expected = new Mat();
+		Imgproc.resize(Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_COLOR), expected, size, 0, 0, Imgproc.INTER_CUBIC);
+		Mat first = new Mat(size, CvType.CV_8UC3);
+		Mat second = new Mat(size, CvType.CV_8UC3);
+
+		assertTrue(backgroundAssets.copyTo(id, size, first));
+		assertTrue(backgroundAssets.copyTo(id, size, second));
+		assertEquals(0, Core.norm(expected, first, Core.NORM_INF));
+		assertEquals(0, Core.norm(expected, second, Core.NORM_INF));
+	}
+
+	@Test
+	void resizesStraightIntoTheTargetWhenARenderingCanNotBeCached() {
+		BackgroundAssets tiny = new BackgroundAssets(
+			new BackgroundAssetProperties(DataSize.ofMegabytes(1), DataSize.ofBytes(1)),
+			new ImageDecoder(DataSize.ofMegabytes(1), new ImageDecodeProperties(12, 100)));
+		MatOfByte encoded = encodedBackground();
+		String id = tiny.register(encoded);
+		Size size = new Size(90, 70);
+
+		Mat expected = new Mat();
+		Imgproc.resize(Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_COLOR), expected, size, 0, 0, Imgproc.INTER_CUBIC);
+		Mat target = new Mat(size, CvType.CV_8UC3);
+
+		assertTrue(tiny.copyTo(id, size, target));
+		assertEquals(0, Core.norm(expected, target, Core.NORM_INF));
+	}
+
+	@Test
+	void identifiesBackgroundsByContent() {
+		String id = backgroundAssets.register(encodedBackground());
+
+		assertEquals(id, backgroundAssets.register(encodedBackground()));
+		assertEquals(ContentHash.of(encodedBackground()), id);
+	}
+
+	@Test
+	void forgetsRemovedAndUnknownBackgrounds() {
+		String id = backgroundAssets.register(encodedBackground());
+		Mat target = new Mat(10, 10, CvType.CV_8UC3);
+
+		assertTrue(backgroundAssets.remove(id));
+		assertFalse(backgroundAssets.contains(id));
+		assertFalse(backgroundAssets.copyTo(id, new Size(10, 10), target));
+		assertFalse(backgroundAssets.copyTo("unknown", new Size(10, 10), target));
+		assertFalse(backgroundAssets.remove(id));
+	}
+}
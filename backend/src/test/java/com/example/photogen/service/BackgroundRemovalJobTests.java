@@ -0,0 +1,74 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.photogen.service.BackgroundRemovalJob.Snapshot;
+import com.example.photogen.service.BackgroundRemovalJob.Status;
+
+class BackgroundRemovalJobTests {
+
+	@Test
+	void subscriberSeesCurrentStateThenEveryChange() {
+		BackgroundRemovalJob job = new BackgroundRemovalJob();
+		job.advance(BackgroundRemovalStage.DECODE);
+
+		List<Snapshot> seen = new ArrayList<>();
+		job.subscribe(seen::add);
+		job.advance(BackgroundRemovalStage.DETECT);
+		job.succeed(new BackgroundRemovalResult(new byte[0], "image/jpeg", null, 4, null));
+		job.fail("ignored after completion");
+
+		assertEquals(List.of(BackgroundRemovalStage.DECODE, BackgroundRemovalStage.DETECT, BackgroundRemovalStage.DETECT),
+			seen.stream().limit(3).map(Snapshot::stage).toList());
+		assertEquals(Status.SUCCEEDED, seen.get(2).status());
+		assertEquals(4, seen.get(2).grabCutIterations());
+		assertEquals(3, seen.size());
+	}
+
+	@Test
+	void linksStoredImagesInsteadOfKeepingThemInline() {
+		BackgroundRemovalJob stored = new BackgroundRemovalJob();
+		stored.succeed(new BackgroundRemovalResult(new byte[300_000], "image/jpeg", "abc.jpg", 4, null));
+		BackgroundRemovalJob unstored = new BackgroundRemovalJob();
+		unstored.succeed(new BackgroundRemovalResult(new byte[300_000], "image/jpeg", null, 4, null));
+
+		assertNull(stored.snapshot().processedImageDataUrl());
+		assertEquals(ProcessedImageStore.url("abc.jpg"), stored.snapshot().processedImageUrl());
+		assertEquals(1024, stored.weight());
+		assertEquals(400_000 + 1024 + "data:image/jpeg;base64,".length(), unstored.weight());
+	}
+
+	@Test
+	void subscribingToFinishedJobOnlyReplaysFinalState() {
+		BackgroundRemovalJob job = new BackgroundRemovalJob();
+		job.fail("Face detection failed: No faces detected");
+
+		List<Snapshot> seen = new ArrayList<>();
+		job.subscribe(seen::add);
+
+		assertEquals(1, seen.size());
+		assertEquals(Status.FAILED, seen.get(0).status());
+	}
+
+	@Test
+	void subscribersAreCalledWithoutTheJobLocked() {
+		BackgroundRemovalJob job = new BackgroundRemovalJob();
+
+		List<Status> polled = new ArrayList<>();
+		job.subscribe(snapshot -> {
+			// Another thread polling while a subscriber is still busy must not wait for it
+			polled.add(CompletableFuture.supplyAsync(() -> job.snapshot().status()).orTimeout(5, TimeUnit.SECONDS).join());
+		});
+		job.advance(BackgroundRemovalStage.DETECT);
+
+		assertEquals(List.of(Status.QUEUED, Status.RUNNING), polled);
+	}
+}
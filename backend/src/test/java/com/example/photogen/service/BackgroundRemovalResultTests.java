@@ -0,0 +1,20 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+class BackgroundRemovalResultTests {
+
+	@Test
+	void dataUrlCarriesTheMediaType() {
+		byte[] image = {(byte) 0x89, 'P', 'N', 'G', 0};
+		String dataUrl = new BackgroundRemovalResult(image, "image/png", null, 0, null).dataUrl();
+
+		assertEquals("data:image/png;base64,", dataUrl.substring(0, 22));
+		assertArrayEquals(image, Base64.getDecoder().decode(dataUrl.substring(22)));
+	}
+}
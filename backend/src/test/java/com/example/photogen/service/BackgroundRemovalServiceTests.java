@@ -0,0 +1,96 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.BackgroundAssetProperties;
+import com.example.photogen.config.ClothingTemplateProperties;
+import com.example.photogen.config.ComputeGateProperties;
+import com.example.photogen.config.FaceAnalysisProperties;
+import com.example.photogen.config.GrabCutProperties;
+import com.example.photogen.config.ImageDecodeProperties;
+import com.example.photogen.config.ProcessedImageStoreProperties;
+import com.example.photogen.config.SegmentationSessionProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class BackgroundRemovalServiceTests {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor();
+
+	@TempDir
+	Path directory;
+
+	@AfterEach
+	void shutDown() {
+		evictor.shutdownNow();
+	}
+
+	@Test
+	void uploadsLargerThanTheWorkingResolutionComeBackAtIt() throws Exception {
+		// The 397x397 fixture tripled is 1.4 megapixels, against a working budget of half a megapixel
+		ImageDecoder imageDecoder = new ImageDecoder(DataSize.ofMegabytes(20), new ImageDecodeProperties(0.5, 100));
+		Mat upload = new Mat();
+		Imgproc.resize(Imgcodecs.imread(new ClassPathResource("fixtures/portrait.jpg").getFile().getAbsolutePath()), upload,
+			new Size(), 3, 3, Imgproc.INTER_CUBIC);
+		MatOfByte encoded = new MatOfByte();
+		Imgcodecs.imencode(".jpg", upload, encoded);
+
+		WorkingImage working = imageDecoder.decodeWorking(encoded);
+		BackgroundRemovalResult result = service(imageDecoder).process(working.image(), null, "#ffffff", false, null);
+		Mat output = Imgcodecs.imdecode(new MatOfByte(result.image()), Imgcodecs.IMREAD_COLOR);
+
+		assertEquals(working.image().size(), output.size());
+		assertTrue(output.total() <= 500_000, output.size() + " is over the working budget");
+		assertEquals(3.0 * 397 / output.cols(), working.scale(), 0.01);
+	}
+
+	private BackgroundRemovalService service(ImageDecoder imageDecoder) throws Exception {
+		SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		MatArenas matArenas = new MatArenas(DataSize.ofMegabytes(32));
+		FaceAnalysisProperties faceAnalysis = new FaceAnalysisProperties(16, FaceAnalysisProperties.Engine.HAAR, 640, 0.1,
+			1.0, new FaceAnalysisProperties.Dnn("classpath:models/face_detection_yunet_2023mar.onnx", 0.8f, 0.3f, 50));
+		FaceAnalysisService faceAnalysisService = new FaceAnalysisService(
+			new HaarFaceDetector(new CascadeClassifierRegistry("", 0, meters), matArenas, faceAnalysis), faceAnalysis, meters);
+		ComputeGate computeGate = new ComputeGate(new ComputeGateProperties(1, 16, Duration.ofSeconds(10),
+			Duration.ofSeconds(1), -1), Executors.newSingleThreadExecutor());
+		GrabCutSegmenter grabCutSegmenter = new GrabCutSegmenter(new GrabCutProperties(true, 0.25, true, 400, 50, 5, 0.001),
+			Runnable::run, computeGate, matArenas, meters);
+		// No templates, so nothing is segmented at startup
+		ClothingTemplateCache clothingTemplateCache = new ClothingTemplateCache(
+			new ClothingTemplateProperties("classpath:no-templates/*.png", "formal2", 1.5, DataSize.ofMegabytes(16)),
+			grabCutSegmenter, new PathMatchingResourcePatternResolver(), matArenas);
+		ProcessedImageStore processedImageStore = new ProcessedImageStore(new ProcessedImageStoreProperties(false, directory,
+			4, DataSize.ofMegabytes(16), Duration.ofDays(1), Duration.ofHours(1), Duration.ofDays(365)), Runnable::run,
+			evictor, meters);
+		SegmentationSessions segmentationSessions = new SegmentationSessions(
+			new SegmentationSessionProperties(true, Duration.ofMinutes(1), DataSize.ofMegabytes(16)));
+		BackgroundAssets backgroundAssets = new BackgroundAssets(
+			new BackgroundAssetProperties(DataSize.ofMegabytes(16), DataSize.ofMegabytes(16)), imageDecoder);
+
+		return new BackgroundRemovalService(faceAnalysisService, grabCutSegmenter, clothingTemplateCache, matArenas,
+			processedImageStore, segmentationSessions, backgroundAssets);
+	}
+}
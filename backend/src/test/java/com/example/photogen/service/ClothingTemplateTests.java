@@ -0,0 +1,33 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+class ClothingTemplateTests {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Test
+	void keepsItsMatsUntilTheLastHolderClosesIt() {
+		Mat mask = new Mat(4, 4, CvType.CV_8UC1, new Scalar(255));
+		ClothingTemplate template = new ClothingTemplate(new Mat(4, 4, CvType.CV_8UC3), mask, MaskProfile.of(mask, 255));
+
+		// A request borrows it, then the cache evicts it
+		assertTrue(template.retain());
+		template.close();
+		assertFalse(template.image().empty());
+
+		template.close();
+		assertTrue(template.image().empty());
+		assertTrue(template.foregroundMask().empty());
+		assertFalse(template.retain());
+	}
+}
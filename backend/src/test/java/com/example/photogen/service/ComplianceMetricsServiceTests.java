@@ -0,0 +1,74 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.ComplianceProperties;
+
+class ComplianceMetricsServiceTests {
+
+	private final MatArenas matArenas = new MatArenas(DataSize.ofBytes(0));
+
+	private final ComplianceMetricsService complianceMetricsService =
+		new ComplianceMetricsService(new ComplianceProperties(230, 0.5, 40, 10, 245, 0.2, false, false), matArenas);
+
+	@Test
+	void excludesFaceFromBackground() {
+		Mat image = new Mat(100, 100, CvType.CV_8UC3, new Scalar(250, 250, 250));
+		// A grey strip covering a quarter of the background, and a black face
+		image.submat(new Rect(0, 0, 100, 21)).setTo(new Scalar(120, 120, 120));
+		Rect face = new Rect(30, 40, 40, 40);
+		image.submat(face).setTo(new Scalar(0, 0, 0));
+
+		ComplianceMetrics metrics = complianceMetricsService.measure(image, faceAnalysis(face));
+
+		assertEquals(2100.0 / 8400, metrics.backgroundNonWhiteFraction(), 1e-9);
+		assertEquals(0.0, metrics.meanLuminance(), 1e-9);
+		assertEquals(1.0, metrics.shadowFraction(), 1e-9);
+		assertEquals(0.0, metrics.highlightFraction(), 1e-9);
+	}
+
+	@Test
+	void measuresWholeImageWithoutFace() {
+		Mat image = new Mat(50, 80, CvType.CV_8UC3, new Scalar(255, 255, 255));
+		image.submat(new Rect(0, 0, 40, 50)).setTo(new Scalar(55, 55, 55));
+
+		ComplianceMetrics metrics = complianceMetricsService.measure(image, FaceAnalysis.noFace());
+
+		assertEquals(0.5, metrics.backgroundNonWhiteFraction(), 1e-9);
+		assertEquals(100.0, metrics.backgroundDeviation(), 1e-6);
+		assertEquals(155.0, metrics.meanLuminance(), 1e-6);
+		assertEquals(0.5, metrics.highlightFraction(), 1e-9);
+	}
+
+	@Test
+	void findsNoWhiteBackgroundWhenTheFaceFillsThePhoto() {
+		Mat image = new Mat(60, 60, CvType.CV_8UC3, new Scalar(255, 255, 255));
+
+		ComplianceMetrics metrics = complianceMetricsService.measure(image, faceAnalysis(new Rect(0, 0, 60, 60)));
+
+		assertEquals(1.0, metrics.backgroundNonWhiteFraction(), 1e-9);
+	}
+
+	@Test
+	void releasesItsSubmatrixHeaders() {
+		Mat image = new Mat(100, 100, CvType.CV_8UC3, new Scalar(250, 250, 250));
+
+		complianceMetricsService.measure(image, faceAnalysis(new Rect(30, 40, 40, 40)));
+
+		assertEquals(0, matArenas.getOpenArenas());
+		assertEquals(0, matArenas.getLeakedArenas());
+	}
+
+	private FaceAnalysis faceAnalysis(Rect face) {
+		return new FaceAnalysis(List.of(face), face, List.of(), null);
+	}
+}
@@ -0,0 +1,125 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.photogen.config.ComputeGateProperties;
+
+class ComputeGateTests {
+
+	private final ExecutorService computeExecutor = Executors.newFixedThreadPool(1);
+	private final ExecutorService callers = Executors.newCachedThreadPool();
+
+	@AfterEach
+	void shutDown() {
+		computeExecutor.shutdownNow();
+		callers.shutdownNow();
+	}
+
+	@Test
+	void turnsAwayWorkOnceTheQueueIsFull() throws Exception {
+		ComputeGate gate = gate(0, Duration.ofSeconds(10));
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<String> holder = callers.submit(() -> gate.call(() -> {
+			running.countDown();
+			release.await();
+			return "done";
+		}));
+		running.await();
+
+		ComputeBusyException busy = assertThrows(ComputeBusyException.class, () -> gate.call(() -> "rejected"));
+		assertEquals(Duration.ofSeconds(2), busy.getRetryAfter());
+		assertEquals(1, gate.getRejected());
+
+		release.countDown();
+		assertEquals("done", holder.get());
+		assertEquals("admitted", gate.call(() -> "admitted"));
+	}
+
+	@Test
+	void turnsAwayWorkThatWaitsTooLong() throws Exception {
+		ComputeGate gate = gate(4, Duration.ofMillis(50));
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		callers.submit(() -> gate.call(() -> {
+			running.countDown();
+			release.await();
+			return null;
+		}));
+		running.await();
+
+		assertThrows(ComputeBusyException.class, () -> gate.call(() -> "late"));
+		assertEquals(0, gate.getWaiting());
+		release.countDown();
+	}
+
+	@Test
+	void runsNestedCallsWithoutASecondPermit() throws Exception {
+		ComputeGate gate = gate(0, Duration.ofMillis(50));
+
+		assertEquals("inner", gate.callWhenFree(() -> gate.call(() -> "inner")));
+		assertEquals(0, gate.getActive());
+	}
+
+	@Test
+	void runsWorkOfVirtualThreadsOnThePool() throws Exception {
+		ComputeGate gate = gate(0, Duration.ofSeconds(10));
+
+		try (ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+			assertFalse(virtualThreads.submit(() -> gate.call(() -> Thread.currentThread().isVirtual())).get());
+		}
+	}
+
+	@Test
+	void keepsThePermitOfAnInterruptedCallerUntilItsWorkFinishes() throws Exception {
+		ComputeGate gate = gate(0, Duration.ofSeconds(10));
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicReference<Throwable> thrown = new AtomicReference<>();
+
+		Thread caller = Thread.ofVirtual().start(() -> {
+			try {
+				gate.call(() -> {
+					running.countDown();
+					release.await();
+					return null;
+				});
+			} catch (Throwable e) {
+				thrown.set(e);
+			}
+		});
+		running.await();
+		caller.interrupt();
+
+		// The work on the pool goes on, and the caller waits for it with the permit
+		caller.join(100);
+		assertTrue(caller.isAlive());
+		assertEquals(1, gate.getActive());
+
+		release.countDown();
+		caller.join();
+		assertInstanceOf(InterruptedException.class, thrown.get());
+		assertEquals(0, gate.getActive());
+	}
+
+	private ComputeGate gate(int queueCapacity, Duration maxWait) {
+		return new ComputeGate(new ComputeGateProperties(1, queueCapacity, maxWait, Duration.ofSeconds(2), -1),
+			computeExecutor);
+	}
+}
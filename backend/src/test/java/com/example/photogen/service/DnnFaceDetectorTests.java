@@ -0,0 +1,56 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.FaceAnalysisProperties;
+
+class DnnFaceDetectorTests {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Test
+	void findsTheFaceAndItsLandmarksWithTheBundledModel() throws Exception {
+		FaceAnalysisProperties properties = new FaceAnalysisProperties(16, FaceAnalysisProperties.Engine.DNN, 640, 0.1, 1.0,
+			new FaceAnalysisProperties.Dnn("classpath:models/face_detection_yunet_2023mar.onnx", 0.8f, 0.3f, 50));
+		DnnFaceDetector detector = new DnnFaceDetector(new ClassPathResource("models/face_detection_yunet_2023mar.onnx"),
+			new MatArenas(DataSize.ofMegabytes(8)), properties);
+		Mat image = Imgcodecs.imread(new ClassPathResource("fixtures/portrait.jpg").getFile().getAbsolutePath());
+
+		FaceAnalysis analysis = detector.detect(image);
+
+		assertEquals(1, analysis.faces().size());
+		assertEquals(2, analysis.eyes().size());
+		assertNotNull(analysis.nose());
+		Rect face = analysis.largestFace();
+		for (Rect feature : List.of(analysis.eyes().get(0), analysis.eyes().get(1), analysis.nose())) {
+			assertTrue(face.contains(new Point(feature.x + feature.width / 2.0, feature.y + feature.height / 2.0)),
+				feature + " is outside the face " + face);
+		}
+	}
+
+	@Test
+	void failsAtStartupWithoutItsModel() {
+		FaceAnalysisProperties properties = new FaceAnalysisProperties(16, FaceAnalysisProperties.Engine.DNN, 640, 0.1, 1.0,
+			new FaceAnalysisProperties.Dnn("classpath:models/missing.onnx", 0.8f, 0.3f, 50));
+
+		IllegalStateException e = assertThrows(IllegalStateException.class, () -> new DnnFaceDetector(
+			new ClassPathResource("models/missing.onnx"), new MatArenas(DataSize.ofMegabytes(1)), properties));
+		assertTrue(e.getMessage().contains("classpath:models/missing.onnx"));
+	}
+}
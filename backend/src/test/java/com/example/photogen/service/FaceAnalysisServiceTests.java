@@ -0,0 +1,75 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.FaceAnalysisProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class FaceAnalysisServiceTests {
+
+	private final CascadeClassifierRegistry cascadeClassifierRegistry = new CascadeClassifierRegistry("", 0, new SimpleMeterRegistry());
+
+	private final FaceAnalysisService faceAnalysisService = haar(640);
+
+	@Test
+	void detectsFaceInPortrait() throws Exception {
+		FaceAnalysis analysis = faceAnalysisService.analyze(readFixture());
+
+		assertTrue(analysis.hasFace());
+		assertTrue(analysis.largestFace().area() > 0);
+	}
+
+	@Test
+	void reusesAnalysisForIdenticalPixels() throws Exception {
+		FaceAnalysis first = faceAnalysisService.analyze(readFixture());
+		FaceAnalysis second = faceAnalysisService.analyze(readFixture());
+
+		assertSame(first, second);
+	}
+
+	@Test
+	void downscaledDetectionMatchesFullResolution() throws Exception {
+		// Simulate a phone photo by upscaling the fixture well past the detection bound
+		Mat large = new Mat();
+		Imgproc.resize(readFixture(), large, new Size(), 3, 3, Imgproc.INTER_CUBIC);
+
+		FaceAnalysisService fullResolution = haar(0);
+		Rect expected = fullResolution.analyze(large).largestFace();
+		Rect actual = faceAnalysisService.analyze(large).largestFace();
+
+		assertTrue(intersectionOverUnion(expected, actual) > 0.8,
+			"expected " + expected + " but was " + actual);
+	}
+
+	private FaceAnalysisService haar(int maxSide) {
+		FaceAnalysisProperties properties = new FaceAnalysisProperties(16, FaceAnalysisProperties.Engine.HAAR, maxSide, 0.1, 1.0,
+			new FaceAnalysisProperties.Dnn("classpath:models/face_detection_yunet_2023mar.onnx", 0.8f, 0.3f, 50));
+		HaarFaceDetector detector = new HaarFaceDetector(cascadeClassifierRegistry, new MatArenas(DataSize.ofMegabytes(1)), properties);
+		return new FaceAnalysisService(detector, properties, new SimpleMeterRegistry());
+	}
+
+	private double intersectionOverUnion(Rect a, Rect b) {
+		int width = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+		int height = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+		if (width <= 0 || height <= 0) {
+			return 0;
+		}
+		double intersection = (double) width * height;
+		return intersection / (a.area() + b.area() - intersection);
+	}
+
+	private Mat readFixture() throws Exception {
+		return Imgcodecs.imread(new ClassPathResource("fixtures/portrait.jpg").getFile().getAbsolutePath());
+	}
+}
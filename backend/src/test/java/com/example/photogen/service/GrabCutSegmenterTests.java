@@ -0,0 +1,129 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.ComputeGateProperties;
+import com.example.photogen.config.GrabCutProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class GrabCutSegmenterTests {
+
+	// A negative tolerance disables the early exit, matching the fixed 50 iteration behaviour
+	private final GrabCutSegmenter fullImageSegmenter =
+		new GrabCutSegmenter(new GrabCutProperties(false, 0.25, false, 400, 50, 5, -1), Runnable::run, gate(1), new MatArenas(DataSize.ofMegabytes(8)),
+			new SimpleMeterRegistry());
+
+	@Test
+	void regionOfInterestMatchesFullImageSegmentation() throws Exception {
+		GrabCutSegmenter roiSegmenter = new GrabCutSegmenter(new GrabCutProperties(true, 0.25, false, 400, 50, 5, -1), Runnable::run, gate(1), new MatArenas(DataSize.ofMegabytes(8)),
+			new SimpleMeterRegistry());
+
+		Mat image = readFixture();
+		Rect rect = new Rect(90, 20, 210, 250);
+
+		Mat expected = fullImageSegmenter.segment(image, rect).foregroundMask();
+		Mat actual = roiSegmenter.segment(image, rect).foregroundMask();
+
+		double mismatch = mismatch(expected, actual);
+		assertTrue(mismatch < 0.02, "masks differ on " + mismatch * 100 + "% of the foreground");
+	}
+
+	@Test
+	void coarseToFineConvergesEarlyAndMatchesFullImageSegmentation() throws Exception {
+		GrabCutSegmenter coarseToFineSegmenter = new GrabCutSegmenter(new GrabCutProperties(true, 0.25, true, 200, 50, 5, 0.001), Runnable::run, gate(1), new MatArenas(DataSize.ofMegabytes(8)),
+			new SimpleMeterRegistry());
+
+		Mat image = new Mat();
+		Imgproc.resize(readFixture(), image, new Size(), 2, 2, Imgproc.INTER_CUBIC);
+		Rect rect = new Rect(180, 40, 420, 500);
+
+		Mat expected = fullImageSegmenter.segment(image, rect).foregroundMask();
+		GrabCutResult actual = coarseToFineSegmenter.segment(image, rect);
+
+		double mismatch = mismatch(expected, actual.foregroundMask());
+		assertTrue(mismatch < 0.05, "masks differ on " + mismatch * 100 + "% of the foreground");
+		assertTrue(actual.iterations() < 50, "used " + actual.iterations() + " iterations");
+	}
+
+	@Test
+	void splitRegionsNeverRunMoreGrabCutsThanThereArePermits() throws Exception {
+		ExecutorService segmentationPool = Executors.newFixedThreadPool(4);
+		ExecutorService computePool = Executors.newFixedThreadPool(2);
+		ExecutorService callers = Executors.newFixedThreadPool(4);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		try {
+			ComputeGate gate = new ComputeGate(new ComputeGateProperties(2, 16, Duration.ofSeconds(30),
+				Duration.ofSeconds(1), -1), computePool);
+			MatArenas matArenas = new MatArenas(DataSize.ofMegabytes(8));
+			// Counts the GrabCut passes in flight, whichever thread runs them
+			GrabCutSegmenter segmenter = new GrabCutSegmenter(new GrabCutProperties(true, 0.25, false, 400, 5, 5, -1),
+					segmentationPool, gate, matArenas, new SimpleMeterRegistry()) {
+				@Override
+				public GrabCutResult segment(Mat image, Rect rect) {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					try {
+						return super.segment(image, rect);
+					} finally {
+						running.decrementAndGet();
+					}
+				}
+			};
+			Mat image = readFixture();
+			List<Rect> rects = List.of(new Rect(90, 20, 210, 250), new Rect(0, 200, 397, 197), new Rect(20, 20, 100, 100));
+
+			List<Future<Integer>> requests = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				requests.add(callers.submit(() -> gate.callWhenFree(() -> {
+					try (MatArena arena = matArenas.open()) {
+						return segmenter.segmentAll(arena, image, rects).size();
+					}
+				})));
+			}
+			for (Future<Integer> request : requests) {
+				assertEquals(3, request.get());
+			}
+
+			assertTrue(maxRunning.get() <= 2, maxRunning.get() + " GrabCuts ran at once with 2 permits");
+		} finally {
+			segmentationPool.shutdownNow();
+			computePool.shutdownNow();
+			callers.shutdownNow();
+		}
+	}
+
+	private static ComputeGate gate(int permits) {
+		return new ComputeGate(new ComputeGateProperties(permits, 16, Duration.ofSeconds(10), Duration.ofSeconds(1), -1),
+			Executors.newFixedThreadPool(permits));
+	}
+
+	private double mismatch(Mat expected, Mat actual) {
+		Mat difference = new Mat();
+		Core.absdiff(expected, actual, difference);
+		return (double) Core.countNonZero(difference) / Core.countNonZero(expected);
+	}
+
+	private Mat readFixture() throws Exception {
+		return Imgcodecs.imread(new ClassPathResource("fixtures/portrait.jpg").getFile().getAbsolutePath());
+	}
+}
@@ -0,0 +1,103 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.ImageDecodeProperties;
+
+class ImageDecoderTests {
+
+	private final ImageDecoder imageDecoder = new ImageDecoder(DataSize.ofMegabytes(1), new ImageDecodeProperties(12, 100));
+
+	@Test
+	void decodesKnownAndUnknownLengthStreams() throws Exception {
+		byte[] bytes = new ClassPathResource("fixtures/portrait.jpg").getContentAsByteArray();
+
+		Mat known = imageDecoder.decode(new ByteArrayInputStream(bytes), bytes.length);
+		Mat unknown = imageDecoder.decode(new ByteArrayInputStream(bytes), -1);
+
+		assertEquals(known.size(), unknown.size());
+		assertEquals(3, known.channels());
+	}
+
+	@Test
+	void copiesBodiesShorterThanDeclaredIntoTheirOwnBuffer() throws Exception {
+		byte[] bytes = new ClassPathResource("fixtures/portrait.jpg").getContentAsByteArray();
+
+		Mat encoded = imageDecoder.read(new ByteArrayInputStream(bytes), bytes.length + 100);
+
+		assertFalse(encoded.isSubmatrix());
+		assertEquals(bytes.length, encoded.total());
+		assertFalse(Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_COLOR).empty());
+	}
+
+	@Test
+	void rejectsOversizedAndUnreadableUploads() {
+		byte[] garbage = new byte[1024];
+
+		assertThrows(IllegalArgumentException.class,
+			() -> imageDecoder.decode(new ByteArrayInputStream(garbage), DataSize.ofMegabytes(2).toBytes()));
+		assertThrows(IllegalArgumentException.class,
+			() -> imageDecoder.decode(new ByteArrayInputStream(garbage), garbage.length));
+	}
+
+	@Test
+	void readsStoredSizeFromHeader() throws Exception {
+		byte[] bytes = new ClassPathResource("fixtures/portrait.jpg").getContentAsByteArray();
+		Mat full = Imgcodecs.imdecode(new MatOfByte(bytes), Imgcodecs.IMREAD_COLOR);
+
+		Size stored = ImageDimensions.of(new MatOfByte(bytes));
+
+		assertEquals(Math.max(full.cols(), full.rows()), Math.max(stored.width, stored.height));
+	}
+
+	@Test
+	void decodesLargeUploadsToWorkingResolution() throws Exception {
+		byte[] bytes = new ClassPathResource("fixtures/portrait.jpg").getContentAsByteArray();
+		Size stored = ImageDimensions.of(new MatOfByte(bytes));
+		double budget = stored.area() / 20;
+		ImageDecoder reducing = new ImageDecoder(DataSize.ofMegabytes(1), new ImageDecodeProperties(budget / 1_000_000, 100));
+
+		Mat image = reducing.decode(bytes);
+
+		assertTrue(image.cols() * (double) image.rows() <= budget + image.cols() + image.rows());
+		assertTrue(image.cols() * (double) image.rows() >= budget * 0.9);
+	}
+
+	@Test
+	void rejectsUploadsAboveThePixelLimit() throws Exception {
+		byte[] bytes = new ClassPathResource("fixtures/portrait.jpg").getContentAsByteArray();
+		ImageDecoder limited = new ImageDecoder(DataSize.ofMegabytes(1), new ImageDecodeProperties(12, 0.01));
+
+		assertThrows(IllegalArgumentException.class, () -> limited.decode(bytes));
+	}
+
+	@Test
+	void fitsFormatsWithoutAParsedHeaderAfterDecoding() {
+		Mat large = new Mat(400, 300, CvType.CV_8UC3, new Scalar(10, 20, 30));
+		MatOfByte bmp = new MatOfByte();
+		Imgcodecs.imencode(".bmp", large, bmp);
+		ImageDecoder reducing = new ImageDecoder(DataSize.ofMegabytes(1), new ImageDecodeProperties(0.03, 100));
+
+		WorkingImage working = reducing.decodeWorking(bmp);
+
+		assertTrue(working.image().total() <= 30_000 + 400);
+		assertEquals(400.0 / Math.max(working.image().cols(), working.image().rows()), working.scale(), 1e-9);
+		assertThrows(IllegalArgumentException.class,
+			() -> new ImageDecoder(DataSize.ofMegabytes(1), new ImageDecodeProperties(12, 0.1)).decode(bmp));
+	}
+}
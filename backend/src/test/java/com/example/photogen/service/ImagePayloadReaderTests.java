@@ -0,0 +1,118 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+import org.springframework.util.unit.DataSize;
+
+class ImagePayloadReaderTests {
+
+	private final ImagePayloadReader reader = new ImagePayloadReader(DataSize.ofMegabytes(1), DataSize.ofMegabytes(2));
+	private final MatArenas matArenas = new MatArenas(DataSize.ofMegabytes(4));
+
+	@Test
+	void decodesImagesAndReadsTheOtherFields() throws Exception {
+		// Large enough to outgrow the first buffer, with the slashes escaped as some encoders do
+		byte[] image = randomBytes(300_000);
+		String base64 = Base64.getEncoder().encodeToString(image).replace("/", "\\/");
+		String json = """
+			{"aspectRatio": 0.7777, "image": "data:image/jpeg;base64,%s",
+			 "backgroundColour": "#ff0000", "isFormalClothesEnabled": true, "options": {"ignored": ["x"]},
+			 "clothingTemplate": null}
+			""".formatted(base64);
+
+		try (MatArena arena = matArenas.open()) {
+			ImagePayload payload = read(json, -1, arena);
+
+			assertArrayEquals(image, bytes(payload.image("image")));
+			assertEquals("0.7777", payload.get("aspectRatio"));
+			assertEquals("#ff0000", payload.get("backgroundColour"));
+			assertEquals("true", payload.get("isFormalClothesEnabled"));
+			assertNull(payload.get("clothingTemplate"));
+			assertNull(payload.optionalImage("customBackground"));
+		}
+	}
+
+	@Test
+	void keepsOnlyTheLastBufferOfAGrowingImage() throws Exception {
+		byte[] image = randomBytes(300_000);
+		String json = "{\"image\": \"" + Base64.getEncoder().encodeToString(image) + "\"}";
+
+		try (MatArena arena = matArenas.open()) {
+			// Unknown length: the buffers double from 64KB, and each outgrown one goes back to the pool
+			assertArrayEquals(image, bytes(read(json, -1, arena).image("image")));
+			assertEquals(512 * 1024, matArenas.getLiveBytes());
+		}
+		try (MatArena arena = matArenas.open()) {
+			// Known length: one buffer sized from the body, never outgrown
+			assertArrayEquals(image, bytes(read(json, json.length(), arena).image("image")));
+			assertTrue(matArenas.getLiveBytes() < 301_000);
+		}
+	}
+
+	@Test
+	void failsOnlyTheUnreadableElementsOfABatch() throws Exception {
+		byte[] first = randomBytes(10);
+		byte[] second = randomBytes(11);
+		String json = "{\"images\": [\"%s\", \"not base64!\", \"data:image/png;base64,%s\", 42]}".formatted(
+			Base64.getEncoder().encodeToString(first), Base64.getEncoder().encodeToString(second));
+
+		try (MatArena arena = matArenas.open()) {
+			ImagePayload payload = read(json, json.length(), arena);
+
+			assertEquals(4, payload.imageCount("images"));
+			assertArrayEquals(first, bytes(payload.image("images", 0)));
+			assertThrows(IllegalArgumentException.class, () -> payload.image("images", 1));
+			assertArrayEquals(second, bytes(payload.image("images", 2)));
+			assertThrows(IllegalArgumentException.class, () -> payload.image("images", 3));
+		}
+	}
+
+	@Test
+	void rejectsMalformedBodiesAndOversizedImages() {
+		String oversized = "{\"image\": \"" + Base64.getEncoder().encodeToString(new byte[1_100_000]) + "\"}";
+
+		try (MatArena arena = matArenas.open()) {
+			assertThrows(IllegalArgumentException.class, () -> read("[]", -1, arena));
+			assertThrows(IllegalArgumentException.class, () -> read("{\"image\": \"abc", -1, arena));
+			assertThrows(IllegalArgumentException.class, () -> read("{\"image\": \"a=bc\"}", -1, arena));
+			assertThrows(IllegalArgumentException.class, () -> read(oversized, -1, arena));
+		}
+	}
+
+	@Test
+	void rejectsBatchesLargerThanTheRequestLimitInTotal() {
+		String element = "\"" + Base64.getEncoder().encodeToString(new byte[900_000]) + "\"";
+		String json = "{\"images\": [" + element + ", " + element + ", " + element + "]}";
+
+		try (MatArena arena = matArenas.open()) {
+			assertThrows(IllegalArgumentException.class, () -> read(json, json.length(), arena));
+		}
+	}
+
+	private ImagePayload read(String json, long length, MatArena arena) throws Exception {
+		return reader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), length, arena);
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] bytes(Mat encoded) {
+		byte[] bytes = new byte[(int) encoded.total()];
+		encoded.get(0, 0, bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,48 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+class MaskProfileTests {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Test
+	void profilesColumnsRowsAndBoundingBox() {
+		Mat mask = new Mat(20, 30, CvType.CV_8UC1, new Scalar(0));
+		mask.submat(new Rect(5, 4, 10, 6)).setTo(new Scalar(255));
+		mask.put(15, 25, 255);
+
+		MaskProfile profile = MaskProfile.of(mask, 255);
+
+		assertEquals(61, profile.area());
+		assertEquals(4, profile.topmost(5));
+		assertEquals(9, profile.bottommost(14));
+		assertEquals(15, profile.topmost(25));
+		assertEquals(MaskProfile.NONE, profile.topmost(0));
+		assertEquals(5, profile.leftmost(4));
+		assertEquals(14, profile.rightmost(4));
+		assertEquals(MaskProfile.NONE, profile.leftmost(12));
+		assertEquals(new Rect(5, 4, 21, 12), profile.boundingBox());
+	}
+
+	@Test
+	void ignoresPixelsBelowThreshold() {
+		Mat mask = new Mat(10, 10, CvType.CV_8UC1, new Scalar(128));
+
+		MaskProfile profile = MaskProfile.of(mask, 255);
+
+		assertTrue(profile.isEmpty());
+		assertNull(profile.boundingBox());
+	}
+}
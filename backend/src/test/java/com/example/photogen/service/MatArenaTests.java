@@ -0,0 +1,69 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.springframework.util.unit.DataSize;
+
+class MatArenaTests {
+
+	@Test
+	void releasesTrackedMatsAndReportsLiveBytes() {
+		MatArenas matArenas = new MatArenas(DataSize.ofBytes(0));
+		Mat tracked;
+
+		try (MatArena arena = matArenas.open()) {
+			tracked = arena.track(new Mat(10, 10, CvType.CV_8UC3));
+			arena.allocate(10, 10, CvType.CV_8UC1);
+			assertEquals(1, matArenas.getOpenArenas());
+			assertEquals(400, matArenas.getLiveBytes());
+		}
+
+		assertTrue(tracked.empty());
+		assertEquals(0, matArenas.getOpenArenas());
+		assertEquals(0, matArenas.getLiveBytes());
+		assertEquals(0, matArenas.getPooledBytes());
+	}
+
+	@Test
+	void reusesBuffersOfTheSameShapeWithinTheBudget() {
+		MatArenas matArenas = new MatArenas(DataSize.ofBytes(100));
+		Mat first;
+
+		try (MatArena arena = matArenas.open()) {
+			first = arena.allocate(10, 10, CvType.CV_8UC1);
+		}
+		assertEquals(100, matArenas.getPooledBytes());
+
+		try (MatArena arena = matArenas.open()) {
+			assertSame(first, arena.allocate(10, 10, CvType.CV_8UC1));
+			assertNotSame(first, arena.allocate(10, 10, CvType.CV_8UC1));
+			assertEquals(0, matArenas.getPooledBytes());
+		}
+
+		// Only one of the two fits back into the pool
+		assertEquals(100, matArenas.getPooledBytes());
+	}
+
+	@Test
+	void freedBuffersLeaveTheArenaBeforeItCloses() {
+		MatArenas matArenas = new MatArenas(DataSize.ofBytes(100));
+
+		try (MatArena arena = matArenas.open()) {
+			Mat outgrown = arena.allocate(10, 10, CvType.CV_8UC1);
+			arena.allocate(20, 10, CvType.CV_8UC1);
+			assertEquals(300, matArenas.getLiveBytes());
+
+			arena.free(outgrown);
+			assertEquals(200, matArenas.getLiveBytes());
+			assertEquals(100, matArenas.getPooledBytes());
+			assertThrows(IllegalArgumentException.class, () -> arena.free(outgrown));
+		}
+	}
+}
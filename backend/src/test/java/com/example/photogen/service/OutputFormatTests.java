@@ -0,0 +1,23 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class OutputFormatTests {
+
+	@Test
+	void defaultsToJpegAndIgnoresQualityOfLosslessFormats() {
+		assertEquals(OutputFormat.DEFAULT, OutputFormat.of(null, null));
+		assertEquals(new OutputFormat(OutputFormat.Type.WEBP, 70), OutputFormat.parse("webp", "70"));
+		assertEquals(OutputFormat.of("png", null), OutputFormat.of("PNG", 50));
+	}
+
+	@Test
+	void rejectsUnknownFormatsAndQualities() {
+		assertThrows(InvalidOptionException.class, () -> OutputFormat.of("gif", null));
+		assertThrows(InvalidOptionException.class, () -> OutputFormat.of("jpeg", 0));
+		assertThrows(InvalidOptionException.class, () -> OutputFormat.parse("jpeg", "high"));
+	}
+}
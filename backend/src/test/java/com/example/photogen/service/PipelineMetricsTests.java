@@ -0,0 +1,83 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PipelineMetricsTests {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final PipelineMetrics pipelineMetrics = new PipelineMetrics(registry);
+
+	@Test
+	void recordsEveryStageWithTheFinalOutcome() {
+		Mat image = new Mat(1500, 1000, CvType.CV_8UC3);
+		try (PipelineMetrics.Run run = pipelineMetrics.start("auto-crop")) {
+			run.stage("read");
+			run.stage("decode");
+			run.image(image);
+			run.stage(BackgroundRemovalStage.DETECT);
+			run.succeed();
+		} finally {
+			image.release();
+		}
+
+		for (String stage : new String[] {"read", "decode", "detect"}) {
+			Timer timer = registry.find(PipelineMetrics.STAGE_TIMER)
+				.tags("endpoint", "auto-crop", "stage", stage, "megapixels", "1-4", "outcome", "success")
+				.timer();
+			assertEquals(1, timer.count(), stage);
+		}
+		assertEquals(1, registry.get(PipelineMetrics.REQUEST_TIMER).tag("outcome", "success").timer().count());
+	}
+
+	@Test
+	void tellsCachedAndFailedRequestsApart() {
+		try (PipelineMetrics.Run run = pipelineMetrics.start("compliance-check")) {
+			run.stage("cache-lookup");
+			run.succeed();
+		}
+		try (PipelineMetrics.Run run = pipelineMetrics.start("compliance-check")) {
+			run.stage("read");
+		}
+
+		assertEquals(1, registry.get(PipelineMetrics.STAGE_TIMER)
+			.tags("stage", "cache-lookup", "outcome", "cached", "megapixels", "unknown").timer().count());
+		assertEquals(1, registry.get(PipelineMetrics.STAGE_TIMER).tags("stage", "read", "outcome", "error").timer().count());
+		assertNull(registry.find(PipelineMetrics.STAGE_TIMER).tag("outcome", "success").timer());
+	}
+
+	@Test
+	void countsRunsWithoutAnUploadAsComputedAndReusesTimers() {
+		for (int i = 0; i < 2; i++) {
+			try (PipelineMetrics.Run run = pipelineMetrics.start("background-recolor")) {
+				run.stage("composite");
+				run.computed();
+				run.succeed();
+			}
+		}
+
+		assertEquals(2, registry.get(PipelineMetrics.STAGE_TIMER)
+			.tags("endpoint", "background-recolor", "stage", "composite", "outcome", "success").timer().count());
+		assertNull(registry.find(PipelineMetrics.REQUEST_TIMER).tag("outcome", "cached").timer());
+	}
+
+	@Test
+	void bucketsByMegapixels() {
+		assertEquals("0-1", PipelineMetrics.megapixelBucket(640 * 480));
+		assertEquals("1-4", PipelineMetrics.megapixelBucket(1_000_000));
+		assertEquals("4-12", PipelineMetrics.megapixelBucket(4032 * 2268));
+		assertEquals("12+", PipelineMetrics.megapixelBucket(4032 * 3024));
+	}
+}
@@ -0,0 +1,104 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.ProcessedImageStoreProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ProcessedImageStoreTests {
+
+	private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor();
+
+	@TempDir
+	Path directory;
+
+	@AfterEach
+	void shutDown() {
+		evictor.shutdownNow();
+	}
+
+	private ProcessedImageStore store(boolean enabled, DataSize maxSize) throws Exception {
+		ProcessedImageStoreProperties properties = new ProcessedImageStoreProperties(enabled, directory, 4, maxSize,
+			Duration.ofDays(1), Duration.ofHours(1), Duration.ofDays(365));
+		return new ProcessedImageStore(properties, Runnable::run, evictor, new SimpleMeterRegistry());
+	}
+
+	@Test
+	void storesIdenticalContentOnce() throws Exception {
+		ProcessedImageStore store = store(true, DataSize.ofMegabytes(1));
+		byte[] image = {1, 2, 3};
+
+		String first = store.save(image, ".jpg");
+		String second = store.save(image.clone(), ".jpg");
+
+		assertEquals(first, second);
+		assertTrue(first.matches("[0-9a-f]{64}\\.jpg"));
+		assertArrayEquals(image, Files.readAllBytes(directory.resolve(first)));
+		try (var files = Files.list(directory)) {
+			assertEquals(1, files.count());
+		}
+	}
+
+	@Test
+	void findsSavedImagesByTheirName() throws Exception {
+		ProcessedImageStore store = store(true, DataSize.ofMegabytes(1));
+		String fileName = store.save(new byte[] {4, 5, 6, 7}, ".png");
+
+		ProcessedImageStore.StoredImage stored = store.find(fileName);
+
+		assertEquals(directory.resolve(fileName), stored.path());
+		assertEquals(4, stored.size());
+		assertEquals(fileName, stored.hash() + ".png");
+		assertNull(store.find(fileName.replace(".png", ".jpg")));
+		assertNull(store.find("../" + fileName));
+	}
+
+	@Test
+	void evictsExpiredThenOldestImages() throws Exception {
+		ProcessedImageStore store = store(true, DataSize.ofBytes(20));
+		Path expired = directory.resolve(store.save(new byte[10], ".jpg"));
+		Path oldest = directory.resolve(store.save(new byte[11], ".jpg"));
+		Path middle = directory.resolve(store.save(new byte[12], ".jpg"));
+		Path newest = directory.resolve(store.save(new byte[13], ".jpg"));
+		Instant now = Instant.now();
+		Files.setLastModifiedTime(expired, FileTime.from(now.minus(Duration.ofDays(2))));
+		Files.setLastModifiedTime(oldest, FileTime.from(now.minusSeconds(30)));
+		Files.setLastModifiedTime(middle, FileTime.from(now.minusSeconds(20)));
+		Files.setLastModifiedTime(newest, FileTime.from(now.minusSeconds(10)));
+
+		store.evict();
+
+		assertFalse(Files.exists(expired));
+		assertFalse(Files.exists(oldest));
+		assertFalse(Files.exists(middle));
+		assertTrue(Files.exists(newest));
+	}
+
+	@Test
+	void writesNothingWhenDisabled() throws Exception {
+		ProcessedImageStore store = store(false, DataSize.ofMegabytes(1));
+
+		assertNull(store.save(new byte[] {1}, ".jpg"));
+		try (var files = Files.list(directory)) {
+			assertEquals(0, files.count());
+		}
+	}
+}
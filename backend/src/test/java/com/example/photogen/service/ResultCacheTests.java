@@ -0,0 +1,178 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.ResultCacheProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class ResultCacheTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final AtomicInteger computations = new AtomicInteger();
+
+	@TempDir
+	Path directory;
+
+	private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor();
+
+	@AfterEach
+	void shutDown() {
+		evictor.shutdownNow();
+	}
+
+	private ResultCache cache(boolean diskEnabled) throws Exception {
+		return cache(diskEnabled, DataSize.ofMegabytes(1), "settings");
+	}
+
+	private ResultCache cache(boolean diskEnabled, DataSize diskMaxSize, String settingsHash) throws Exception {
+		return new ResultCache(new ResultCacheProperties(true, DataSize.ofMegabytes(1), diskEnabled, directory,
+			Duration.ofDays(1), diskMaxSize, Duration.ofMinutes(10)), objectMapper, evictor, settingsHash);
+	}
+
+	private BackgroundRemovalResult compute() {
+		return new BackgroundRemovalResult(new byte[3], "image/jpeg", null, computations.incrementAndGet(), "token");
+	}
+
+	@Test
+	void keysDependOnEveryParameter() {
+		String key = ResultCache.key("background-removal", "abc", null, "#ffffff", false);
+
+		assertEquals(key, ResultCache.key("background-removal", "abc", null, "#ffffff", false));
+		assertNotEquals(key, ResultCache.key("background-removal", "abc", null, "#ffffff", true));
+		assertNotEquals(key, ResultCache.key("background-removal", "abd", null, "#ffffff", false));
+	}
+
+	@Test
+	void computesEachKeyOnce() throws Exception {
+		ResultCache cache = cache(false);
+
+		BackgroundRemovalResult first = cache.get("key", BackgroundRemovalResult.class, this::compute);
+		BackgroundRemovalResult second = cache.get("key", BackgroundRemovalResult.class, this::compute);
+
+		assertEquals(first, second);
+		assertEquals(1, computations.get());
+		assertEquals(1, cache.getStats().hitCount());
+		assertEquals(1, cache.getStats().missCount());
+	}
+
+	@Test
+	void doesNotCacheFailures() throws Exception {
+		ResultCache cache = cache(false);
+
+		assertThrows(IllegalArgumentException.class, () -> cache.get("key", BackgroundRemovalResult.class, () -> {
+			throw new IllegalArgumentException("No faces detected");
+		}));
+		cache.get("key", BackgroundRemovalResult.class, this::compute);
+
+		assertEquals(1, computations.get());
+	}
+
+	@Test
+	void diskTierSurvivesANewInstance() throws Exception {
+		BackgroundRemovalResult stored = cache(true).get("key", BackgroundRemovalResult.class, this::compute);
+
+		ResultCache restarted = cache(true);
+		BackgroundRemovalResult restored = restarted.get("key", BackgroundRemovalResult.class, this::compute);
+
+		assertEquals(stored, restored);
+		assertEquals(1, computations.get());
+		assertEquals(1, restarted.getDiskHits());
+		assertEquals(1, restarted.getStats().hitCount());
+		assertEquals(0, restarted.getStats().missCount());
+	}
+
+	@Test
+	void diskTierIsNotReadUnderOtherSettings() throws Exception {
+		cache(true).get("key", BackgroundRemovalResult.class, this::compute);
+
+		ResultCache reconfigured = cache(true, DataSize.ofMegabytes(1), "other settings");
+		reconfigured.get("key", BackgroundRemovalResult.class, this::compute);
+
+		assertEquals(2, computations.get());
+		assertEquals(0, reconfigured.getDiskHits());
+	}
+
+	@Test
+	void evictsExpiredThenOldestResultsFromDisk() throws Exception {
+		ResultCache cache = cache(true, DataSize.ofBytes(150), "settings");
+		cache.get("expired", BackgroundRemovalResult.class, this::compute);
+		cache.get("oldest", BackgroundRemovalResult.class, this::compute);
+		cache.get("newest", BackgroundRemovalResult.class, this::compute);
+		Path expired = onDisk("expired");
+		Path oldest = onDisk("oldest");
+		Path newest = onDisk("newest");
+		Instant now = Instant.now();
+		Files.setLastModifiedTime(expired, FileTime.from(now.minus(Duration.ofDays(2))));
+		Files.setLastModifiedTime(oldest, FileTime.from(now.minusSeconds(20)));
+		Files.setLastModifiedTime(newest, FileTime.from(now.minusSeconds(10)));
+
+		// Each result is about 110 bytes, so only the newest fits
+		cache.evict();
+
+		assertFalse(Files.exists(expired));
+		assertFalse(Files.exists(oldest));
+		assertTrue(Files.exists(newest));
+	}
+
+	private Path onDisk(String key) {
+		Path path = directory.resolve(ContentHash.of("settings", key) + ".json");
+		assertTrue(Files.exists(path));
+		return path;
+	}
+
+	@Test
+	void concurrentRequestsShareOneComputation() throws Exception {
+		ResultCache cache = cache(false);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<BackgroundRemovalResult> first = executor.submit(() -> cache.get("key", BackgroundRemovalResult.class, () -> {
+				started.countDown();
+				release.await();
+				return compute();
+			}));
+			started.await();
+			AtomicReference<Thread> waiter = new AtomicReference<>();
+			Future<BackgroundRemovalResult> second = executor.submit(() -> {
+				waiter.set(Thread.currentThread());
+				return cache.get("key", BackgroundRemovalResult.class, this::compute);
+			});
+			while (waiter.get() == null || waiter.get().getState() != Thread.State.WAITING) {
+				Thread.onSpinWait();
+			}
+			release.countDown();
+
+			assertEquals(first.get(), second.get());
+			assertEquals(1, computations.get());
+			assertEquals(1, cache.getStats().hitCount());
+			assertEquals(1, cache.getStats().missCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
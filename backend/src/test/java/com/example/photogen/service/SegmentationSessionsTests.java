@@ -0,0 +1,90 @@
+package com.example.photogen.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.springframework.util.unit.DataSize;
+
+import com.example.photogen.config.SegmentationSessionProperties;
+
+class SegmentationSessionsTests {
+
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	private static Mat foreground() {
+		return new Mat(4, 4, CvType.CV_8UC3, new Scalar(10, 20, 30));
+	}
+
+	private static Mat leftHalf() {
+		Mat mask = new Mat(4, 4, CvType.CV_8UC1, new Scalar(0));
+		mask.submat(new Rect(0, 0, 2, 4)).setTo(new Scalar(255));
+		return mask;
+	}
+
+	@Test
+	void compositesTheKeptForegroundOntoANewBackground() {
+		SegmentationSessions sessions = new SegmentationSessions(
+			new SegmentationSessionProperties(true, Duration.ofMinutes(1), DataSize.ofMegabytes(1)));
+
+		String token = sessions.open(foreground(), leftHalf());
+		Mat background = new Mat(4, 4, CvType.CV_8UC3, new Scalar(255, 255, 255));
+
+		assertTrue(sessions.get(token).compositeOnto(background));
+		assertArrayEquals(new double[] {10, 20, 30}, background.get(0, 1));
+		assertArrayEquals(new double[] {255, 255, 255}, background.get(0, 2));
+	}
+
+	@Test
+	void sharedSessionsKeepTheirBuffersUntilTheLastTokenIsDropped() {
+		SegmentationSessions sessions = new SegmentationSessions(
+			new SegmentationSessionProperties(true, Duration.ofMinutes(1), DataSize.ofMegabytes(1)));
+		String token = sessions.open(foreground(), leftHalf());
+
+		String shared = sessions.share(token);
+		assertNotEquals(token, shared);
+		assertSame(sessions.get(token), sessions.get(shared));
+		assertNull(sessions.share("unknown"));
+
+		// What the removal listener does as each token is evicted
+		SegmentationSession session = sessions.get(token);
+		Mat background = new Mat(4, 4, CvType.CV_8UC3);
+		session.release();
+		assertTrue(session.compositeOnto(background));
+		session.release();
+		assertFalse(session.compositeOnto(background));
+		assertFalse(session.retain());
+	}
+
+	@Test
+	void forgetsIdleSessions() {
+		SegmentationSessions sessions = new SegmentationSessions(
+			new SegmentationSessionProperties(true, Duration.ZERO, DataSize.ofMegabytes(1)));
+
+		String token = sessions.open(foreground(), leftHalf());
+
+		assertNull(sessions.get(token));
+		assertFalse(sessions.contains(token));
+	}
+
+	@Test
+	void returnsNoTokenWhenDisabled() {
+		SegmentationSessions sessions = new SegmentationSessions(
+			new SegmentationSessionProperties(false, Duration.ofMinutes(1), DataSize.ofMegabytes(1)));
+
+		assertNull(sessions.open(foreground(), leftHalf()));
+	}
+}